@@ -0,0 +1,52 @@
+package com.c4gt.config;
+
+import com.c4gt.service.AppendOnlySink;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Types;
+
+/**
+ * Batched writers for the append-only tables: dropoff_events, retry_events
+ * and security_audit_log. See AppendOnlySink.
+ */
+@Configuration
+public class AppendSinkConfig {
+
+    @Value("${app.append-sink.capacity:10000}")
+    private int capacity;
+    @Value("${app.append-sink.batch-size:500}")
+    private int batchSize;
+    @Value("${app.append-sink.max-delay-ms:200}")
+    private long maxDelayMs;
+
+    @Bean
+    public AppendOnlySink dropoffSink(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        return new AppendOnlySink(new AppendOnlySink.Table("dropoff_events",
+                new String[] { "user_id", "page_id", "last_section_seen", "scroll_depth_pct", "time_spent_ms", "referrer" },
+                new String[] { "?", "?", "?", "?", "?", "?" },
+                new int[] { Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.SMALLINT, Types.INTEGER, Types.VARCHAR }),
+                jdbcTemplate, meterRegistry, capacity, batchSize, maxDelayMs);
+    }
+
+    @Bean
+    public AppendOnlySink retrySink(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        return new AppendOnlySink(new AppendOnlySink.Table("retry_events",
+                new String[] { "user_id", "page_id", "section_id", "quiz_id", "attempt_number", "previous_result" },
+                new String[] { "?", "?", "?", "?", "?", "?" },
+                new int[] { Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR }),
+                jdbcTemplate, meterRegistry, capacity, batchSize, maxDelayMs);
+    }
+
+    @Bean
+    public AppendOnlySink auditSink(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        return new AppendOnlySink(new AppendOnlySink.Table("security_audit_log",
+                new String[] { "user_id", "event_type", "ip_address", "user_agent", "details" },
+                new String[] { "?", "?", "?", "?", "?::JSONB" },
+                new int[] { Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR }),
+                jdbcTemplate, meterRegistry, capacity, batchSize, maxDelayMs);
+    }
+}
@@ -1,5 +1,9 @@
 package com.c4gt.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -7,10 +11,17 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Async and scheduling configuration.
  * Bounded thread pool prevents OOM under load.
+ * Queue depth and active threads are exported as executor.* metrics by Spring
+ * Boot; rejections are counted as engagement.executor.rejected.
+ * In virtual-thread mode the executor comes from VirtualThreadConfig instead.
+ * The @Scheduled pool is sized by spring.task.scheduling.pool.size: the
+ * default of one thread would let a long aggregation run stall every
+ * sampler and flush behind it.
  */
 @Configuration
 @EnableAsync
@@ -18,16 +29,20 @@ import java.util.concurrent.Executor;
 public class AsyncConfig {
 
     @Bean(name = "engagementExecutor")
-    public Executor engagementExecutor() {
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public Executor engagementExecutor(MeterRegistry meterRegistry) {
+        Counter rejected = meterRegistry.counter("engagement.executor.rejected");
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(4);
         executor.setMaxPoolSize(8);
         executor.setQueueCapacity(1000);
         executor.setThreadNamePrefix("engagement-");
         executor.setRejectedExecutionHandler((r, e) -> {
-            // Log rejected tasks instead of throwing
+            // Queue full — count it and push back on the submitting thread instead of dropping the task
+            rejected.increment();
             org.slf4j.LoggerFactory.getLogger(AsyncConfig.class)
-                    .warn("Engagement task rejected — queue full. Consider scaling.");
+                    .warn("Engagement task rejected — queue full, running on caller thread. Consider scaling.");
+            new ThreadPoolExecutor.CallerRunsPolicy().rejectedExecution(r, e);
         });
         executor.initialize();
         return executor;
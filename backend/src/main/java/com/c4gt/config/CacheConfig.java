@@ -1,7 +1,12 @@
 package com.c4gt.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CachingConfigurer;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.interceptor.CacheErrorHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
@@ -20,13 +25,44 @@ import java.util.Map;
  * Cache strategy:
  * - userProfile: 15 min (invalidated on update)
  * - courseContent: 1 hour (static content, rarely changes)
- * - engagementSummary: 5 min (frequently updated)
+ * - engagementSummary: 5 min (evicted when the user's writes are flushed, see EngagementSummaryCache)
  * - commentCounts: 10 min (moderate update frequency)
  * - recommendations: 30 min (recomputed on progress update)
+ *
+ * Cache errors (Redis down or slow) are logged and treated as misses, so
+ * the method runs uncached instead of the request failing.
  */
 @Configuration
 @EnableCaching
-public class CacheConfig {
+public class CacheConfig implements CachingConfigurer {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheConfig.class);
+
+    @Override
+    public CacheErrorHandler errorHandler() {
+        return new CacheErrorHandler() {
+            @Override
+            public void handleCacheGetError(RuntimeException e, Cache cache, Object key) {
+                log.warn("Cache get failed on {}, computing uncached: {}", cache.getName(), e.getMessage());
+            }
+
+            @Override
+            public void handleCachePutError(RuntimeException e, Cache cache, Object key, Object value) {
+                log.warn("Cache put failed on {}: {}", cache.getName(), e.getMessage());
+            }
+
+            @Override
+            public void handleCacheEvictError(RuntimeException e, Cache cache, Object key) {
+                // The entry may now be stale until its TTL expires
+                log.warn("Cache evict failed on {} for key {}: {}", cache.getName(), key, e.getMessage());
+            }
+
+            @Override
+            public void handleCacheClearError(RuntimeException e, Cache cache) {
+                log.warn("Cache clear failed on {}: {}", cache.getName(), e.getMessage());
+            }
+        };
+    }
 
     @Bean
     public CacheManager cacheManager(RedisConnectionFactory connectionFactory) {
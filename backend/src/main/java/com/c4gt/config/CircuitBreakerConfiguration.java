@@ -16,8 +16,8 @@ import java.time.Duration;
  * 
  * Breakers:
  * - Email service (Brevo) — sends OTP, notifications
- * - Redis — cache, rate limiting, session, feature flags
- * - Analytics DB queries — materialized view reads (non-critical)
+ * - Redis — rate limiting, token blacklist, feature flags (see RedisFastPath)
+ * - Analytics DB queries — summary table reads (non-critical)
  */
 @Configuration
 public class CircuitBreakerConfiguration {
@@ -40,12 +40,17 @@ public class CircuitBreakerConfiguration {
 
     @Bean
     public CircuitBreaker redisCircuitBreaker(CircuitBreakerRegistry registry) {
+        // Time-based: the fast path makes hundreds of calls a second, so a 10-call
+        // window would open on a few slow calls and stay open long after Redis recovered
         return registry.circuitBreaker("redis", CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.TIME_BASED)
+                .slidingWindowSize(10) // seconds
+                .minimumNumberOfCalls(20)
                 .failureRateThreshold(50)
-                .minimumNumberOfCalls(5)
-                .slidingWindowSize(10)
-                .waitDurationInOpenState(Duration.ofSeconds(30)) // Redis recover fast
-                .permittedNumberOfCallsInHalfOpenState(2)
+                .slowCallDurationThreshold(Duration.ofMillis(100)) // A brown-out counts, not just errors
+                .slowCallRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofSeconds(5)) // Redis recovers fast
+                .permittedNumberOfCallsInHalfOpenState(10)
                 .build());
     }
 
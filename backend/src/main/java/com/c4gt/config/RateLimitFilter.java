@@ -12,23 +12,27 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.time.Duration;
 
 /**
  * Rate limiting filter applied to all API requests.
  *
- * Limits:
- * - Auth endpoints (/api/auth/send-otp, /api/auth/login): 5 req/min per IP
- * - General API: 100 req/min per user (authenticated) or per IP (anonymous)
+ * Limits come from the route policies in app.rate-limit.routes (see
+ * RateLimitRoutes): the auth endpoints are limited per IP, the general API
+ * per user (or per IP when anonymous), data export gets a tight budget of
+ * its own and engagement telemetry a generous one. Every limited response
+ * carries RateLimit-Limit, RateLimit-Remaining, RateLimit-Reset and
+ * RateLimit-Policy headers; 429s add Retry-After.
  */
 @Component
 @Order(2) // After MdcLoggingFilter (order 1), before others
 public class RateLimitFilter extends OncePerRequestFilter {
 
     private final RateLimitService rateLimitService;
+    private final RateLimitRoutes routes;
 
-    public RateLimitFilter(RateLimitService rateLimitService) {
+    public RateLimitFilter(RateLimitService rateLimitService, RateLimitRoutes routes) {
         this.rateLimitService = rateLimitService;
+        this.routes = routes;
     }
 
     @Override
@@ -45,41 +49,51 @@ public class RateLimitFilter extends OncePerRequestFilter {
             return;
         }
 
-        String clientIp = getClientIp(request);
-        boolean allowed;
-
-        // Stricter limits for auth endpoints
-        if (uri.contains("/api/auth/send-otp")) {
-            allowed = rateLimitService.isAllowed("otp:" + clientIp, 5, Duration.ofMinutes(1));
-        } else if (uri.contains("/api/auth/login") || uri.contains("/api/auth/register")) {
-            allowed = rateLimitService.isAllowed("auth:" + clientIp, 10, Duration.ofMinutes(1));
-        } else {
-            // General API: per user or per IP
-            String key = resolveKey(clientIp);
-            allowed = rateLimitService.isAllowed("api:" + key, 100, Duration.ofMinutes(1));
+        RateLimitRoutes.Route route = routes.match(uri);
+        if (route == null) {
+            filterChain.doFilter(request, response);
+            return;
         }
 
-        if (!allowed) {
+        String key = limiterKey(route, currentUserId(), clientIp(request));
+        RateLimitService.Decision decision = rateLimitService.check(key, route.limit(), route.window(), route.cost());
+
+        response.setHeader("RateLimit-Limit", Integer.toString(decision.limit()));
+        response.setHeader("RateLimit-Remaining", Integer.toString(decision.remaining()));
+        response.setHeader("RateLimit-Reset", Long.toString(seconds(decision.resetAfterMillis())));
+        response.setHeader("RateLimit-Policy", route.policy());
+
+        if (!decision.allowed()) {
+            long retryAfter = Math.max(1, seconds(decision.retryAfterMillis()));
             response.setStatus(429);
             response.setContentType("application/json");
-            response.setHeader("Retry-After", "60");
+            response.setHeader("Retry-After", Long.toString(retryAfter));
             response.getWriter()
-                    .write("{\"error\":\"Too many requests\",\"code\":\"RATE_LIMITED\",\"retryAfterSeconds\":60}");
+                    .write("{\"error\":\"Too many requests\",\"code\":\"RATE_LIMITED\",\"retryAfterSeconds\":"
+                            + retryAfter + "}");
             return;
         }
 
         filterChain.doFilter(request, response);
     }
 
-    private String resolveKey(String clientIp) {
+    private static long seconds(long millis) {
+        return (millis + 999) / 1000;
+    }
+
+    /** Limiter key of a request on route: its bucket plus the user (if keyed and known) or client IP. */
+    static String limiterKey(RateLimitRoutes.Route route, Long userId, String clientIp) {
+        if (route.key() == RateLimitRoutes.KeyType.USER && userId != null)
+            return route.bucket() + ":user:" + userId;
+        return route.bucket() + ":ip:" + clientIp;
+    }
+
+    private static Long currentUserId() {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        if (auth != null && auth.getPrincipal() instanceof Long userId) {
-            return "user:" + userId;
-        }
-        return "ip:" + clientIp;
+        return auth != null && auth.getPrincipal() instanceof Long userId ? userId : null;
     }
 
-    private String getClientIp(HttpServletRequest request) {
+    static String clientIp(HttpServletRequest request) {
         String xff = request.getHeader("X-Forwarded-For");
         if (xff != null && !xff.isEmpty()) {
             return xff.split(",")[0].trim();
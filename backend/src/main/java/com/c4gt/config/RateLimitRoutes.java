@@ -0,0 +1,130 @@
+package com.c4gt.config;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-route rate limit policies from app.rate-limit.routes, compiled at
+ * startup into a trie keyed by path segment.
+ *
+ * A request gets the policy of the longest matching path prefix; "*"
+ * matches any single segment, and a literal segment wins over "*". Routes
+ * with the same bucket share one budget, so related endpoints can be
+ * limited together while heavy ones get their own, tighter budget. A
+ * request spends cost tokens from its bucket.
+ */
+@Component
+public class RateLimitRoutes {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitRoutes.class);
+
+    public enum KeyType {
+        /** Per authenticated user, or per IP for anonymous requests. */
+        USER,
+        /** Per client IP. */
+        IP
+    }
+
+    /** One route policy. Null fields take their defaults: bucket = path, 1 minute, per user, cost 1. */
+    public record Route(String path, String bucket, Integer limit, Duration window, KeyType key, Integer cost) {
+        public Route {
+            if (path == null || !path.startsWith("/"))
+                throw new IllegalArgumentException("Rate limit route path must start with '/': " + path);
+            if (limit == null || limit < 1)
+                throw new IllegalArgumentException("Rate limit route " + path + " needs a positive limit");
+            bucket = bucket != null ? bucket : path;
+            window = window != null ? window : Duration.ofMinutes(1);
+            key = key != null ? key : KeyType.USER;
+            cost = cost != null ? cost : 1;
+            if (cost < 1 || cost > limit)
+                throw new IllegalArgumentException("Rate limit route " + path + " cost must be between 1 and its limit");
+        }
+
+        /** RateLimit-Policy header value, e.g. "100;w=60". */
+        public String policy() {
+            return limit + ";w=" + window.toSeconds();
+        }
+    }
+
+    static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node wildcard;
+        Route route;
+    }
+
+    @Autowired
+    private Environment environment;
+
+    private Node root = new Node();
+
+    @PostConstruct
+    void compile() {
+        List<Route> routes = Binder.get(environment)
+                .bind("app.rate-limit.routes", Bindable.listOf(Route.class))
+                .orElse(List.of());
+        root = compile(routes);
+        log.info("Rate limit routes: {}", routes.stream()
+                .map(r -> r.path() + "=" + r.bucket() + ":" + r.policy() + (r.cost() > 1 ? "x" + r.cost() : ""))
+                .toList());
+    }
+
+    /**
+     * Policy for a request path, or null if no route covers it.
+     */
+    public Route match(String path) {
+        return match(root, path, 0);
+    }
+
+    static Node compile(List<Route> routes) {
+        Node root = new Node();
+        for (Route route : routes) {
+            Node node = root;
+            for (String segment : route.path().split("/")) {
+                if (segment.isEmpty())
+                    continue;
+                if (segment.equals("*")) {
+                    if (node.wildcard == null)
+                        node.wildcard = new Node();
+                    node = node.wildcard;
+                } else {
+                    node = node.children.computeIfAbsent(segment.toLowerCase(Locale.ROOT), s -> new Node());
+                }
+            }
+            if (node.route != null)
+                throw new IllegalArgumentException("Duplicate rate limit route: " + route.path());
+            node.route = route;
+        }
+        return root;
+    }
+
+    /** Deepest route under node for the segments of path starting at from. */
+    static Route match(Node node, String path, int from) {
+        while (from < path.length() && path.charAt(from) == '/')
+            from++;
+        if (from >= path.length())
+            return node.route;
+        int end = path.indexOf('/', from);
+        if (end < 0)
+            end = path.length();
+
+        Route found = null;
+        Node exact = node.children.get(path.substring(from, end).toLowerCase(Locale.ROOT));
+        if (exact != null)
+            found = match(exact, path, end);
+        if (found == null && node.wildcard != null)
+            found = match(node.wildcard, path, end);
+        return found != null ? found : node.route;
+    }
+}
@@ -2,6 +2,7 @@ package com.c4gt.config;
 
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.stereotype.Component;
 
@@ -20,8 +21,8 @@ public class RedisHealthIndicator implements HealthIndicator {
 
     @Override
     public Health health() {
-        try {
-            String pong = connectionFactory.getConnection().ping();
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            String pong = connection.ping();
             if ("PONG".equalsIgnoreCase(pong)) {
                 return Health.up()
                         .withDetail("service", "Redis")
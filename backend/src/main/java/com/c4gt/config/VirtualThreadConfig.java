@@ -0,0 +1,150 @@
+package com.c4gt.config;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Virtual-thread execution mode.
+ *
+ * Active only with spring.threads.virtual.enabled=true on a Java 21+ runtime;
+ * otherwise the platform-thread setup in AsyncConfig applies. With it, Spring
+ * Boot runs Tomcat requests and @Scheduled jobs on virtual threads, and this
+ * class replaces engagementExecutor (used by @Async) with a virtual-thread
+ * executor.
+ *
+ * Virtual threads make in-flight requests cheap, so pools become the limit.
+ * The DataSource and RedisConnectionFactory are wrapped with fair semaphores:
+ * callers beyond the pool size wait in FIFO order for a bounded time and
+ * then fail fast, instead of piling up inside the pool.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    @Bean(name = "engagementExecutor")
+    public Executor engagementExecutor(Environment env) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("engagement-vt-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(env.getProperty("app.virtual-threads.async-concurrency", Integer.class, 1000));
+        return executor;
+    }
+
+    @Bean
+    public static BeanPostProcessor virtualThreadPoolGuards(Environment env, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource)
+                    return guardDataSource(dataSource, beanName, env, meterRegistry);
+                if (bean instanceof RedisConnectionFactory factory)
+                    return guardRedis(factory, beanName, env, meterRegistry);
+                return bean;
+            }
+        };
+    }
+
+    private static Object guardDataSource(DataSource dataSource, String beanName, Environment env,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        int permits = dataSource instanceof HikariConfigMXBean hikari
+                ? hikari.getMaximumPoolSize()
+                : env.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class, 10);
+        long timeoutMs = env.getProperty("app.virtual-threads.jdbc-acquire-timeout-ms", Long.class, 30_000L);
+        Semaphore semaphore = new Semaphore(permits, true);
+        registerGauge(meterRegistry, "jdbc", semaphore);
+        log.info("Guarding DataSource '{}' with {} permits", beanName, permits);
+
+        ProxyFactory proxy = new ProxyFactory(dataSource);
+        proxy.addAdvice((MethodInterceptor) invocation -> {
+            if (!invocation.getMethod().getName().equals("getConnection"))
+                return invocation.proceed();
+            if (!semaphore.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS))
+                throw new SQLTransientConnectionException("Timed out after " + timeoutMs + "ms waiting for a JDBC permit");
+            try {
+                return releaseOnClose((Connection) invocation.proceed(), Connection.class, semaphore);
+            } catch (Throwable t) {
+                semaphore.release();
+                throw t;
+            }
+        });
+        return proxy.getProxy();
+    }
+
+    private static Object guardRedis(RedisConnectionFactory factory, String beanName, Environment env,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        int permits = env.getProperty("app.virtual-threads.redis-max-concurrency", Integer.class, 256);
+        long timeoutMs = env.getProperty("app.virtual-threads.redis-acquire-timeout-ms", Long.class, 2_000L);
+        Semaphore semaphore = new Semaphore(permits, true);
+        registerGauge(meterRegistry, "redis", semaphore);
+        log.info("Guarding RedisConnectionFactory '{}' with {} permits", beanName, permits);
+
+        ProxyFactory proxy = new ProxyFactory(factory);
+        proxy.addAdvice((MethodInterceptor) invocation -> {
+            String method = invocation.getMethod().getName();
+            if (!method.equals("getConnection") && !method.equals("getClusterConnection")
+                    && !method.equals("getSentinelConnection"))
+                return invocation.proceed();
+            if (!semaphore.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS))
+                throw new RedisConnectionFailureException("Timed out after " + timeoutMs + "ms waiting for a Redis permit");
+            try {
+                return releaseOnClose(invocation.proceed(), invocation.getMethod().getReturnType(), semaphore);
+            } catch (Throwable t) {
+                semaphore.release();
+                throw t;
+            }
+        });
+        return proxy.getProxy();
+    }
+
+    /** Proxy a connection so its first close() returns the permit. */
+    private static Object releaseOnClose(Object connection, Class<?> type, Semaphore semaphore) {
+        AtomicBoolean released = new AtomicBoolean();
+        ProxyFactory proxy = new ProxyFactory(connection);
+        proxy.addInterface(type);
+        proxy.addAdvice((MethodInterceptor) invocation -> {
+            if (!invocation.getMethod().getName().equals("close"))
+                return invocation.proceed();
+            try {
+                return invocation.proceed();
+            } finally {
+                if (released.compareAndSet(false, true))
+                    semaphore.release();
+            }
+        });
+        return proxy.getProxy();
+    }
+
+    private static void registerGauge(ObjectProvider<MeterRegistry> meterRegistry, String pool, Semaphore semaphore) {
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry == null)
+            return;
+        Gauge.builder("virtual.threads.pool.waiting", semaphore, Semaphore::getQueueLength)
+                .tag("pool", pool)
+                .description("Virtual threads waiting for a connection permit")
+                .register(registry);
+    }
+}
@@ -0,0 +1,62 @@
+package com.c4gt.controller;
+
+import com.c4gt.dto.BackfillRequest;
+import com.c4gt.service.AggregationRunner;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Admin endpoints for the aggregation jobs: checkpoints, catch-up and backfill.
+ * All endpoints require JWT authentication.
+ */
+@RestController
+@RequestMapping("/api/v1/admin/aggregation")
+public class AdminAggregationController {
+
+    @Autowired
+    private AggregationRunner aggregationRunner;
+
+    /**
+     * Latest checkpoints for a job, newest window first.
+     */
+    @GetMapping("/checkpoints")
+    public ResponseEntity<?> getCheckpoints(@RequestParam(defaultValue = "daily") String job,
+            @RequestParam(defaultValue = "30") int limit, Authentication auth) {
+        return ResponseEntity.ok(aggregationRunner.checkpoints(AggregationRunner.Job.of(job), Math.min(limit, 500)));
+    }
+
+    /**
+     * Recompute every window in [from, to]. Runs in the background; progress
+     * is visible through /checkpoints.
+     */
+    @PostMapping("/backfill")
+    public ResponseEntity<?> backfill(@Valid @RequestBody BackfillRequest request, Authentication auth) {
+        if (request.getTo().isBefore(request.getFrom()))
+            throw new IllegalArgumentException("'to' must not be before 'from'");
+        int windows = aggregationRunner.backfill(AggregationRunner.Job.of(request.getJob()),
+                request.getFrom(), request.getTo()).size();
+        return ResponseEntity.accepted().body(Map.of(
+                "job", request.getJob(),
+                "from", request.getFrom(),
+                "to", request.getTo(),
+                "windows", windows));
+    }
+
+    /**
+     * Run catch-up for a job now instead of waiting for the hourly pass.
+     */
+    @PostMapping("/catch-up")
+    public ResponseEntity<?> catchUp(@RequestParam(defaultValue = "daily") String job, Authentication auth) {
+        return ResponseEntity.ok(aggregationRunner.catchUp(AggregationRunner.Job.of(job)));
+    }
+}
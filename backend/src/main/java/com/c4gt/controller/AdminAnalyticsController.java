@@ -1,5 +1,6 @@
 package com.c4gt.controller;
 
+import com.c4gt.service.EngagementCounters;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -13,7 +14,7 @@ import java.util.Map;
 
 /**
  * Admin analytics endpoints.
- * Reads from materialized views for fast response times.
+ * Reads from the incrementally maintained summary tables (AnalyticsSummaryService).
  * All endpoints require JWT authentication.
  */
 @RestController
@@ -22,29 +23,42 @@ public class AdminAnalyticsController {
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EngagementCounters counters;
 
     /**
-     * Platform overview — high-level engagement stats.
+     * Platform overview — high-level engagement stats, from the Redis
+     * counters when they are built, otherwise from the summary tables.
      */
     @GetMapping("/overview")
     public ResponseEntity<?> getOverview(Authentication auth) {
+        Map<String, Long> totals = counters.global();
+        if (totals != null) {
+            long users = totals.getOrDefault(EngagementCounters.USERS, 0L);
+            return ResponseEntity.ok(Map.of(
+                    "totalUsers", queryScalar("SELECT COUNT(*) FROM users", 0L),
+                    "totalPageViews", totals.getOrDefault(EngagementCounters.VISITS, 0L),
+                    "totalActiveTimeHours", totals.getOrDefault(EngagementCounters.ACTIVE_MS, 0L) / 3_600_000,
+                    "totalDropoffs", totals.getOrDefault(EngagementCounters.DROPOFFS, 0L),
+                    "avgPagesPerUser", users > 0 ? totals.getOrDefault(EngagementCounters.PAGES, 0L) / users : 0L));
+        }
         try {
             Map<String, Object> overview = Map.of(
                     "totalUsers", queryScalar("SELECT COUNT(*) FROM users", 0L),
                     "totalPageViews", queryScalar(
-                            "SELECT COALESCE(SUM(total_visits), 0) FROM mv_user_engagement_profile", 0L),
+                            "SELECT COALESCE(SUM(total_visits), 0) FROM user_engagement_profile_summary", 0L),
                     "totalActiveTimeHours", queryScalar(
-                            "SELECT COALESCE(SUM(total_active_ms) / 3600000, 0) FROM mv_user_engagement_profile", 0L),
+                            "SELECT COALESCE(SUM(total_active_ms) / 3600000, 0) FROM user_engagement_profile_summary", 0L),
                     "totalDropoffs", queryScalar(
-                            "SELECT COALESCE(SUM(total_dropoffs), 0) FROM mv_user_engagement_profile", 0L),
+                            "SELECT COALESCE(SUM(total_dropoffs), 0) FROM user_engagement_profile_summary", 0L),
                     "avgPagesPerUser", queryScalar(
-                            "SELECT COALESCE(AVG(total_pages), 0) FROM mv_user_engagement_profile", 0L));
+                            "SELECT COALESCE(AVG(total_pages), 0) FROM user_engagement_profile_summary", 0L));
             return ResponseEntity.ok(overview);
         } catch (Exception e) {
             return ResponseEntity.ok(Map.of(
                     "totalUsers", 0, "totalPageViews", 0,
                     "totalActiveTimeHours", 0, "totalDropoffs", 0, "avgPagesPerUser", 0,
-                    "note", "Materialized views may not be populated yet"));
+                    "note", "Summary tables may not be populated yet"));
         }
     }
 
@@ -57,7 +71,7 @@ public class AdminAnalyticsController {
             List<Map<String, Object>> health = jdbcTemplate.queryForList("""
                         SELECT page_id, total_visitors, avg_active_ms,
                                total_dropoffs, users_retried, dropoff_rate_pct
-                        FROM mv_content_health
+                        FROM content_health_summary
                         ORDER BY total_visitors DESC
                         LIMIT 50
                     """);
@@ -76,7 +90,7 @@ public class AdminAnalyticsController {
             List<Map<String, Object>> funnel = jdbcTemplate.queryForList("""
                         SELECT page_id, total_visitors, dropoff_rate_pct,
                                avg_active_ms, total_dropoffs
-                        FROM mv_content_health
+                        FROM content_health_summary
                         WHERE total_visitors > 0
                         ORDER BY dropoff_rate_pct DESC
                         LIMIT 20
@@ -95,7 +109,7 @@ public class AdminAnalyticsController {
         try {
             List<Map<String, Object>> pages = jdbcTemplate.queryForList("""
                         SELECT page_id, date, unique_visitors, avg_active_ms, total_visits
-                        FROM mv_page_engagement_daily
+                        FROM page_engagement_daily_summary
                         ORDER BY date DESC, unique_visitors DESC
                         LIMIT 30
                     """);
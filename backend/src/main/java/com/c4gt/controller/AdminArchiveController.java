@@ -0,0 +1,55 @@
+package com.c4gt.controller;
+
+import com.c4gt.service.EngagementArchiveService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Admin endpoints for archived engagement_events partitions: which months
+ * are archived, and aggregates over them without reloading into Postgres.
+ * Answers come from the archive directory of the replica serving the
+ * request, which is complete only if that directory is shared by all
+ * replicas (see EngagementArchiveService). uniqueUsers is counted per
+ * archived partition. All endpoints require JWT authentication.
+ */
+@RestController
+@RequestMapping("/api/v1/admin/archive")
+public class AdminArchiveController {
+
+    @Autowired
+    private EngagementArchiveService archiveService;
+
+    /**
+     * Archived partitions with row counts, sizes and time ranges.
+     */
+    @GetMapping("/partitions")
+    public ResponseEntity<?> getPartitions(Authentication auth) throws IOException {
+        return ResponseEntity.ok(archiveService.list());
+    }
+
+    /**
+     * Aggregate archived events in [from, to), grouped by day, page or event_type.
+     */
+    @GetMapping("/aggregate")
+    public ResponseEntity<?> aggregate(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "day") String groupBy,
+            @RequestParam(required = false) String pageId,
+            @RequestParam(required = false) String eventType,
+            Authentication auth) throws IOException {
+        if (!to.isAfter(from))
+            throw new IllegalArgumentException("'to' must be after 'from'");
+        return ResponseEntity.ok(archiveService.aggregate(from, to, EngagementArchiveService.GroupBy.of(groupBy),
+                pageId, eventType));
+    }
+}
@@ -0,0 +1,54 @@
+package com.c4gt.controller;
+
+import com.c4gt.service.EngagementSamplingPolicy;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Admin endpoints for engagement sampling and load shedding: the effective
+ * per-event-type rules, the current load level, and runtime overrides.
+ * All endpoints require JWT authentication.
+ */
+@RestController
+@RequestMapping("/api/v1/admin/engagement/sampling")
+public class AdminSamplingController {
+
+    @Autowired
+    private EngagementSamplingPolicy samplingPolicy;
+
+    /**
+     * Effective rules, configured defaults, load level and ingest lag.
+     */
+    @GetMapping
+    public ResponseEntity<?> getStatus(Authentication auth) {
+        return ResponseEntity.ok(samplingPolicy.status());
+    }
+
+    /**
+     * Override the rule for one event type on every instance.
+     */
+    @PutMapping("/rules/{eventType}")
+    public ResponseEntity<?> setRule(@PathVariable String eventType, @RequestBody EngagementSamplingPolicy.Rule rule,
+            Authentication auth) throws JsonProcessingException {
+        samplingPolicy.setRule(eventType, rule);
+        return ResponseEntity.ok(samplingPolicy.status());
+    }
+
+    /**
+     * Drop the override for one event type, restoring the configured default.
+     */
+    @DeleteMapping("/rules/{eventType}")
+    public ResponseEntity<?> clearRule(@PathVariable String eventType, Authentication auth) {
+        samplingPolicy.clearRule(eventType);
+        return ResponseEntity.ok(samplingPolicy.status());
+    }
+}
@@ -1,34 +1,78 @@
 package com.c4gt.controller;
 
 import com.c4gt.dto.*;
+import com.c4gt.service.EngagementAdmissionControl;
 import com.c4gt.service.EngagementService;
+import com.c4gt.service.EngagementStreamReader;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
 @RestController
 @RequestMapping("/api/v1/engagement")
 public class EngagementController {
 
     @Autowired
     private EngagementService engagementService;
+    @Autowired
+    private EngagementAdmissionControl admissionControl;
 
     /**
      * Batch event ingestion — accepts up to 50 events.
      * Events are validated synchronously, persisted asynchronously.
+     * Returns 503 with Retry-After while the ingest pipeline is saturated.
      */
     @PostMapping("/batch")
-    public ResponseEntity<Void> submitBatch(
+    public ResponseEntity<?> submitBatch(
             Authentication auth,
             @Valid @RequestBody EngagementBatchRequest request) {
+        ResponseEntity<?> saturated = rejectIfSaturated();
+        if (saturated != null)
+            return saturated;
+
         Long userId = (Long) auth.getPrincipal();
         engagementService.processBatch(userId, request);
         return ResponseEntity.status(HttpStatus.ACCEPTED).build();
     }
 
+    /**
+     * Streaming batch ingestion for compact encodings: NDJSON, Smile or CBOR,
+     * optionally with Content-Encoding: gzip. Events are validated and queued
+     * one at a time while the body is parsed. Session and client version may
+     * also be sent as X-Session-Id / X-Client-Version headers.
+     */
+    @PostMapping(value = "/batch", consumes = {
+            "application/x-ndjson", "application/x-jackson-smile", "application/cbor" })
+    public ResponseEntity<?> submitBatchStream(
+            Authentication auth,
+            HttpServletRequest request,
+            @RequestHeader(value = "X-Session-Id", required = false) String sessionId,
+            @RequestHeader(value = "X-Client-Version", required = false) String clientVersion)
+            throws IOException {
+        ResponseEntity<?> saturated = rejectIfSaturated();
+        if (saturated != null)
+            return saturated;
+
+        Long userId = (Long) auth.getPrincipal();
+        InputStream body = request.getInputStream();
+        if ("gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING))) {
+            body = new GZIPInputStream(body);
+        }
+        engagementService.processStream(userId, body, MediaType.parseMediaType(request.getContentType()),
+                new EngagementStreamReader.BatchContext(sessionId, clientVersion));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+    }
+
     /**
      * Page time upsert.
      */
@@ -86,4 +130,14 @@ public class EngagementController {
         EngagementSummaryDTO summary = engagementService.getSummary(userId);
         return ResponseEntity.ok(summary);
     }
+
+    /** 503 with Retry-After while the ingest pipeline is saturated, else null. */
+    private ResponseEntity<?> rejectIfSaturated() {
+        EngagementAdmissionControl.Decision decision = admissionControl.admit();
+        if (decision.admitted())
+            return null;
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(decision.retryAfterSeconds()))
+                .body(new ApiError(503, "INGEST_SATURATED", "Engagement pipeline is saturated, retry later"));
+    }
 }
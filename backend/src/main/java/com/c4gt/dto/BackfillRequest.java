@@ -0,0 +1,21 @@
+package com.c4gt.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BackfillRequest {
+    @NotBlank
+    private String job; // daily or weekly
+    @NotNull
+    private LocalDate from;
+    @NotNull
+    private LocalDate to;
+}
@@ -3,6 +3,7 @@ package com.c4gt.dto;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,12 +13,15 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class DropoffRequest {
     @NotBlank
+    @Size(max = 100)
     private String pageId;
+    @Size(max = 100)
     private String lastSectionSeen;
     @Min(0)
     @Max(100)
     private int scrollDepthPercent;
     @Min(0)
     private int timeSpentMs;
+    @Size(max = 500)
     private String referrer;
 }
@@ -18,6 +18,8 @@ public class EngagementBatchRequest {
     @Valid
     private List<EngagementEventDTO> events;
 
+    @Size(max = 64)
     private String sessionId;
+    @Size(max = 20)
     private String clientVersion;
 }
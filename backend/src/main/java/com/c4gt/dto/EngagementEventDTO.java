@@ -2,6 +2,7 @@ package com.c4gt.dto;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -14,13 +15,18 @@ import java.util.Map;
 @AllArgsConstructor
 public class EngagementEventDTO {
     @NotBlank
+    @Size(max = 50)
     private String eventType;
     @NotBlank
+    @Size(max = 100)
     private String pageId;
+    @Size(max = 100)
     private String sectionId;
     @NotNull
     private Long timestamp;
     private Integer duration;
     private Integer scrollDepth;
     private Map<String, Object> metadata;
+    /** Per-session sequence number assigned by the client; used to drop retried events. */
+    private Long seq;
 }
@@ -2,6 +2,7 @@ package com.c4gt.dto;
 
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -11,6 +12,7 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class PageTimeRequest {
     @NotBlank
+    @Size(max = 100)
     private String pageId;
     @Min(0)
     private long activeTimeMs;
@@ -2,6 +2,7 @@ package com.c4gt.dto;
 
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -11,10 +12,14 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class RetryRequest {
     @NotBlank
+    @Size(max = 100)
     private String pageId;
+    @Size(max = 100)
     private String sectionId;
+    @Size(max = 100)
     private String quizId;
     @Min(1)
     private int attemptNumber;
+    @Size(max = 50)
     private String previousResult;
 }
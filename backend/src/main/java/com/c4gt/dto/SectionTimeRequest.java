@@ -3,6 +3,7 @@ package com.c4gt.dto;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,8 +13,10 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class SectionTimeRequest {
     @NotBlank
+    @Size(max = 100)
     private String pageId;
     @NotBlank
+    @Size(max = 100)
     private String sectionId;
     @Min(0)
     private long activeTimeMs;
@@ -1,6 +1,7 @@
 package com.c4gt.exception;
 
 import com.c4gt.dto.ApiError;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -16,6 +17,7 @@ import org.springframework.web.servlet.NoHandlerFoundException;
 import com.c4gt.exception.ResourceNotFoundException;
 
 import java.util.stream.Collectors;
+import java.util.zip.ZipException;
 
 /**
  * Centralized exception handler returning standardized ApiError responses.
@@ -50,6 +52,12 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(error);
     }
 
+    @ExceptionHandler({ JsonProcessingException.class, ZipException.class })
+    public ResponseEntity<ApiError> handleMalformedStream(Exception ex) {
+        ApiError error = new ApiError(400, "MALFORMED_REQUEST", "Request body is malformed or has a bad encoding");
+        return ResponseEntity.badRequest().body(error);
+    }
+
     @ExceptionHandler(MissingServletRequestParameterException.class)
     public ResponseEntity<ApiError> handleMissingParam(MissingServletRequestParameterException ex) {
         ApiError error = new ApiError(400, "MISSING_PARAMETER", "Missing required parameter: " + ex.getParameterName());
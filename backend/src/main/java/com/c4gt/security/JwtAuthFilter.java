@@ -1,5 +1,7 @@
 package com.c4gt.security;
 
+import com.c4gt.config.RedisRequestPrefetcher;
+import com.c4gt.service.TokenBlacklistService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -22,9 +24,14 @@ public class JwtAuthFilter extends OncePerRequestFilter {
     private static final Logger log = LoggerFactory.getLogger(JwtAuthFilter.class);
 
     private final JwtTokenProvider tokenProvider;
+    private final TokenBlacklistService blacklistService;
+    private final RedisRequestPrefetcher prefetcher;
 
-    public JwtAuthFilter(JwtTokenProvider tokenProvider) {
+    public JwtAuthFilter(JwtTokenProvider tokenProvider, TokenBlacklistService blacklistService,
+            RedisRequestPrefetcher prefetcher) {
         this.tokenProvider = tokenProvider;
+        this.blacklistService = blacklistService;
+        this.prefetcher = prefetcher;
     }
 
     @Override
@@ -45,6 +52,15 @@ public class JwtAuthFilter extends OncePerRequestFilter {
                 if ("access".equals(tokenType)) {
                     Long userId = tokenProvider.getUserIdFromToken(token);
                     String email = tokenProvider.getEmailFromToken(token);
+                    String jti = tokenProvider.getJtiFromToken(token);
+
+                    // One Redis round trip for the blacklist, rate limit and flag lookups of this request
+                    prefetcher.prefetch(request, userId, jti);
+                    if (blacklistService.isBlacklisted(jti)) {
+                        log.debug("Rejected revoked token: jti={}", jti);
+                        filterChain.doFilter(request, response);
+                        return;
+                    }
 
                     UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
                             userId, email, Collections.emptyList());
@@ -0,0 +1,89 @@
+package com.c4gt.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gradient-based adaptive concurrency limit.
+ *
+ * Tracks the best (minimum) observed latency and a smoothed recent latency.
+ * While recent latency stays near the minimum the limit grows; once latency
+ * rises (the database is queueing our work) the limit shrinks in proportion.
+ * Failures halve the limit. The minimum is re-probed periodically so a
+ * permanently slower database doesn't pin the limit at the floor.
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    private static final int PROBE_INTERVAL_SAMPLES = 500;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+
+    // Guarded by this
+    private double minLatencyNanos = Double.MAX_VALUE;
+    private double smoothedLatencyNanos;
+    private int samples;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit())
+                return false;
+            if (inFlight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /** Block until a permit is available. */
+    public void acquire() {
+        while (!tryAcquire()) {
+            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(500));
+        }
+    }
+
+    /**
+     * Release a permit and feed the observed latency back into the limit.
+     *
+     * @param succeeded false if the call failed (treated as overload)
+     */
+    public void release(long latencyNanos, boolean succeeded) {
+        inFlight.decrementAndGet();
+        onSample(latencyNanos, succeeded);
+    }
+
+    private synchronized void onSample(long latencyNanos, boolean succeeded) {
+        double current = limit;
+        if (!succeeded) {
+            limit = Math.max(minLimit, current / 2);
+            return;
+        }
+
+        smoothedLatencyNanos = smoothedLatencyNanos == 0
+                ? latencyNanos
+                : 0.8 * smoothedLatencyNanos + 0.2 * latencyNanos;
+        minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+        if (++samples % PROBE_INTERVAL_SAMPLES == 0)
+            minLatencyNanos = smoothedLatencyNanos;
+
+        double gradient = Math.max(0.5, Math.min(1.0, minLatencyNanos / smoothedLatencyNanos));
+        double target = current * gradient + Math.sqrt(current); // sqrt(limit) headroom for queueing
+        limit = Math.max(minLimit, Math.min(maxLimit, 0.8 * current + 0.2 * target));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,176 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs an aggregation as independent chunks on a bounded worker pool.
+ *
+ * Each chunk (a user-id range or a page hash bucket) runs in its own short
+ * transaction, so no single transaction spans the whole job: vacuum is not
+ * held back, locks are short, and a failed chunk can be re-run on its own.
+ * Per-chunk timings are logged and recorded in the aggregation.chunk timer.
+ */
+@Service
+public class AggregationEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(AggregationEngine.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.aggregation.parallelism:4}")
+    private int parallelism;
+    @Value("${app.aggregation.user-chunk-size:5000}")
+    private int userChunkSize;
+    @Value("${app.aggregation.page-buckets:16}")
+    private int pageBuckets;
+    @Value("${app.aggregation.chunk-timeout-seconds:600}")
+    private int chunkTimeoutSeconds;
+
+    private ExecutorService workers;
+    private TransactionTemplate chunkTransaction;
+
+    /** A unit of work: user ids [from, to], or page hash bucket `from` of `to` buckets. */
+    public record Chunk(String label, long from, long to) {
+    }
+
+    public record ChunkResult(Chunk chunk, long elapsedMs, int rows, boolean succeeded) {
+    }
+
+    public record RunResult(String job, long elapsedMs, int rows, List<ChunkResult> chunks) {
+        public long failedChunks() {
+            return chunks.stream().filter(c -> !c.succeeded()).count();
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threadId = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "aggregation-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        chunkTransaction = new TransactionTemplate(transactionManager);
+        chunkTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        chunkTransaction.setTimeout(chunkTimeoutSeconds);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * User-id ranges covering every user, userChunkSize ids each.
+     */
+    public List<Chunk> userRanges() {
+        var bounds = jdbcTemplate.queryForMap("SELECT COALESCE(MIN(id), 0) AS lo, COALESCE(MAX(id), 0) AS hi FROM users");
+        long lo = ((Number) bounds.get("lo")).longValue();
+        long hi = ((Number) bounds.get("hi")).longValue();
+        List<Chunk> chunks = new ArrayList<>();
+        for (long from = lo; from <= hi; from += userChunkSize) {
+            long to = Math.min(hi, from + userChunkSize - 1);
+            chunks.add(new Chunk("users " + from + "-" + to, from, to));
+        }
+        return chunks;
+    }
+
+    /**
+     * Page hash buckets: pages with (hashtext(page_id) & 0x7fffffff) % to = from.
+     */
+    public List<Chunk> pageBuckets() {
+        List<Chunk> chunks = new ArrayList<>(pageBuckets);
+        for (int b = 0; b < pageBuckets; b++) {
+            chunks.add(new Chunk("pages bucket " + b + "/" + pageBuckets, b, pageBuckets));
+        }
+        return chunks;
+    }
+
+    /**
+     * Run work for every chunk, each in its own transaction.
+     *
+     * @param work returns the number of rows the chunk wrote
+     */
+    public RunResult run(String job, List<Chunk> chunks, Function<Chunk, Integer> work) {
+        long start = System.nanoTime();
+        Timer timer = meterRegistry.timer("aggregation.chunk", "job", job);
+
+        List<Future<ChunkResult>> futures = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            futures.add(workers.submit(() -> {
+                long chunkStart = System.nanoTime();
+                boolean ok = true;
+                int rows = 0;
+                try {
+                    Integer written = chunkTransaction.execute(status -> work.apply(chunk));
+                    rows = written != null ? written : 0;
+                } catch (Exception e) {
+                    ok = false;
+                    log.error("{}: chunk '{}' failed", job, chunk.label(), e);
+                }
+                long nanos = System.nanoTime() - chunkStart;
+                timer.record(nanos, TimeUnit.NANOSECONDS);
+                return new ChunkResult(chunk, TimeUnit.NANOSECONDS.toMillis(nanos), rows, ok);
+            }));
+        }
+
+        List<ChunkResult> results = new ArrayList<>(chunks.size());
+        for (Future<ChunkResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("{}: chunk task failed", job, e.getCause());
+            }
+        }
+
+        RunResult result = new RunResult(job, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                results.stream().mapToInt(ChunkResult::rows).sum(), results);
+        logSummary(result);
+        return result;
+    }
+
+    private void logSummary(RunResult result) {
+        log.info("{}: {} chunks, {} rows, {} failed, {}ms wall", result.job(), result.chunks().size(),
+                result.rows(), result.failedChunks(), result.elapsedMs());
+        result.chunks().stream()
+                .sorted(Comparator.comparingLong(ChunkResult::elapsedMs).reversed())
+                .limit(3)
+                .forEach(c -> log.info("{}:   slowest chunk '{}' {}ms, {} rows", result.job(), c.chunk().label(),
+                        c.elapsedMs(), c.rows()));
+        if (log.isDebugEnabled()) {
+            result.chunks().forEach(c -> log.debug("{}:   chunk '{}' {}ms, {} rows, ok={}", result.job(),
+                    c.chunk().label(), c.elapsedMs(), c.rows(), c.succeeded()));
+        }
+    }
+}
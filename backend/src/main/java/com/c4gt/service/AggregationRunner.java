@@ -0,0 +1,323 @@
+package com.c4gt.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the aggregation jobs and records a checkpoint per job × window
+ * in aggregation_checkpoints.
+ *
+ * A window counts as done only once it is COMPLETED. Every scheduled run, and
+ * an hourly catch-up pass, re-runs any window in the look-back period that is
+ * missing, FAILED, or stuck RUNNING past the stale timeout (pod died
+ * mid-run). A failed night therefore heals on its own. Backfill runs an
+ * arbitrary date range with a bounded number of windows in parallel; each
+ * window still fans out into chunks on AggregationEngine. Windows older than
+ * the engagement_events retention are refused: their events are gone, so a
+ * recompute would zero their counts.
+ *
+ * Each window is computed under a cluster lease (ClusterLeaseService), so two
+ * replicas never run the same window at once. The checkpoint is written in a
+ * transaction fenced by the lease's token (ClusterLeaseService.Lease#fence),
+ * so a replica that lost the window cannot overwrite the new holder's result.
+ */
+@Service
+public class AggregationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(AggregationRunner.class);
+
+    public enum Job {
+        DAILY("daily"), WEEKLY("weekly");
+
+        final String id;
+
+        Job(String id) {
+            this.id = id;
+        }
+
+        public static Job of(String id) {
+            for (Job job : values()) {
+                if (job.id.equalsIgnoreCase(id))
+                    return job;
+            }
+            throw new IllegalArgumentException("Unknown aggregation job: " + id);
+        }
+    }
+
+    public record WindowResult(Job job, LocalDate window, String status, int rows, long failedChunks, long elapsedMs) {
+    }
+
+    @Autowired
+    private EngagementAggregationService aggregations;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ClusterLeaseService leases;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.aggregation.catch-up-days:7}")
+    private int catchUpDays;
+    @Value("${app.aggregation.catch-up-weeks:4}")
+    private int catchUpWeeks;
+    @Value("${app.aggregation.stale-running-minutes:120}")
+    private int staleRunningMinutes;
+    @Value("${app.aggregation.backfill-parallelism:2}")
+    private int backfillParallelism;
+    @Value("${app.aggregation.max-backfill-windows:400}")
+    private int maxBackfillWindows;
+    @Value("${app.engagement.partitions.retention-days:90}")
+    private int retentionDays;
+
+    /** Windows being computed by this instance, to keep catch-up and backfill off each other. */
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+    private ExecutorService backfillWorkers;
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threadId = new AtomicInteger();
+        backfillWorkers = Executors.newFixedThreadPool(backfillParallelism, r -> {
+            Thread t = new Thread(r, "aggregation-backfill-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        backfillWorkers.shutdownNow();
+    }
+
+    /** Daily reconciliation — 2 AM UTC, plus any missed days. */
+    @Scheduled(cron = "0 0 2 * * *", zone = "UTC")
+    public void aggregateDaily() {
+        leases.runExclusive("aggregation.daily", Duration.ofMinutes(30), () -> catchUp(Job.DAILY));
+    }
+
+    /** Weekly content health — 3 AM UTC on Mondays, plus any missed weeks. */
+    @Scheduled(cron = "0 0 3 * * MON", zone = "UTC")
+    public void aggregateWeekly() {
+        leases.runExclusive("aggregation.weekly", Duration.ofMinutes(30), () -> catchUp(Job.WEEKLY));
+    }
+
+    /** Picks up windows missed while the service was down or a run failed. */
+    @Scheduled(fixedDelay = 60 * 60 * 1000, initialDelay = 10 * 60 * 1000)
+    public void catchUpAll() {
+        leases.runExclusive("aggregation.catch-up", Duration.ofMinutes(30), () -> {
+            catchUp(Job.DAILY);
+            catchUp(Job.WEEKLY);
+        });
+    }
+
+    /**
+     * Run every window in the look-back period that is not COMPLETED, oldest first.
+     *
+     * @return results for the windows that were run
+     */
+    public List<WindowResult> catchUp(Job job) {
+        LocalDate last = lastClosedWindow(job);
+        LocalDate first = job == Job.DAILY ? last.minusDays(catchUpDays - 1L) : last.minusWeeks(catchUpWeeks - 1L);
+        if (first.isBefore(oldestRetainedWindow(job)))
+            first = oldestRetainedWindow(job);
+        Set<LocalDate> done = completedWindows(job, first, last);
+
+        List<WindowResult> results = new ArrayList<>();
+        for (LocalDate window : windows(job, first, last)) {
+            if (done.contains(window))
+                continue;
+            WindowResult result = runWindow(job, window);
+            if (result != null)
+                results.add(result);
+        }
+        if (!results.isEmpty())
+            log.info("Aggregation catch-up for {}: ran {} windows", job.id, results.size());
+        return results;
+    }
+
+    /**
+     * Recompute every window of a job between from and to (inclusive), a
+     * bounded number in parallel. Completed windows are re-run too.
+     *
+     * @throws IllegalArgumentException if the range is empty, too long, or
+     *         reaches back past the engagement_events retention
+     *
+     * @return one future per window, in window order
+     */
+    public List<Future<WindowResult>> backfill(Job job, LocalDate from, LocalDate to) {
+        List<LocalDate> windows = windows(job, from, to);
+        if (windows.isEmpty())
+            throw new IllegalArgumentException("Empty backfill range " + from + " .. " + to);
+        if (windows.size() > maxBackfillWindows)
+            throw new IllegalArgumentException("Backfill of " + windows.size() + " windows exceeds limit of "
+                    + maxBackfillWindows);
+        if (windows.get(0).isBefore(oldestRetainedWindow(job)))
+            throw new IllegalArgumentException("Backfill from " + windows.get(0) + " reaches past the "
+                    + retentionDays + "-day event retention; the oldest window that can be recomputed is "
+                    + oldestRetainedWindow(job));
+
+        log.info("Backfill {} for {} windows {} .. {}", job.id, windows.size(), windows.get(0),
+                windows.get(windows.size() - 1));
+        List<Future<WindowResult>> futures = new ArrayList<>(windows.size());
+        for (LocalDate window : windows) {
+            futures.add(backfillWorkers.submit(() -> runWindow(job, window)));
+        }
+        return futures;
+    }
+
+    /**
+     * Latest checkpoints for a job, newest window first.
+     */
+    public List<Map<String, Object>> checkpoints(Job job, int limit) {
+        return jdbcTemplate.queryForList("""
+                SELECT job, window_start, status, rows_written, failed_chunks, attempts,
+                       started_at, finished_at, duration_ms
+                FROM aggregation_checkpoints
+                WHERE job = ?
+                ORDER BY window_start DESC
+                LIMIT ?
+                """, job.id, limit);
+    }
+
+    /**
+     * Compute one window and record its checkpoint.
+     *
+     * @return the result, or null if the window is already running here or on another replica
+     */
+    WindowResult runWindow(Job job, LocalDate window) {
+        String key = job.id + ":" + window;
+        if (!inProgress.add(key)) {
+            log.info("Aggregation {} {} already running, skipping", job.id, window);
+            return null;
+        }
+        try {
+            WindowResult[] result = new WindowResult[1];
+            boolean ran = leases.runExclusive("aggregation:" + key, Duration.ZERO,
+                    lease -> result[0] = computeWindow(job, window, lease));
+            if (!ran)
+                log.info("Aggregation {} {} running on another replica, skipping", job.id, window);
+            return result[0];
+        } finally {
+            inProgress.remove(key);
+        }
+    }
+
+    private WindowResult computeWindow(Job job, LocalDate window, ClusterLeaseService.Lease lease) {
+        jdbcTemplate.update("""
+                INSERT INTO aggregation_checkpoints (job, window_start, status, started_at)
+                VALUES (?, ?, 'RUNNING', NOW())
+                ON CONFLICT (job, window_start) DO UPDATE SET
+                    status = 'RUNNING',
+                    attempts = aggregation_checkpoints.attempts + 1,
+                    started_at = NOW(),
+                    finished_at = NULL
+                """, job.id, Date.valueOf(window));
+
+        AggregationEngine.RunResult run;
+        String status;
+        try {
+            run = job == Job.DAILY ? aggregations.reconcileDay(window) : aggregations.aggregateWeek(window);
+            status = run.failedChunks() == 0 ? "COMPLETED" : "FAILED";
+        } catch (Exception e) {
+            log.error("Aggregation {} {} failed", job.id, window, e);
+            run = new AggregationEngine.RunResult(job.id, 0, 0, List.of());
+            status = "FAILED";
+        }
+
+        boolean recorded = recordCheckpoint(lease, job, window, status, run);
+        if (!recorded) {
+            // Another replica took the window over; its checkpoint wins
+            log.warn("Aggregation {} {} lost its lease (token {}), not recording checkpoint", job.id, window,
+                    lease.fencingToken());
+            return new WindowResult(job, window, "SUPERSEDED", run.rows(), run.failedChunks(), run.elapsedMs());
+        }
+        return new WindowResult(job, window, status, run.rows(), run.failedChunks(), run.elapsedMs());
+    }
+
+    /** Record a finished window, unless the lease has been taken over. */
+    private boolean recordCheckpoint(ClusterLeaseService.Lease lease, Job job, LocalDate window, String status,
+            AggregationEngine.RunResult run) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(tx -> {
+            if (!lease.fence())
+                return false;
+            jdbcTemplate.update("""
+                    UPDATE aggregation_checkpoints
+                    SET status = ?, rows_written = ?, failed_chunks = ?, finished_at = NOW(),
+                        duration_ms = EXTRACT(EPOCH FROM (NOW() - started_at)) * 1000
+                    WHERE job = ? AND window_start = ?
+                    """, status, run.rows(), (int) run.failedChunks(), job.id, Date.valueOf(window));
+            return true;
+        }));
+    }
+
+    private Set<LocalDate> completedWindows(Job job, LocalDate from, LocalDate to) {
+        List<Date> dates = jdbcTemplate.queryForList("""
+                SELECT window_start FROM aggregation_checkpoints
+                WHERE job = ? AND window_start BETWEEN ? AND ?
+                  AND (status = 'COMPLETED'
+                       OR (status = 'RUNNING' AND started_at > NOW() - make_interval(mins => ?)))
+                """, Date.class, job.id, Date.valueOf(from), Date.valueOf(to), staleRunningMinutes);
+        Set<LocalDate> done = new HashSet<>();
+        for (Date date : dates) {
+            done.add(date.toLocalDate());
+        }
+        return done;
+    }
+
+    /** Oldest window whose events are all still within retention. */
+    private LocalDate oldestRetainedWindow(Job job) {
+        LocalDate oldestDay = LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays - 1L);
+        return job == Job.DAILY
+                ? oldestDay
+                : oldestDay.with(TemporalAdjusters.nextOrSame(DayOfWeek.MONDAY));
+    }
+
+    /** Most recent window that has fully ended. */
+    private static LocalDate lastClosedWindow(Job job) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        return job == Job.DAILY
+                ? today.minusDays(1)
+                : today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).minusWeeks(1);
+    }
+
+    /** Window starts covering [from, to]: days, or Mondays of the weeks touched. */
+    static List<LocalDate> windows(Job job, LocalDate from, LocalDate to) {
+        List<LocalDate> windows = new ArrayList<>();
+        if (job == Job.DAILY) {
+            for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+                windows.add(d);
+            }
+        } else {
+            LocalDate end = to.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            for (LocalDate w = from.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)); !w.isAfter(end);
+                    w = w.plusWeeks(1)) {
+                windows.add(w);
+            }
+        }
+        return windows;
+    }
+}
@@ -0,0 +1,255 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Incremental maintenance of the admin analytics summary tables
+ * (page_engagement_daily_summary, user_engagement_profile_summary,
+ * content_health_summary), which replace the V5 materialized views.
+ *
+ * Each summary keeps a high-water mark in analytics_watermarks. A refresh
+ * first checks whether any source row changed after the mark and returns
+ * at once if not. Otherwise it finds the pages or users touched since the
+ * mark and recomputes only their rows. page_time_tracking rows are updated
+ * in place and distinct-visitor counts are not additive, so the unit of
+ * work is the affected key, not the new row. Cost follows the write volume
+ * since the last refresh, not the size of the raw tables.
+ *
+ * The scan starts `overlap` before the mark, to catch rows whose timestamp
+ * was taken before the mark but committed after it. Recomputing a key is
+ * idempotent, so the overlap costs a few repeated keys and nothing else.
+ *
+ * Deleted source rows leave nothing to detect, so erasure (discardUser)
+ * deletes the user's profile row and marks the user's pages in
+ * analytics_pending_pages. The page summaries treat marked pages as changed.
+ */
+@Service
+public class AnalyticsSummaryService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsSummaryService.class);
+
+    /** Change detection: has any source row of the summary changed since :since? */
+    private static final String PT_CHANGED = "EXISTS (SELECT 1 FROM page_time_tracking WHERE updated_at > :since)";
+    private static final String EVENTS_CHANGED = PT_CHANGED
+            + " OR EXISTS (SELECT 1 FROM dropoff_events WHERE created_at > :since)"
+            + " OR EXISTS (SELECT 1 FROM retry_events WHERE created_at > :since)";
+
+    /** Pages marked for recompute of summary :summary since :since. */
+    private static final String PENDING_PAGES =
+            "SELECT page_id FROM analytics_pending_pages WHERE summary = :summary AND marked_at > :since";
+    private static final String PENDING_CHANGED = "EXISTS (" + PENDING_PAGES + ")";
+
+    private static final String PAGE_DAILY_DELETE = """
+            DELETE FROM page_engagement_daily_summary
+            WHERE page_id IN (SELECT page_id FROM page_time_tracking WHERE updated_at > :since
+                              UNION %s)
+            """.formatted(PENDING_PAGES);
+
+    private static final String PAGE_DAILY_UPSERT = """
+            WITH changed AS (
+                SELECT page_id FROM page_time_tracking WHERE updated_at > :since
+                UNION %s
+            )
+            INSERT INTO page_engagement_daily_summary (page_id, date, unique_visitors, avg_active_ms, avg_total_ms, total_visits)
+            SELECT pt.page_id, DATE(pt.last_visited_at), COUNT(DISTINCT pt.user_id),
+                   AVG(pt.active_time_ms)::BIGINT, AVG(pt.total_time_ms)::BIGINT, SUM(pt.visit_count)
+            FROM page_time_tracking pt
+            JOIN changed c ON c.page_id = pt.page_id
+            GROUP BY pt.page_id, DATE(pt.last_visited_at)
+            ON CONFLICT (page_id, date) DO UPDATE SET
+                unique_visitors = EXCLUDED.unique_visitors,
+                avg_active_ms = EXCLUDED.avg_active_ms,
+                avg_total_ms = EXCLUDED.avg_total_ms,
+                total_visits = EXCLUDED.total_visits
+            """.formatted(PENDING_PAGES);
+
+    private static final String USER_PROFILE_UPSERT = """
+            WITH changed AS (
+                SELECT user_id FROM page_time_tracking WHERE updated_at > :since
+                UNION SELECT user_id FROM dropoff_events WHERE created_at > :since
+                UNION SELECT user_id FROM retry_events WHERE created_at > :since
+            ), pt AS (
+                SELECT pt.user_id, COUNT(DISTINCT pt.page_id) AS total_pages, SUM(pt.active_time_ms) AS total_active_ms,
+                       SUM(pt.tab_switches) AS total_tab_switches, SUM(pt.visit_count) AS total_visits,
+                       MAX(pt.last_visited_at) AS last_active_at
+                FROM page_time_tracking pt
+                JOIN changed c ON c.user_id = pt.user_id
+                GROUP BY pt.user_id
+            ), de AS (
+                SELECT d.user_id, COUNT(*) AS dropoffs
+                FROM dropoff_events d JOIN pt ON pt.user_id = d.user_id
+                GROUP BY d.user_id
+            ), re AS (
+                SELECT r.user_id, COUNT(*) AS retries
+                FROM retry_events r JOIN pt ON pt.user_id = r.user_id
+                GROUP BY r.user_id
+            )
+            INSERT INTO user_engagement_profile_summary (user_id, total_pages, total_active_ms, total_tab_switches,
+                                                         total_visits, last_active_at, total_dropoffs, total_retries)
+            SELECT pt.user_id, pt.total_pages, pt.total_active_ms, pt.total_tab_switches, pt.total_visits,
+                   pt.last_active_at, COALESCE(de.dropoffs, 0), COALESCE(re.retries, 0)
+            FROM pt
+            LEFT JOIN de ON de.user_id = pt.user_id
+            LEFT JOIN re ON re.user_id = pt.user_id
+            ON CONFLICT (user_id) DO UPDATE SET
+                total_pages = EXCLUDED.total_pages,
+                total_active_ms = EXCLUDED.total_active_ms,
+                total_tab_switches = EXCLUDED.total_tab_switches,
+                total_visits = EXCLUDED.total_visits,
+                last_active_at = EXCLUDED.last_active_at,
+                total_dropoffs = EXCLUDED.total_dropoffs,
+                total_retries = EXCLUDED.total_retries
+            """;
+
+    /** Marked pages may have no visitors left, and the upsert below only writes pages that do. */
+    private static final String CONTENT_HEALTH_DELETE =
+            "DELETE FROM content_health_summary WHERE page_id IN (" + PENDING_PAGES + ")";
+
+    private static final String CONTENT_HEALTH_UPSERT = """
+            WITH changed AS (
+                SELECT page_id FROM page_time_tracking WHERE updated_at > :since
+                UNION SELECT page_id FROM dropoff_events WHERE created_at > :since
+                UNION SELECT page_id FROM retry_events WHERE created_at > :since
+                UNION %s
+            ), pt AS (
+                SELECT pt.page_id, COUNT(DISTINCT pt.user_id) AS visitors, AVG(pt.active_time_ms)::BIGINT AS avg_active_ms
+                FROM page_time_tracking pt
+                JOIN changed c ON c.page_id = pt.page_id
+                GROUP BY pt.page_id
+            ), de AS (
+                SELECT d.page_id, COUNT(*) AS dropoffs
+                FROM dropoff_events d JOIN pt ON pt.page_id = d.page_id
+                GROUP BY d.page_id
+            ), re AS (
+                SELECT r.page_id, COUNT(DISTINCT r.user_id) AS retry_users
+                FROM retry_events r JOIN pt ON pt.page_id = r.page_id
+                GROUP BY r.page_id
+            )
+            INSERT INTO content_health_summary (page_id, total_visitors, avg_active_ms, total_dropoffs, users_retried,
+                                                dropoff_rate_pct)
+            SELECT pt.page_id, pt.visitors, pt.avg_active_ms, COALESCE(de.dropoffs, 0), COALESCE(re.retry_users, 0),
+                   CASE WHEN pt.visitors > 0 THEN COALESCE(de.dropoffs, 0) * 100 / pt.visitors ELSE 0 END
+            FROM pt
+            LEFT JOIN de ON de.page_id = pt.page_id
+            LEFT JOIN re ON re.page_id = pt.page_id
+            ON CONFLICT (page_id) DO UPDATE SET
+                total_visitors = EXCLUDED.total_visitors,
+                avg_active_ms = EXCLUDED.avg_active_ms,
+                total_dropoffs = EXCLUDED.total_dropoffs,
+                users_retried = EXCLUDED.users_retried,
+                dropoff_rate_pct = EXCLUDED.dropoff_rate_pct
+            """.formatted(PENDING_PAGES);
+
+    private static final String MARK_USER_PAGES = """
+            INSERT INTO analytics_pending_pages (summary, page_id)
+            SELECT s.summary, p.page_id
+            FROM (VALUES ('page_engagement_daily'), ('content_health')) s(summary)
+            CROSS JOIN (SELECT page_id FROM page_time_tracking WHERE user_id = :userId
+                        UNION SELECT page_id FROM dropoff_events WHERE user_id = :userId
+                        UNION SELECT page_id FROM retry_events WHERE user_id = :userId) p
+            """;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbc;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.analytics.summary-overlap-seconds:120}")
+    private int overlapSeconds;
+
+    /** Fold page_time_tracking changes into page_engagement_daily_summary. */
+    public int refreshPageEngagement() {
+        return refresh("page_engagement_daily", PT_CHANGED + " OR " + PENDING_CHANGED,
+                List.of(PAGE_DAILY_DELETE, PAGE_DAILY_UPSERT));
+    }
+
+    /** Fold page time, drop-off and retry changes into user_engagement_profile_summary. */
+    public int refreshUserProfiles() {
+        return refresh("user_engagement_profile", EVENTS_CHANGED, List.of(USER_PROFILE_UPSERT));
+    }
+
+    /** Fold page time, drop-off and retry changes into content_health_summary. */
+    public int refreshContentHealth() {
+        return refresh("content_health", EVENTS_CHANGED + " OR " + PENDING_CHANGED,
+                List.of(CONTENT_HEALTH_DELETE, CONTENT_HEALTH_UPSERT));
+    }
+
+    /**
+     * Erasure: delete the user's profile summary row and mark the user's
+     * pages for recompute. Call inside the erasure transaction, before the
+     * user's source rows are deleted.
+     */
+    public void discardUser(long userId) {
+        MapSqlParameterSource params = new MapSqlParameterSource("userId", userId);
+        namedJdbc.update(MARK_USER_PAGES, params);
+        namedJdbc.update("DELETE FROM user_engagement_profile_summary WHERE user_id = :userId", params);
+    }
+
+    /**
+     * Run the statements of one summary for keys changed since its mark, and
+     * advance the mark, in a single transaction.
+     *
+     * @return rows written, or -1 if nothing changed and the refresh was skipped
+     */
+    private int refresh(String summary, String changedCheck, List<String> statements) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Integer rows = transactionTemplate.execute(status -> {
+            MapSqlParameterSource params = new MapSqlParameterSource();
+            List<Timestamp> marks = namedJdbc.queryForList(
+                    "SELECT high_water FROM analytics_watermarks WHERE summary = :summary",
+                    params.addValue("summary", summary), Timestamp.class);
+            // Taken before reading any source row, so nothing written after it can be missed
+            Timestamp newMark = namedJdbc.queryForObject("SELECT clock_timestamp()", params, Timestamp.class);
+            Timestamp since = marks.isEmpty()
+                    ? Timestamp.from(Instant.EPOCH)
+                    : Timestamp.from(marks.get(0).toInstant().minusSeconds(overlapSeconds));
+            params.addValue("since", since).addValue("mark", newMark);
+
+            Boolean changed = namedJdbc.queryForObject("SELECT " + changedCheck, params, Boolean.class);
+            if (!Boolean.TRUE.equals(changed))
+                return -1;
+
+            int written = 0;
+            for (String sql : statements) {
+                written = namedJdbc.update(sql, params);
+            }
+            // Marks at or before :since were folded in by an earlier refresh
+            namedJdbc.update("DELETE FROM analytics_pending_pages WHERE summary = :summary AND marked_at <= :since",
+                    params);
+            namedJdbc.update("""
+                    INSERT INTO analytics_watermarks (summary, high_water, refreshed_at, keys_refreshed)
+                    VALUES (:summary, :mark, NOW(), :rows)
+                    ON CONFLICT (summary) DO UPDATE SET
+                        high_water = EXCLUDED.high_water,
+                        refreshed_at = EXCLUDED.refreshed_at,
+                        keys_refreshed = EXCLUDED.keys_refreshed
+                    """, params.addValue("rows", written));
+            return written;
+        });
+        int result = rows != null ? rows : 0;
+        sample.stop(meterRegistry.timer("analytics.summary.refresh", "summary", summary,
+                "skipped", String.valueOf(result < 0)));
+        if (result < 0) {
+            meterRegistry.counter("analytics.summary.skipped", "summary", summary).increment();
+            log.debug("Summary {} unchanged, refresh skipped", summary);
+        } else {
+            meterRegistry.counter("analytics.summary.rows", "summary", summary).increment(result);
+        }
+        return result;
+    }
+}
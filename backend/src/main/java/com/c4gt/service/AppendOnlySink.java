@@ -0,0 +1,243 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commit writer for an append-only table.
+ *
+ * Callers enqueue rows on a bounded queue and return immediately; one writer
+ * thread drains the queue and inserts up to batch-size rows per multi-row
+ * INSERT, committing when the batch is full or max-delay has passed.
+ * created_at is captured at enqueue time, so batching does not shift it.
+ *
+ * When the queue is full the row is written on the caller's thread instead
+ * of being dropped. Remaining rows are flushed on shutdown. Instances are
+ * declared per table in AppendSinkConfig.
+ *
+ * A row the database refuses (see BatchBisector) is isolated and logged in
+ * full as append.sink.rejected; the rest of its batch is still written.
+ * Only rows that keep failing for other reasons (database down) are dropped
+ * after MAX_ATTEMPTS, as append.sink.dropped.
+ */
+public class AppendOnlySink implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(AppendOnlySink.class);
+    private static final int MAX_ATTEMPTS = 3;
+    /** How long an erased user's late rows are still skipped; far longer than any row stays queued. */
+    private static final long ERASED_RETENTION_MS = TimeUnit.MINUTES.toMillis(10);
+
+    /** Table shape: columns (excluding created_at), their placeholders and SQL types. */
+    public record Table(String name, String[] columns, String[] placeholders, int[] types) {
+    }
+
+    private final Table table;
+    private final JdbcTemplate jdbcTemplate;
+    private final BlockingQueue<Object[]> queue;
+    private final int batchSize;
+    private final long maxDelayMs;
+    private final String rowPlaceholder;
+    private final int[] rowTypes;
+    private final String insertPrefix;
+    private final int userColumn;
+    private final Object writeLock = new Object();
+    /** user id -> when discardUser was called */
+    private final Map<Long, Long> erased = new ConcurrentHashMap<>();
+
+    private final Counter written;
+    private final Counter overflow;
+    private final Counter dropped;
+    private final Counter rejected;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public AppendOnlySink(Table table, JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+            int capacity, int batchSize, long maxDelayMs) {
+        this.table = table;
+        this.jdbcTemplate = jdbcTemplate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.maxDelayMs = maxDelayMs;
+
+        this.rowPlaceholder = "(" + String.join(", ", table.placeholders()) + ", ?)";
+        this.rowTypes = Arrays.copyOf(table.types(), table.types().length + 1);
+        this.rowTypes[table.types().length] = Types.TIMESTAMP_WITH_TIMEZONE;
+        this.insertPrefix = "INSERT INTO " + table.name() + " (" + String.join(", ", table.columns())
+                + ", created_at) VALUES ";
+        this.userColumn = Arrays.asList(table.columns()).indexOf("user_id");
+
+        this.written = meterRegistry.counter("append.sink.written", "table", table.name());
+        this.overflow = meterRegistry.counter("append.sink.overflow", "table", table.name());
+        this.dropped = meterRegistry.counter("append.sink.dropped", "table", table.name());
+        this.rejected = meterRegistry.counter("append.sink.rejected", "table", table.name());
+        Gauge.builder("append.sink.pending", queue, BlockingQueue::size)
+                .tag("table", table.name())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Enqueue one row; values are in {@link Table#columns()} order.
+     */
+    public void append(Object... values) {
+        if (values.length != table.columns().length)
+            throw new IllegalArgumentException("Expected " + table.columns().length + " values for " + table.name());
+        Object[] row = Arrays.copyOf(values, values.length + 1);
+        row[values.length] = OffsetDateTime.now(ZoneOffset.UTC);
+
+        if (running && queue.offer(row))
+            return;
+        // Queue full or not running — write on the caller's thread rather than lose the row
+        overflow.increment();
+        write(List.<Object[]>of(row));
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    private void runWriter() {
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Object[] first = queue.poll(maxDelayMs, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running)
+                        break;
+                    Object[] next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Drop rows of a user that are queued or about to be written (account
+     * erasure). Rows the writer is inserting right now are committed before
+     * this returns, so a DELETE run afterwards sees them.
+     */
+    public void discardUser(long userId) {
+        if (userColumn < 0)
+            throw new IllegalStateException(table.name() + " has no user_id column");
+        long now = System.currentTimeMillis();
+        erased.values().removeIf(at -> now - at > ERASED_RETENTION_MS);
+        erased.put(userId, now);
+        queue.removeIf(this::isErased);
+        synchronized (writeLock) {
+            // Wait for a write in progress; later writes skip the user's rows
+        }
+    }
+
+    private boolean isErased(Object[] row) {
+        return row[userColumn] instanceof Long userId && erased.containsKey(userId);
+    }
+
+    private void write(List<Object[]> rows) {
+        synchronized (writeLock) {
+            List<Object[]> pending = erased.isEmpty() ? rows : rows.stream().filter(r -> !isErased(r)).toList();
+            for (int attempt = 1; !pending.isEmpty(); attempt++) {
+                BatchBisector.Outcome<Object[]> outcome = BatchBisector.write(pending, this::insert);
+                written.increment(pending.size() - outcome.rejected().size() - outcome.unwritten().size());
+                for (Object[] row : outcome.rejected()) {
+                    rejected.increment();
+                    log.error("Row refused by {}, not written: {}", table.name(), Arrays.toString(row));
+                }
+                if (outcome.complete())
+                    return;
+                pending = outcome.unwritten();
+                if (attempt == MAX_ATTEMPTS) {
+                    dropped.increment(pending.size());
+                    log.error("Dropping {} rows for {} after {} attempts", pending.size(), table.name(), attempt,
+                            outcome.failure());
+                    return;
+                }
+                log.warn("Insert into {} failed (attempt {}), retrying: {}", table.name(), attempt,
+                        outcome.failure().getMessage());
+                try {
+                    Thread.sleep(100L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void insert(List<Object[]> rows) {
+        StringBuilder sql = new StringBuilder(insertPrefix.length() + rows.size() * (rowPlaceholder.length() + 2));
+        sql.append(insertPrefix);
+        Object[] args = new Object[rows.size() * rowTypes.length];
+        int[] types = new int[args.length];
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0)
+                sql.append(", ");
+            sql.append(rowPlaceholder);
+            System.arraycopy(rows.get(i), 0, args, i * rowTypes.length, rowTypes.length);
+            System.arraycopy(rowTypes, 0, types, i * rowTypes.length, rowTypes.length);
+        }
+        jdbcTemplate.update(sql.toString(), args, types);
+    }
+
+    // --- Lifecycle ---
+
+    @Override
+    public void start() {
+        running = true;
+        writer = new Thread(this::runWriter, "append-sink-" + table.name());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty())
+            log.warn("{} rows for {} not written on shutdown", queue.size(), table.name());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Same phase as the engagement ingest buffer: after the web server has drained requests. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
@@ -0,0 +1,73 @@
+package com.c4gt.service;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes a batch so that rows the database rejects do not take the rest of
+ * the batch down with them.
+ *
+ * If a write fails with a data or constraint error (SQLState class 22 or
+ * 23: value too long, bad encoding, NOT NULL or CHECK violation...) the
+ * batch is split in half and each half written on its own, down to single
+ * rows. Rows that still fail alone are returned as rejected; retrying them
+ * would never succeed. Any other error (connection, timeout) stops the
+ * write, and the rows not written yet are returned for the caller to retry
+ * or spool. One bad row among n costs about 2·log2(n) extra statements.
+ */
+final class BatchBisector {
+
+    /** Result of {@link #write}: rows rejected for good, and rows not written because of failure. */
+    record Outcome<T>(List<T> rejected, List<T> unwritten, RuntimeException failure) {
+
+        boolean complete() {
+            return failure == null;
+        }
+    }
+
+    private BatchBisector() {
+    }
+
+    static <T> Outcome<T> write(List<T> rows, Consumer<List<T>> writer) {
+        List<T> rejected = new ArrayList<>();
+        Deque<List<T>> todo = new ArrayDeque<>();
+        todo.push(rows);
+        while (!todo.isEmpty()) {
+            List<T> part = todo.pop();
+            try {
+                writer.accept(part);
+            } catch (RuntimeException e) {
+                if (!isDataError(e)) {
+                    List<T> unwritten = new ArrayList<>(part);
+                    todo.forEach(unwritten::addAll);
+                    return new Outcome<>(rejected, unwritten, e);
+                }
+                if (part.size() == 1) {
+                    rejected.add(part.get(0));
+                    continue;
+                }
+                int mid = part.size() / 2;
+                todo.push(part.subList(mid, part.size()));
+                todo.push(part.subList(0, mid));
+            }
+        }
+        return new Outcome<>(rejected, List.of(), null);
+    }
+
+    /**
+     * True if e (or a cause) is an SQLException in SQLState class 22 (data
+     * exception) or 23 (integrity constraint violation).
+     */
+    static boolean isDataError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql && sql.getSQLState() != null
+                    && (sql.getSQLState().startsWith("22") || sql.getSQLState().startsWith("23")))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package com.c4gt.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over string keys.
+ *
+ * Sized from the expected number of insertions and the target false-positive
+ * rate; bit positions come from double hashing a 64-bit murmur-style hash.
+ * {@link #mightContain} never returns false for a key that was added.
+ */
+public final class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int wordCount = (int) Math.max(1, (bits + 63) / 64);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = (long) wordCount * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    public void put(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            setBit(index(h1 + i * h2));
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            if (!getBit(index(h1 + i * h2)))
+                return false;
+        }
+        return true;
+    }
+
+    /** Approximate memory held by the bit array. */
+    public long sizeInBytes() {
+        return bitCount / 8;
+    }
+
+    private long index(int combined) {
+        return (combined & Integer.MAX_VALUE) % bitCount;
+    }
+
+    private void setBit(long bit) {
+        int word = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0)
+                return;
+        } while (!words.compareAndSet(word, current, current | mask));
+    }
+
+    private boolean getBit(long bit) {
+        return (words.get((int) (bit >>> 6)) & (1L << bit)) != 0;
+    }
+
+    /** 64-bit hash of the UTF-8 bytes (MurmurHash64A mixing). */
+    @SuppressWarnings("fallthrough")
+    static long hash64(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        long h = 0x9747b28cL ^ (data.length * m);
+
+        int blocks = data.length / 8;
+        for (int i = 0; i < blocks; i++) {
+            int o = i * 8;
+            long k = (data[o] & 0xffL) | (data[o + 1] & 0xffL) << 8 | (data[o + 2] & 0xffL) << 16
+                    | (data[o + 3] & 0xffL) << 24 | (data[o + 4] & 0xffL) << 32 | (data[o + 5] & 0xffL) << 40
+                    | (data[o + 6] & 0xffL) << 48 | (data[o + 7] & 0xffL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+
+        int tail = blocks * 8;
+        // Each case falls through on purpose: the remaining tail bytes are mixed in one by one
+        switch (data.length - tail) {
+            case 7: h ^= (data[tail + 6] & 0xffL) << 48; // fall through
+            case 6: h ^= (data[tail + 5] & 0xffL) << 40; // fall through
+            case 5: h ^= (data[tail + 4] & 0xffL) << 32; // fall through
+            case 4: h ^= (data[tail + 3] & 0xffL) << 24; // fall through
+            case 3: h ^= (data[tail + 2] & 0xffL) << 16; // fall through
+            case 2: h ^= (data[tail + 1] & 0xffL) << 8; // fall through
+            case 1:
+                h ^= data[tail] & 0xffL;
+                h *= m;
+                // fall through
+            default:
+                break;
+        }
+
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+}
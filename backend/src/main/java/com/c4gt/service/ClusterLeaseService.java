@@ -0,0 +1,239 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Cluster-wide leases so a scheduled job runs on one replica at a time.
+ *
+ * Leases are rows in job_leases. Acquiring is a single upsert that succeeds
+ * only if the lease is free or expired, and it bumps the fencing token each
+ * time the lease changes hands. While the task runs, the lease is renewed
+ * every ttl/3. If the holder stalls past the TTL, another replica may take
+ * over. {@link Lease#isCurrent()} lets the old holder notice this, but it is
+ * check-then-act: the lease can change hands right after the check. Writes
+ * that must not happen after a takeover call {@link Lease#fence()} inside
+ * their own transaction instead, which holds the takeover off until that
+ * transaction ends.
+ *
+ * holdAtLeast keeps the lease after the task finishes, so replicas whose
+ * timers fire a little later in the same period skip instead of repeating
+ * the work.
+ *
+ * Metrics, tagged by lease name: cluster.lease.acquired, cluster.lease.skipped,
+ * cluster.lease.lost (renewal failed), cluster.lease.held (timer) and
+ * cluster.lease.holder (1 while this replica holds it).
+ */
+@Service
+public class ClusterLeaseService {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterLeaseService.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.cluster.lease.ttl:60s}")
+    private Duration ttl;
+
+    private final String holderId = holderId();
+    private final Map<String, AtomicInteger> holding = new ConcurrentHashMap<>();
+    private ScheduledExecutorService renewer;
+
+    /** A held lease. The fencing token identifies this tenure of the lease. */
+    public final class Lease {
+        private final String name;
+        private final long fencingToken;
+
+        Lease(String name, long fencingToken) {
+            this.name = name;
+            this.fencingToken = fencingToken;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long fencingToken() {
+            return fencingToken;
+        }
+
+        /** True while no other replica has taken the lease over. */
+        public boolean isCurrent() {
+            List<Long> tokens = jdbcTemplate.queryForList(
+                    "SELECT fencing_token FROM job_leases WHERE name = ? AND holder = ?",
+                    Long.class, name, holderId);
+            return !tokens.isEmpty() && tokens.get(0) == fencingToken;
+        }
+
+        /**
+         * Like {@link #isCurrent()}, but also share-locks the lease row, so
+         * no replica can take the lease over until the caller's transaction
+         * commits or rolls back. Must be called inside that transaction.
+         */
+        public boolean fence() {
+            List<Integer> rows = jdbcTemplate.queryForList(
+                    "SELECT 1 FROM job_leases WHERE name = ? AND holder = ? AND fencing_token = ? FOR SHARE",
+                    Integer.class, name, holderId, fencingToken);
+            return !rows.isEmpty();
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lease-renewer");
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("Cluster lease holder id: {}", holderId);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        renewer.shutdownNow();
+    }
+
+    /**
+     * Run task if this replica can take the lease.
+     *
+     * @return true if the task ran here, false if another replica holds the lease
+     */
+    public boolean runExclusive(String name, Duration holdAtLeast, Runnable task) {
+        return runExclusive(name, holdAtLeast, lease -> task.run());
+    }
+
+    /**
+     * Run task with the lease if this replica can take it.
+     *
+     * @return true if the task ran here, false if another replica holds the lease
+     */
+    public boolean runExclusive(String name, Duration holdAtLeast, Consumer<Lease> task) {
+        Lease lease = tryAcquire(name);
+        if (lease == null) {
+            meterRegistry.counter("cluster.lease.skipped", "lease", name).increment();
+            log.debug("Lease {} held elsewhere, skipping", name);
+            return false;
+        }
+        meterRegistry.counter("cluster.lease.acquired", "lease", name).increment();
+        holderGauge(name).set(1);
+
+        long renewMs = Math.max(1000, ttl.toMillis() / 3);
+        ScheduledFuture<?> renewal = renewer.scheduleAtFixedRate(() -> renew(lease), renewMs, renewMs,
+                TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            task.accept(lease);
+        } finally {
+            renewal.cancel(false);
+            long heldNanos = System.nanoTime() - start;
+            meterRegistry.timer("cluster.lease.held", "lease", name).record(heldNanos, TimeUnit.NANOSECONDS);
+            release(lease, holdAtLeast);
+            holderGauge(name).set(0);
+        }
+        return true;
+    }
+
+    private Lease tryAcquire(String name) {
+        try {
+            List<Long> tokens = jdbcTemplate.queryForList("""
+                    INSERT INTO job_leases AS l (name, holder, fencing_token, acquired_at, expires_at)
+                    VALUES (?, ?, 1, NOW(), NOW() + make_interval(secs => ?))
+                    ON CONFLICT (name) DO UPDATE SET
+                        holder = EXCLUDED.holder,
+                        fencing_token = l.fencing_token + 1,
+                        acquired_at = NOW(),
+                        expires_at = EXCLUDED.expires_at
+                    WHERE l.expires_at < NOW()
+                    RETURNING fencing_token
+                    """, Long.class, name, holderId, ttl.toSeconds());
+            return tokens.isEmpty() ? null : new Lease(name, tokens.get(0));
+        } catch (Exception e) {
+            log.warn("Could not acquire lease {}: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    private void renew(Lease lease) {
+        try {
+            int updated = jdbcTemplate.update("""
+                    UPDATE job_leases SET expires_at = NOW() + make_interval(secs => ?)
+                    WHERE name = ? AND holder = ? AND fencing_token = ?
+                    """, ttl.toSeconds(), lease.name, holderId, lease.fencingToken);
+            if (updated == 0) {
+                meterRegistry.counter("cluster.lease.lost", "lease", lease.name).increment();
+                log.warn("Lease {} (token {}) was taken over while running", lease.name, lease.fencingToken);
+            }
+        } catch (Exception e) {
+            log.warn("Lease {} renewal failed: {}", lease.name, e.getMessage());
+        }
+    }
+
+    private void release(Lease lease, Duration holdAtLeast) {
+        try {
+            // Keep the lease until acquired_at + holdAtLeast so late timers elsewhere skip this period
+            jdbcTemplate.update("""
+                    UPDATE job_leases SET expires_at = GREATEST(NOW(), acquired_at + make_interval(secs => ?))
+                    WHERE name = ? AND holder = ? AND fencing_token = ?
+                    """, holdAtLeast.toMillis() / 1000.0, lease.name, holderId, lease.fencingToken);
+        } catch (Exception e) {
+            log.warn("Lease {} release failed, it will expire on its own: {}", lease.name, e.getMessage());
+        }
+    }
+
+    /** Forget leases that expired a week ago (one-off names such as per-window aggregation leases). */
+    @Scheduled(cron = "0 15 6 * * *", zone = "UTC")
+    public void purgeExpired() {
+        try {
+            jdbcTemplate.update("DELETE FROM job_leases WHERE expires_at < NOW() - INTERVAL '7 days'");
+        } catch (Exception e) {
+            log.warn("Lease cleanup failed: {}", e.getMessage());
+        }
+    }
+
+    private AtomicInteger holderGauge(String name) {
+        return holding.computeIfAbsent(name, n -> {
+            AtomicInteger value = new AtomicInteger();
+            Gauge.builder("cluster.lease.holder", value, AtomicInteger::get)
+                    .tag("lease", n)
+                    .description("1 while this replica holds the lease")
+                    .register(meterRegistry);
+            return value;
+        });
+    }
+
+    private static String holderId() {
+        String host = System.getenv("HOSTNAME");
+        if (host == null) {
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                host = "unknown";
+            }
+        }
+        return host + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,484 @@
+package com.c4gt.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File format for archived engagement_events partitions: columnar,
+ * compressed, readable one column at a time.
+ *
+ * Rows are grouped into row groups. Each group stores every column as its own
+ * Deflate-compressed block:
+ * - created_at (epoch micros) and user_id: zigzag varint deltas from the previous row
+ * - event_type, page_id, section_id: varint codes into per-file dictionaries
+ *   (section_id code 0 = null)
+ * - duration_ms, scroll_depth: zigzag varint + 1 (0 = null)
+ *
+ * The footer holds the dictionaries and, per row group, its row count, its
+ * created_at range and the offset of each column block. A reader can therefore
+ * skip groups outside a time range and decode only the columns a query needs.
+ *
+ * Layout: [MAGIC][VERSION] [row groups...] [footer] [long footerOffset][MAGIC]
+ *
+ * Not thread-safe. Writer and Reader are each used by one thread.
+ */
+final class ColumnarArchive {
+
+    static final int MAGIC = 0x454E4741; // "ENGA"
+    static final int VERSION = 1;
+
+    enum Column {
+        CREATED_AT, USER_ID, EVENT_TYPE, PAGE_ID, SECTION_ID, DURATION_MS, SCROLL_DEPTH
+    }
+
+    private static final int COLUMNS = Column.values().length;
+
+    private ColumnarArchive() {
+    }
+
+    /** Footer entry for one row group. */
+    record RowGroup(int rows, long minCreatedAt, long maxCreatedAt, long[] columnOffsets) {
+    }
+
+    /** Whole-file metadata read from the footer. */
+    record Footer(long rows, long minCreatedAt, long maxCreatedAt, List<String> eventTypes, List<String> pageIds,
+            List<String> sectionIds, List<RowGroup> rowGroups) {
+    }
+
+    /**
+     * Decoded columns of one row group. Only requested columns are filled;
+     * codes index into the footer dictionaries.
+     */
+    static final class Batch {
+        int rows;
+        long[] createdAt;
+        long[] userId;
+        int[] eventType;
+        int[] pageId;
+        /** Code into sectionIds, or -1 for null. */
+        int[] sectionId;
+        /** Value, or Long.MIN_VALUE for null. */
+        long[] durationMs;
+        /** Value, or Long.MIN_VALUE for null. */
+        long[] scrollDepth;
+    }
+
+    // --- Writing ---
+
+    static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final int rowGroupSize;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+        private final Dictionary eventTypes = new Dictionary();
+        private final Dictionary pageIds = new Dictionary();
+        private final Dictionary sectionIds = new Dictionary();
+        private final List<RowGroup> groups = new ArrayList<>();
+
+        private final VarIntBuffer[] columns = new VarIntBuffer[COLUMNS];
+        private int pending;
+        private long prevCreatedAt;
+        private long prevUserId;
+        private long groupMin;
+        private long groupMax;
+        private long totalRows;
+        private boolean closed;
+
+        Writer(Path file, int rowGroupSize) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            this.rowGroupSize = rowGroupSize;
+            for (int i = 0; i < COLUMNS; i++) {
+                columns[i] = new VarIntBuffer();
+            }
+            writeFully(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        void add(long createdAtMicros, long userId, String eventType, String pageId, String sectionId,
+                Integer durationMs, Integer scrollDepth) throws IOException {
+            if (pending == 0) {
+                prevCreatedAt = 0;
+                prevUserId = 0;
+                groupMin = Long.MAX_VALUE;
+                groupMax = Long.MIN_VALUE;
+            }
+            columns[Column.CREATED_AT.ordinal()].writeSigned(createdAtMicros - prevCreatedAt);
+            columns[Column.USER_ID.ordinal()].writeSigned(userId - prevUserId);
+            columns[Column.EVENT_TYPE.ordinal()].writeUnsigned(eventTypes.code(eventType));
+            columns[Column.PAGE_ID.ordinal()].writeUnsigned(pageIds.code(pageId));
+            columns[Column.SECTION_ID.ordinal()].writeUnsigned(sectionId == null ? 0 : sectionIds.code(sectionId) + 1);
+            columns[Column.DURATION_MS.ordinal()].writeNullable(durationMs);
+            columns[Column.SCROLL_DEPTH.ordinal()].writeNullable(scrollDepth);
+            prevCreatedAt = createdAtMicros;
+            prevUserId = userId;
+            groupMin = Math.min(groupMin, createdAtMicros);
+            groupMax = Math.max(groupMax, createdAtMicros);
+            if (++pending == rowGroupSize)
+                flushGroup();
+        }
+
+        long rows() {
+            return totalRows + pending;
+        }
+
+        /** Write the last group and the footer, and force the file to disk. */
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                if (pending > 0)
+                    flushGroup();
+                writeFooter();
+                channel.force(true);
+            } finally {
+                deflater.end();
+                channel.close();
+            }
+        }
+
+        private void flushGroup() throws IOException {
+            long[] offsets = new long[COLUMNS];
+            for (int i = 0; i < COLUMNS; i++) {
+                offsets[i] = channel.position();
+                byte[] raw = columns[i].toByteArray();
+                byte[] compressed = deflate(raw);
+                ByteBuffer header = ByteBuffer.allocate(8).putInt(raw.length).putInt(compressed.length).flip();
+                writeFully(header);
+                writeFully(ByteBuffer.wrap(compressed));
+                columns[i].reset();
+            }
+            groups.add(new RowGroup(pending, groupMin, groupMax, offsets));
+            totalRows += pending;
+            pending = 0;
+        }
+
+        private void writeFooter() throws IOException {
+            long footerOffset = channel.position();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(totalRows);
+            eventTypes.writeTo(out);
+            pageIds.writeTo(out);
+            sectionIds.writeTo(out);
+            out.writeInt(groups.size());
+            for (RowGroup group : groups) {
+                out.writeInt(group.rows());
+                out.writeLong(group.minCreatedAt());
+                out.writeLong(group.maxCreatedAt());
+                for (long offset : group.columnOffsets()) {
+                    out.writeLong(offset);
+                }
+            }
+            out.writeLong(footerOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            writeFully(ByteBuffer.wrap(bytes.toByteArray()));
+        }
+
+        private byte[] deflate(byte[] raw) {
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buf = new byte[16384];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // --- Reading ---
+
+    static final class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final Footer footer;
+        private final Inflater inflater = new Inflater();
+
+        Reader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                this.footer = readFooter();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        Footer footer() {
+            return footer;
+        }
+
+        /**
+         * Decode the requested columns of every row group whose created_at range
+         * overlaps [fromMicros, toMicros). Rows inside a batch are not filtered;
+         * callers check createdAt themselves (it is always decoded).
+         */
+        void scan(long fromMicros, long toMicros, EnumSet<Column> columns, Consumer<Batch> consumer) throws IOException {
+            EnumSet<Column> wanted = EnumSet.copyOf(columns);
+            wanted.add(Column.CREATED_AT);
+            for (RowGroup group : footer.rowGroups()) {
+                if (group.maxCreatedAt() < fromMicros || group.minCreatedAt() >= toMicros)
+                    continue;
+                Batch batch = new Batch();
+                batch.rows = group.rows();
+                for (Column column : wanted) {
+                    decode(column, readBlock(group.columnOffsets()[column.ordinal()]), batch);
+                }
+                consumer.accept(batch);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+
+        private void decode(Column column, VarIntReader in, Batch batch) {
+            int n = batch.rows;
+            switch (column) {
+                case CREATED_AT -> batch.createdAt = in.readDeltas(n);
+                case USER_ID -> batch.userId = in.readDeltas(n);
+                case EVENT_TYPE -> batch.eventType = in.readCodes(n, 0);
+                case PAGE_ID -> batch.pageId = in.readCodes(n, 0);
+                case SECTION_ID -> batch.sectionId = in.readCodes(n, -1);
+                case DURATION_MS -> batch.durationMs = in.readNullables(n);
+                case SCROLL_DEPTH -> batch.scrollDepth = in.readNullables(n);
+            }
+        }
+
+        private VarIntReader readBlock(long offset) throws IOException {
+            ByteBuffer header = readAt(offset, 8);
+            int rawLength = header.getInt();
+            int compressedLength = header.getInt();
+            ByteBuffer compressed = readAt(offset + 8, compressedLength);
+            byte[] raw = new byte[rawLength];
+            inflater.reset();
+            inflater.setInput(compressed.array(), 0, compressedLength);
+            try {
+                int filled = 0;
+                while (filled < rawLength) {
+                    int n = inflater.inflate(raw, filled, rawLength - filled);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                        throw new IOException("Truncated column block at offset " + offset);
+                    filled += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt column block at offset " + offset, e);
+            }
+            return new VarIntReader(raw);
+        }
+
+        private Footer readFooter() throws IOException {
+            long size = channel.size();
+            if (size < 20)
+                throw new IOException("Not an engagement archive (too short)");
+            ByteBuffer head = readAt(0, 8);
+            if (head.getInt() != MAGIC || head.getInt() != VERSION)
+                throw new IOException("Not an engagement archive or unsupported version");
+            ByteBuffer tail = readAt(size - 12, 12);
+            long footerOffset = tail.getLong();
+            if (tail.getInt() != MAGIC || footerOffset < 8 || footerOffset > size - 12)
+                throw new IOException("Archive footer missing (incomplete write?)");
+
+            ByteBuffer buf = readAt(footerOffset, (int) (size - 12 - footerOffset));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf.array()));
+            long rows = in.readLong();
+            List<String> eventTypes = Dictionary.readFrom(in);
+            List<String> pageIds = Dictionary.readFrom(in);
+            List<String> sectionIds = Dictionary.readFrom(in);
+            int groupCount = in.readInt();
+            List<RowGroup> groups = new ArrayList<>(groupCount);
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int g = 0; g < groupCount; g++) {
+                int groupRows = in.readInt();
+                long groupMin = in.readLong();
+                long groupMax = in.readLong();
+                long[] offsets = new long[COLUMNS];
+                for (int c = 0; c < COLUMNS; c++) {
+                    offsets[c] = in.readLong();
+                }
+                groups.add(new RowGroup(groupRows, groupMin, groupMax, offsets));
+                min = Math.min(min, groupMin);
+                max = Math.max(max, groupMax);
+            }
+            return new Footer(rows, min, max, eventTypes, pageIds, sectionIds, groups);
+        }
+
+        private ByteBuffer readAt(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0)
+                    throw new IOException("Unexpected end of archive");
+            }
+            return buffer.flip();
+        }
+    }
+
+    // --- Encoding helpers ---
+
+    /** String → dense code, in first-seen order. */
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int code(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        static List<String> readFrom(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            List<String> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                values.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return values;
+        }
+    }
+
+    /** Growable byte buffer of LEB128 varints. */
+    private static final class VarIntBuffer extends OutputStream {
+        private byte[] bytes = new byte[4096];
+        private int size;
+
+        void writeUnsigned(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSigned(long value) {
+            writeUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        void writeNullable(Integer value) {
+            writeUnsigned(value == null ? 0 : ((((long) value) << 1) ^ (((long) value) >> 63)) + 1);
+        }
+
+        @Override
+        public void write(int b) {
+            if (size == bytes.length)
+                bytes = Arrays.copyOf(bytes, size << 1);
+            bytes[size++] = (byte) b;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        void reset() {
+            size = 0;
+        }
+    }
+
+    private static final class VarIntReader {
+        private final byte[] bytes;
+        private int pos;
+
+        VarIntReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long readUnsigned() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = bytes[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+                shift += 7;
+            }
+        }
+
+        long readSigned() {
+            long raw = readUnsigned();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        long[] readDeltas(int n) {
+            long[] values = new long[n];
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                prev += readSigned();
+                values[i] = prev;
+            }
+            return values;
+        }
+
+        /** Codes; with nullBias -1, stored code 0 decodes to -1 (null). */
+        int[] readCodes(int n, int nullBias) {
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = (int) readUnsigned() + nullBias;
+            }
+            return values;
+        }
+
+        long[] readNullables(int n) {
+            long[] values = new long[n];
+            for (int i = 0; i < n; i++) {
+                long raw = readUnsigned();
+                if (raw == 0) {
+                    values[i] = Long.MIN_VALUE;
+                } else {
+                    raw -= 1;
+                    values[i] = (raw >>> 1) ^ -(raw & 1);
+                }
+            }
+            return values;
+        }
+    }
+}
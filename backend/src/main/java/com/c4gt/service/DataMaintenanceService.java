@@ -3,21 +3,33 @@ package com.c4gt.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.List;
+
 /**
- * Refreshes materialized views and manages data retention.
+ * Refreshes the analytics summary tables and manages data retention.
  *
- * Views:
- * - mv_page_engagement_daily — refreshed every 15 min
- * - mv_user_engagement_profile — refreshed hourly
- * - mv_content_health — refreshed daily
+ * Summaries (maintained incrementally, see AnalyticsSummaryService):
+ * - page_engagement_daily_summary — refreshed every 15 min
+ * - user_engagement_profile_summary — refreshed hourly
+ * - content_health_summary — refreshed daily
  *
  * Retention:
- * - Raw engagement_events older than 90 days — partition dropped
+ * - Raw engagement_events older than 90 days — partition archived to columnar files, then dropped
+ *   (see PartitionManagerService, EngagementArchiveService)
  * - Aggregated data (daily/weekly tables) — kept indefinitely
+ *
+ * Every job takes a cluster lease first, so with several replicas each one
+ * runs once per period rather than once per replica. The lease is held for
+ * just under the job's period, so a replica whose timer fires a little late
+ * skips that period instead of running it again. Retention fences each drop
+ * with the lease's token (ClusterLeaseService.Lease#fence). The summary
+ * refreshes are not fenced: a replica that stalls past the lease TTL can
+ * overlap the next holder, but each refresh recomputes from the source
+ * tables, so the overlap costs work, not correctness.
  */
 @Service
 public class DataMaintenanceService {
@@ -25,21 +37,28 @@ public class DataMaintenanceService {
     private static final Logger log = LoggerFactory.getLogger(DataMaintenanceService.class);
 
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    private AnalyticsSummaryService summaries;
+    @Autowired
+    private PartitionManagerService partitionManager;
+    @Autowired
+    private ClusterLeaseService leases;
 
     /**
-     * Refresh page engagement view every 15 minutes.
-     * CONCURRENTLY allows reads during refresh.
+     * Refresh page engagement every 15 minutes.
      */
     @Scheduled(fixedRate = 15 * 60 * 1000, initialDelay = 60_000)
     public void refreshPageEngagement() {
-        try {
-            long start = System.currentTimeMillis();
-            jdbcTemplate.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY mv_page_engagement_daily");
-            log.info("Refreshed mv_page_engagement_daily in {}ms", System.currentTimeMillis() - start);
-        } catch (Exception e) {
-            log.error("Failed to refresh mv_page_engagement_daily", e);
-        }
+        leases.runExclusive("maintenance.page-engagement", Duration.ofMinutes(14), () -> {
+            try {
+                long start = System.currentTimeMillis();
+                int rows = summaries.refreshPageEngagement();
+                if (rows >= 0)
+                    log.info("Refreshed page_engagement_daily_summary ({} rows) in {}ms", rows,
+                            System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("Failed to refresh page_engagement_daily_summary", e);
+            }
+        });
     }
 
     /**
@@ -47,13 +66,17 @@ public class DataMaintenanceService {
      */
     @Scheduled(fixedRate = 60 * 60 * 1000, initialDelay = 120_000)
     public void refreshUserProfiles() {
-        try {
-            long start = System.currentTimeMillis();
-            jdbcTemplate.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY mv_user_engagement_profile");
-            log.info("Refreshed mv_user_engagement_profile in {}ms", System.currentTimeMillis() - start);
-        } catch (Exception e) {
-            log.error("Failed to refresh mv_user_engagement_profile", e);
-        }
+        leases.runExclusive("maintenance.user-profiles", Duration.ofMinutes(55), () -> {
+            try {
+                long start = System.currentTimeMillis();
+                int rows = summaries.refreshUserProfiles();
+                if (rows >= 0)
+                    log.info("Refreshed user_engagement_profile_summary ({} rows) in {}ms", rows,
+                            System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("Failed to refresh user_engagement_profile_summary", e);
+            }
+        });
     }
 
     /**
@@ -61,56 +84,34 @@ public class DataMaintenanceService {
      */
     @Scheduled(cron = "0 0 4 * * *")
     public void refreshContentHealth() {
-        try {
-            long start = System.currentTimeMillis();
-            jdbcTemplate.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY mv_content_health");
-            log.info("Refreshed mv_content_health in {}ms", System.currentTimeMillis() - start);
-        } catch (Exception e) {
-            log.error("Failed to refresh mv_content_health", e);
-        }
+        leases.runExclusive("maintenance.content-health", Duration.ofHours(12), () -> {
+            try {
+                long start = System.currentTimeMillis();
+                int rows = summaries.refreshContentHealth();
+                if (rows >= 0)
+                    log.info("Refreshed content_health_summary ({} rows) in {}ms", rows,
+                            System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("Failed to refresh content_health_summary", e);
+            }
+        });
     }
 
     /**
-     * Data retention: drop engagement_events partitions older than 90 days.
+     * Data retention: drop engagement_events partitions whose range is older
+     * than app.engagement.partitions.retention-days (monthly or daily).
      * Runs weekly on Sunday at 5 AM UTC.
      */
     @Scheduled(cron = "0 0 5 * * SUN")
     public void purgeOldPartitions() {
-        log.info("Starting data retention check...");
-        try {
-            // Find partitions older than 90 days
-            var partitions = jdbcTemplate.queryForList("""
-                        SELECT inhrelid::regclass::text AS partition_name
-                        FROM pg_inherits
-                        WHERE inhparent = 'engagement_events'::regclass
-                        ORDER BY inhrelid::regclass::text
-                    """);
-
-            for (var row : partitions) {
-                String partName = (String) row.get("partition_name");
-                // Extract date from partition name: engagement_events_YYYY_MM
-                String[] parts = partName.split("_");
-                if (parts.length >= 4) {
-                    try {
-                        int year = Integer.parseInt(parts[2]);
-                        int month = Integer.parseInt(parts[3]);
-                        java.time.YearMonth partMonth = java.time.YearMonth.of(year, month);
-                        java.time.YearMonth cutoff = java.time.YearMonth.now().minusMonths(3);
-
-                        if (partMonth.isBefore(cutoff)) {
-                            log.warn("Dropping old partition: {}", partName);
-                            jdbcTemplate.execute("DROP TABLE IF EXISTS " + partName);
-                            log.info("Dropped partition: {}", partName);
-                        }
-                    } catch (NumberFormatException ignored) {
-                        // Not a date-based partition name — skip
-                    }
-                }
+        leases.runExclusive("maintenance.retention", Duration.ofDays(1), lease -> {
+            log.info("Starting data retention check...");
+            try {
+                List<String> dropped = partitionManager.dropExpired(lease);
+                log.info("Data retention check completed, dropped {} partitions", dropped.size());
+            } catch (Exception e) {
+                log.error("Data retention failed", e);
             }
-
-            log.info("Data retention check completed");
-        } catch (Exception e) {
-            log.error("Data retention failed", e);
-        }
+        });
     }
 }
@@ -0,0 +1,63 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Stream consumer group "db-writer": inserts events into engagement_events
+ * with one multi-row statement per batch.
+ *
+ * Rows the database rejects as invalid (see BatchBisector) are logged,
+ * counted as engagement.stream.rejected and dropped, since redelivering them
+ * would fail the same way. Any other failure is rethrown, so the batch stays
+ * pending in the stream and is delivered again after a back-off: during a
+ * database outage the stream itself holds the backlog, without a second
+ * copy in the spool. If part of the batch was already committed when the
+ * failure hit, only the rows not written are reported (PartialFailure), since
+ * engagement_events does not deduplicate a redelivered row.
+ */
+@Component
+public class DatabaseStreamConsumer implements EngagementStreamConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseStreamConsumer.class);
+
+    @Autowired
+    private EngagementEventWriter eventWriter;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Counter rejectedRows;
+
+    @PostConstruct
+    void registerMetrics() {
+        rejectedRows = meterRegistry.counter("engagement.stream.rejected");
+    }
+
+    @Override
+    public String group() {
+        return "db-writer";
+    }
+
+    @Override
+    public void consume(List<EngagementEventWriter.Row> rows) {
+        BatchBisector.Outcome<EngagementEventWriter.Row> outcome = BatchBisector.write(rows, eventWriter::writeAll);
+        if (!outcome.rejected().isEmpty()) {
+            rejectedRows.increment(outcome.rejected().size());
+            for (EngagementEventWriter.Row row : outcome.rejected()) {
+                log.warn("Dropping engagement event the database refused: {}", row);
+            }
+        }
+        if (outcome.complete())
+            return;
+        if (outcome.unwritten().size() == rows.size())
+            throw outcome.failure();
+        throw new PartialFailure(outcome.unwritten(), outcome.failure());
+    }
+}
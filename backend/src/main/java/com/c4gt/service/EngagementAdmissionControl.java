@@ -0,0 +1,107 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Admission control for engagement ingestion.
+ *
+ * Admits batches while the ingest buffer is below its high watermark. Above
+ * it the pipeline is saturated: the caller is told to come back after the
+ * time the writers need to drain the current backlog (from the measured
+ * commit rate), instead of being accepted and silently dropped.
+ *
+ * The spool is watched too. While the database is down, failed commits
+ * drain the buffer straight into the spool, so the buffer looks healthy
+ * until the spool is full and events are lost. Above the spool's own
+ * watermark batches are rejected with the longest Retry-After, leaving the
+ * rest of the spool for batches already in flight.
+ *
+ * Exposes buffer depth, writer concurrency and reject counts as gauges.
+ * engagementExecutor queue depth and active threads come from Spring Boot's
+ * executor.* metrics.
+ */
+@Service
+public class EngagementAdmissionControl {
+
+    @Autowired
+    private EngagementIngestBuffer ingestBuffer;
+    @Autowired
+    private EngagementSpool spool;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.admission.high-watermark:0.8}")
+    private double highWatermark;
+    @Value("${app.engagement.admission.spool-high-watermark:0.5}")
+    private double spoolHighWatermark;
+    @Value("${app.engagement.admission.max-retry-after-seconds:30}")
+    private int maxRetryAfterSeconds;
+
+    private Counter rejectedCounter;
+    private long lastCommittedRows;
+    private volatile double drainRatePerSecond;
+
+    public record Decision(boolean admitted, int retryAfterSeconds) {
+        static final Decision ADMIT = new Decision(true, 0);
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        rejectedCounter = meterRegistry.counter("engagement.admission.rejected");
+        Gauge.builder("engagement.ingest.pending", ingestBuffer, EngagementIngestBuffer::pending)
+                .description("Rows waiting for group commit")
+                .register(meterRegistry);
+        Gauge.builder("engagement.ingest.capacity", ingestBuffer, EngagementIngestBuffer::capacity)
+                .register(meterRegistry);
+        Gauge.builder("engagement.ingest.commit.limit", ingestBuffer, EngagementIngestBuffer::commitConcurrencyLimit)
+                .description("Adaptive limit on concurrent group commits")
+                .register(meterRegistry);
+        Gauge.builder("engagement.ingest.commit.active", ingestBuffer, EngagementIngestBuffer::commitsInFlight)
+                .register(meterRegistry);
+        Gauge.builder("engagement.ingest.drain.rate", this, c -> c.drainRatePerSecond)
+                .description("Rows committed per second (EWMA)")
+                .baseUnit("rows")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Decide whether a new batch may enter the pipeline.
+     */
+    public Decision admit() {
+        if (spool.usage() >= spoolHighWatermark) {
+            rejectedCounter.increment();
+            return new Decision(false, maxRetryAfterSeconds);
+        }
+        int pending = ingestBuffer.pending();
+        if (pending < ingestBuffer.capacity() * highWatermark)
+            return Decision.ADMIT;
+
+        rejectedCounter.increment();
+        double rate = Math.max(drainRatePerSecond, 1.0);
+        int retryAfter = (int) Math.ceil(pending / rate);
+        return new Decision(false, Math.max(1, Math.min(maxRetryAfterSeconds, retryAfter)));
+    }
+
+    /** Rows committed per second, smoothed. */
+    public double drainRatePerSecond() {
+        return drainRatePerSecond;
+    }
+
+    /**
+     * Sample the commit rate once per second.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void sampleDrainRate() {
+        long committed = ingestBuffer.committedRows();
+        long delta = committed - lastCommittedRows;
+        lastCommittedRows = committed;
+        drainRatePerSecond = 0.7 * drainRatePerSecond + 0.3 * delta;
+    }
+}
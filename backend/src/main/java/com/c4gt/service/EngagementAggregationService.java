@@ -1,134 +1,222 @@
 package com.c4gt.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Scheduled aggregation jobs for engagement data.
- * 
- * - Daily: per-user engagement profiles
+ * Aggregation jobs for engagement data.
+ *
+ * - Daily: reconciliation of the streamed per-user daily rollups
  * - Weekly: content health scores per page
+ *
+ * Both jobs pre-aggregate each source table once per window (one grouped
+ * pass each) and join the results; there are no per-user or per-page
+ * subqueries. Work is split into user-id ranges (daily) or page hash buckets
+ * (weekly) and run by AggregationEngine, one short transaction per chunk.
+ * Scheduling, checkpoints and backfill live in AggregationRunner.
  */
 @Service
 public class EngagementAggregationService {
 
     private static final Logger log = LoggerFactory.getLogger(EngagementAggregationService.class);
 
-    @Autowired
-    private JdbcTemplate jdbcTemplate;
+    /** Per-user totals for :day, users :lo..:hi, one grouped pass per source table. */
+    private static final String DAILY_SOURCE = """
+            WITH pt AS (
+                SELECT user_id, COUNT(DISTINCT page_id) AS pages_visited, COALESCE(SUM(active_time_ms), 0) AS total_active_ms
+                FROM page_time_tracking
+                WHERE last_visited_at >= :day AND last_visited_at < :next
+                  AND user_id BETWEEN :lo AND :hi
+                GROUP BY user_id
+            ), ev AS (
+                SELECT user_id, COUNT(*) AS events_count,
+                       COALESCE(SUM(scroll_depth), 0) AS scroll_sum, COUNT(scroll_depth) AS scroll_count
+                FROM engagement_events
+                WHERE created_at >= :day AND created_at < :next
+                  AND user_id BETWEEN :lo AND :hi
+                GROUP BY user_id
+            ), de AS (
+                SELECT user_id, COUNT(*) AS dropoffs
+                FROM dropoff_events
+                WHERE created_at >= :day AND created_at < :next
+                  AND user_id BETWEEN :lo AND :hi
+                GROUP BY user_id
+            ), re AS (
+                SELECT user_id, COUNT(*) AS retries
+                FROM retry_events
+                WHERE created_at >= :day AND created_at < :next
+                  AND user_id BETWEEN :lo AND :hi
+                GROUP BY user_id
+            ), totals AS (
+                SELECT u.user_id,
+                       COALESCE(pt.pages_visited, 0) AS pages_visited,
+                       COALESCE(pt.total_active_ms, 0) AS total_active_ms,
+                       COALESCE(ev.events_count, 0) AS events_count,
+                       COALESCE(ev.scroll_sum, 0) AS scroll_sum,
+                       COALESCE(ev.scroll_count, 0) AS scroll_count,
+                       COALESCE(de.dropoffs, 0) AS dropoffs,
+                       COALESCE(re.retries, 0) AS retries
+                FROM (SELECT user_id FROM pt UNION SELECT user_id FROM ev
+                      UNION SELECT user_id FROM de UNION SELECT user_id FROM re) u
+                LEFT JOIN pt ON pt.user_id = u.user_id
+                LEFT JOIN ev ON ev.user_id = u.user_id
+                LEFT JOIN de ON de.user_id = u.user_id
+                LEFT JOIN re ON re.user_id = u.user_id
+            )
+            """;
 
     /**
-     * Daily aggregation — runs at 2 AM UTC.
-     * Computes per-user engagement summary for the previous day.
+     * Upsert the day's totals and count, in the same statement, the rows that
+     * disagreed with the streamed values. All CTEs of one statement see the
+     * snapshot taken before the upsert, so drifted reads the old rows, and
+     * totals (used twice) is materialized once.
      */
-    @Scheduled(cron = "0 0 2 * * *")
-    @Transactional
-    public void aggregateDaily() {
-        log.info("Starting daily engagement aggregation...");
-        long start = System.currentTimeMillis();
+    private static final String DAILY_UPSERT = DAILY_SOURCE + """
+            , drifted AS (
+                SELECT COUNT(*) AS n
+                FROM totals t
+                LEFT JOIN daily_user_engagement d ON d.user_id = t.user_id AND d.date = :day
+                WHERE d.id IS NULL
+                   OR d.events_count <> t.events_count
+                   OR d.dropoffs <> t.dropoffs
+                   OR d.retries <> t.retries
+            ), upserted AS (
+                INSERT INTO daily_user_engagement AS cur (user_id, date, pages_visited, total_active_ms, avg_scroll_depth,
+                                                   events_count, dropoffs, retries, scroll_depth_sum, scroll_depth_count, created_at)
+                SELECT user_id, :day, pages_visited, total_active_ms,
+                       COALESCE(scroll_sum / NULLIF(scroll_count, 0), 0)::SMALLINT,
+                       events_count, dropoffs, retries, scroll_sum, scroll_count, NOW()
+                FROM totals
+                ON CONFLICT (user_id, date) DO UPDATE SET
+                    -- page_time_tracking keeps only lifetime totals per page, so only the first
+                    -- reconcile after the day sees that day's activity; re-runs keep its values
+                    pages_visited = CASE WHEN cur.pages_visited = 0 AND cur.total_active_ms = 0
+                                         THEN EXCLUDED.pages_visited ELSE cur.pages_visited END,
+                    total_active_ms = CASE WHEN cur.pages_visited = 0 AND cur.total_active_ms = 0
+                                           THEN EXCLUDED.total_active_ms ELSE cur.total_active_ms END,
+                    avg_scroll_depth = EXCLUDED.avg_scroll_depth,
+                    events_count = EXCLUDED.events_count,
+                    dropoffs = EXCLUDED.dropoffs,
+                    retries = EXCLUDED.retries,
+                    scroll_depth_sum = EXCLUDED.scroll_depth_sum,
+                    scroll_depth_count = EXCLUDED.scroll_depth_count
+                RETURNING 1
+            )
+            SELECT (SELECT COUNT(*) FROM upserted) AS written, (SELECT n FROM drifted) AS drifted
+            """;
+
+    /** Per-page health for the week [:from, :to), pages in hash bucket :bucket of :buckets. */
+    private static final String WEEKLY_UPSERT = """
+            WITH pt AS (
+                SELECT page_id, COUNT(DISTINCT user_id) AS visitors, AVG(active_time_ms) AS avg_time_ms
+                FROM page_time_tracking
+                WHERE last_visited_at >= :from AND last_visited_at < :to
+                  AND (hashtext(page_id) & 2147483647) % :buckets = :bucket
+                GROUP BY page_id
+            ), ev AS (
+                SELECT page_id, AVG(scroll_depth) AS avg_scroll
+                FROM engagement_events
+                WHERE created_at >= :from AND created_at < :to AND scroll_depth IS NOT NULL
+                  AND (hashtext(page_id) & 2147483647) % :buckets = :bucket
+                GROUP BY page_id
+            ), de AS (
+                SELECT page_id, COUNT(*) AS dropoffs
+                FROM dropoff_events
+                WHERE created_at >= :from AND created_at < :to
+                  AND (hashtext(page_id) & 2147483647) % :buckets = :bucket
+                GROUP BY page_id
+            ), re AS (
+                SELECT page_id, COUNT(DISTINCT user_id) AS retry_users
+                FROM retry_events
+                WHERE created_at >= :from AND created_at < :to
+                  AND (hashtext(page_id) & 2147483647) % :buckets = :bucket
+                GROUP BY page_id
+            )
+            INSERT INTO weekly_content_health (page_id, week_start, unique_visitors, avg_time_ms, avg_scroll_depth,
+                                               dropoff_rate_pct, retry_rate_pct, completion_rate_pct, created_at)
+            SELECT pt.page_id, :from, pt.visitors, COALESCE(pt.avg_time_ms, 0),
+                   COALESCE(ev.avg_scroll, 0)::SMALLINT,
+                   (COALESCE(de.dropoffs, 0) * 100 / pt.visitors)::SMALLINT,
+                   (COALESCE(re.retry_users, 0) * 100 / pt.visitors)::SMALLINT,
+                   0, -- completion_rate calculated separately when progress tracking is wired
+                   NOW()
+            FROM pt
+            LEFT JOIN ev ON ev.page_id = pt.page_id
+            LEFT JOIN de ON de.page_id = pt.page_id
+            LEFT JOIN re ON re.page_id = pt.page_id
+            ON CONFLICT (page_id, week_start) DO UPDATE SET
+                unique_visitors = EXCLUDED.unique_visitors,
+                avg_time_ms = EXCLUDED.avg_time_ms,
+                avg_scroll_depth = EXCLUDED.avg_scroll_depth,
+                dropoff_rate_pct = EXCLUDED.dropoff_rate_pct,
+                retry_rate_pct = EXCLUDED.retry_rate_pct
+            """;
 
-        try {
-            jdbcTemplate
-                    .update("""
-                                INSERT INTO daily_user_engagement (user_id, date, pages_visited, total_active_ms, avg_scroll_depth, events_count, dropoffs, retries, created_at)
-                                SELECT
-                                    pt.user_id,
-                                    CURRENT_DATE - INTERVAL '1 day',
-                                    COUNT(DISTINCT pt.page_id),
-                                    COALESCE(SUM(pt.active_time_ms), 0),
-                                    COALESCE((SELECT AVG(ee.scroll_depth) FROM engagement_events ee
-                                              WHERE ee.user_id = pt.user_id AND ee.scroll_depth IS NOT NULL
-                                              AND ee.created_at >= CURRENT_DATE - INTERVAL '1 day'
-                                              AND ee.created_at < CURRENT_DATE), 0)::SMALLINT,
-                                    (SELECT COUNT(*) FROM engagement_events ee2
-                                     WHERE ee2.user_id = pt.user_id
-                                     AND ee2.created_at >= CURRENT_DATE - INTERVAL '1 day'
-                                     AND ee2.created_at < CURRENT_DATE),
-                                    (SELECT COUNT(*) FROM dropoff_events de
-                                     WHERE de.user_id = pt.user_id
-                                     AND de.created_at >= CURRENT_DATE - INTERVAL '1 day'
-                                     AND de.created_at < CURRENT_DATE),
-                                    (SELECT COUNT(*) FROM retry_events re
-                                     WHERE re.user_id = pt.user_id
-                                     AND re.created_at >= CURRENT_DATE - INTERVAL '1 day'
-                                     AND re.created_at < CURRENT_DATE),
-                                    NOW()
-                                FROM page_time_tracking pt
-                                WHERE pt.last_visited_at >= CURRENT_DATE - INTERVAL '1 day'
-                                  AND pt.last_visited_at < CURRENT_DATE
-                                GROUP BY pt.user_id
-                                ON CONFLICT (user_id, date) DO UPDATE SET
-                                    pages_visited = EXCLUDED.pages_visited,
-                                    total_active_ms = EXCLUDED.total_active_ms,
-                                    avg_scroll_depth = EXCLUDED.avg_scroll_depth,
-                                    events_count = EXCLUDED.events_count,
-                                    dropoffs = EXCLUDED.dropoffs,
-                                    retries = EXCLUDED.retries
-                            """);
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbc;
+    @Autowired
+    private AggregationEngine engine;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
-            long elapsed = System.currentTimeMillis() - start;
-            log.info("Daily aggregation completed in {}ms", elapsed);
-        } catch (Exception e) {
-            log.error("Daily aggregation failed", e);
-        }
+    private Counter reconcileCorrected;
+
+    @PostConstruct
+    void registerMetrics() {
+        reconcileCorrected = meterRegistry.counter("engagement.rollup.reconcile.corrected");
     }
 
     /**
-     * Weekly aggregation — runs at 3 AM UTC on Mondays.
-     * Computes per-page content health scores.
+     * Daily reconciliation: recompute daily_user_engagement for one UTC day.
+     *
+     * Counters are maintained during the day by StreamingRollupService. This
+     * recomputes the day once from the source tables, overwrites the streamed
+     * counters and fills pages_visited / total_active_ms (first run only; see
+     * DAILY_UPSERT). Rows that disagreed
+     * with the streamed values are counted as engagement.rollup.reconcile.corrected.
      */
-    @Scheduled(cron = "0 0 3 * * MON")
-    @Transactional
-    public void aggregateWeekly() {
-        log.info("Starting weekly content health aggregation...");
-        long start = System.currentTimeMillis();
-
-        try {
-            jdbcTemplate
-                    .update("""
-                                INSERT INTO weekly_content_health (page_id, week_start, unique_visitors, avg_time_ms, avg_scroll_depth, dropoff_rate_pct, retry_rate_pct, completion_rate_pct, created_at)
-                                SELECT
-                                    pt.page_id,
-                                    DATE_TRUNC('week', CURRENT_DATE - INTERVAL '7 days')::DATE,
-                                    COUNT(DISTINCT pt.user_id),
-                                    COALESCE(AVG(pt.active_time_ms), 0),
-                                    COALESCE((SELECT AVG(ee.scroll_depth) FROM engagement_events ee
-                                              WHERE ee.page_id = pt.page_id AND ee.scroll_depth IS NOT NULL
-                                              AND ee.created_at >= CURRENT_DATE - INTERVAL '7 days'), 0)::SMALLINT,
-                                    CASE
-                                        WHEN COUNT(DISTINCT pt.user_id) > 0
-                                        THEN ((SELECT COUNT(*) FROM dropoff_events de WHERE de.page_id = pt.page_id
-                                               AND de.created_at >= CURRENT_DATE - INTERVAL '7 days') * 100 / COUNT(DISTINCT pt.user_id))::SMALLINT
-                                        ELSE 0
-                                    END,
-                                    CASE
-                                        WHEN COUNT(DISTINCT pt.user_id) > 0
-                                        THEN ((SELECT COUNT(DISTINCT re.user_id) FROM retry_events re WHERE re.page_id = pt.page_id
-                                               AND re.created_at >= CURRENT_DATE - INTERVAL '7 days') * 100 / COUNT(DISTINCT pt.user_id))::SMALLINT
-                                        ELSE 0
-                                    END,
-                                    0, -- completion_rate calculated separately when progress tracking is wired
-                                    NOW()
-                                FROM page_time_tracking pt
-                                WHERE pt.last_visited_at >= CURRENT_DATE - INTERVAL '7 days'
-                                GROUP BY pt.page_id
-                                ON CONFLICT (page_id, week_start) DO UPDATE SET
-                                    unique_visitors = EXCLUDED.unique_visitors,
-                                    avg_time_ms = EXCLUDED.avg_time_ms,
-                                    avg_scroll_depth = EXCLUDED.avg_scroll_depth,
-                                    dropoff_rate_pct = EXCLUDED.dropoff_rate_pct,
-                                    retry_rate_pct = EXCLUDED.retry_rate_pct
-                            """);
+    public AggregationEngine.RunResult reconcileDay(LocalDate day) {
+        log.info("Starting daily engagement reconciliation for {}...", day);
+        AtomicInteger drifted = new AtomicInteger();
+        AggregationEngine.RunResult result = engine.run("daily " + day, engine.userRanges(), chunk -> {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("day", day)
+                    .addValue("next", day.plusDays(1))
+                    .addValue("lo", chunk.from())
+                    .addValue("hi", chunk.to());
+            Map<String, Object> counts = namedJdbc.queryForMap(DAILY_UPSERT, params);
+            drifted.addAndGet(((Number) counts.get("drifted")).intValue());
+            return ((Number) counts.get("written")).intValue();
+        });
+        reconcileCorrected.increment(drifted.get());
+        log.info("Daily reconciliation for {}: {} users, {} corrected", day, result.rows(), drifted.get());
+        return result;
+    }
 
-            long elapsed = System.currentTimeMillis() - start;
-            log.info("Weekly aggregation completed in {}ms", elapsed);
-        } catch (Exception e) {
-            log.error("Weekly aggregation failed", e);
-        }
+    /**
+     * Compute weekly_content_health for the ISO week containing the given date.
+     */
+    public AggregationEngine.RunResult aggregateWeek(LocalDate dayInWeek) {
+        LocalDate weekStart = dayInWeek.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        log.info("Starting weekly content health aggregation for week of {}...", weekStart);
+        return engine.run("weekly " + weekStart, engine.pageBuckets(), chunk -> namedJdbc.update(WEEKLY_UPSERT,
+                new MapSqlParameterSource()
+                        .addValue("from", weekStart)
+                        .addValue("to", weekStart.plusWeeks(1))
+                        .addValue("bucket", chunk.from())
+                        .addValue("buckets", chunk.to())));
     }
 }
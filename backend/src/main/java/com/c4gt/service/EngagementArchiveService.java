@@ -0,0 +1,341 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Archives expired engagement_events partitions to columnar files on local
+ * disk (see ColumnarArchive) before PartitionManagerService drops them, and
+ * runs historical aggregates over the archived files.
+ *
+ * A partition is streamed through a server-side cursor into a temporary
+ * file, which is forced to disk. The row count is checked against the
+ * partition, and only then is the file renamed into place. A partition whose
+ * archive fails is not dropped; the next retention run retries it. Archived
+ * columns: created_at, user, event_type, page_id, section_id, duration_ms,
+ * scroll_depth. session_id, metadata and client fields are not kept.
+ *
+ * user_id is not archived. Each file stores a salted hash of it instead,
+ * with a random salt that is used for that file only and never stored. Rows
+ * of one user stay distinct within a partition, but cannot be traced back to
+ * the user or matched across partitions. Archives therefore hold no
+ * personal data and are left alone by erasure. As a consequence,
+ * uniqueUsers in aggregates is counted per partition and summed.
+ *
+ * Archive files live in app.engagement.archive.dir on the replica that ran
+ * retention. list() and aggregate() only read that directory, so it must be
+ * a volume shared by every replica (or the service run with one replica);
+ * otherwise each replica answers from the archives it wrote itself. The
+ * setting is required while archiving is enabled.
+ */
+@Service
+public class EngagementArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementArchiveService.class);
+    private static final String SUFFIX = ".cea";
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    public enum GroupBy {
+        DAY, PAGE, EVENT_TYPE;
+
+        public static GroupBy of(String value) {
+            try {
+                return valueOf(value.toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("groupBy must be one of day, page, event_type");
+            }
+        }
+    }
+
+    /** One archived partition. Times are UTC. */
+    public record ArchiveFile(String partition, long rows, long bytes, Instant firstEventAt, Instant lastEventAt) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.archive.enabled:true}")
+    private boolean enabled;
+    @Value("${app.engagement.archive.dir:}")
+    private String archiveDir;
+    @Value("${app.engagement.archive.row-group-size:65536}")
+    private int rowGroupSize;
+    @Value("${app.engagement.archive.fetch-size:10000}")
+    private int fetchSize;
+
+    private Path dir;
+    private TransactionTemplate cursorTransaction;
+
+    @PostConstruct
+    void init() throws IOException {
+        if (enabled && archiveDir.isBlank())
+            throw new IllegalStateException("app.engagement.archive.dir must be set while archiving is enabled; "
+                    + "set app.engagement.archive.enabled=false to drop expired partitions without archiving");
+        dir = archiveDir.isBlank() ? null : Paths.get(archiveDir);
+        if (enabled)
+            Files.createDirectories(dir);
+        // A cursor (fetch size) only streams inside a transaction on PostgreSQL
+        cursorTransaction = new TransactionTemplate(transactionManager);
+        cursorTransaction.setReadOnly(true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Write the partition to its archive file, unless a complete archive of it
+     * already exists.
+     *
+     * @throws IOException if the file cannot be written
+     * @throws IllegalStateException if the archived row count does not match the partition
+     */
+    public ArchiveFile archive(PartitionManagerService.Partition partition) throws IOException {
+        Path target = dir.resolve(partition.name() + SUFFIX);
+        Long expected = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition.name(), Long.class);
+        if (Files.exists(target)) {
+            ArchiveFile existing = describe(target);
+            if (existing != null && existing.rows() == expected)
+                return existing;
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        UserPseudonyms pseudonyms = new UserPseudonyms();
+        Path tmp = dir.resolve(partition.name() + SUFFIX + ".tmp");
+        long rows;
+        try (ColumnarArchive.Writer writer = new ColumnarArchive.Writer(tmp, rowGroupSize)) {
+            cursorTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement("""
+                        SELECT created_at, user_id, event_type, page_id, section_id, duration_ms, scroll_depth
+                        FROM %s
+                        """.formatted(partition.name()), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(fetchSize);
+                return ps;
+            }, rs -> {
+                try {
+                    writer.add(micros(rs.getTimestamp(1)), pseudonyms.of(rs.getLong(2)), rs.getString(3), rs.getString(4),
+                            rs.getString(5), nullableInt(rs, 6), nullableInt(rs, 7));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            rows = writer.rows();
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(tmp);
+            throw e.getCause();
+        } catch (RuntimeException | IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        if (expected == null || rows != expected) {
+            Files.deleteIfExists(tmp);
+            throw new IllegalStateException("Archive of " + partition.name() + " has " + rows + " rows, partition has "
+                    + expected);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        sample.stop(meterRegistry.timer("engagement.archive.duration"));
+        meterRegistry.counter("engagement.archive.rows").increment(rows);
+        ArchiveFile archived = describe(target);
+        log.info("Archived {} ({} rows, {} bytes)", partition.name(), rows, archived != null ? archived.bytes() : -1);
+        return archived;
+    }
+
+    /** Archived partitions, oldest first. */
+    public List<ArchiveFile> list() throws IOException {
+        List<ArchiveFile> files = new ArrayList<>();
+        for (Path file : archiveFiles()) {
+            ArchiveFile info = describe(file);
+            if (info != null)
+                files.add(info);
+        }
+        return files;
+    }
+
+    /**
+     * Aggregate archived events with created_at in [from, to), grouped by day,
+     * page or event type. pageId and eventType optionally filter the rows.
+     *
+     * Each result row has: key, events, uniqueUsers, avgScrollDepth and
+     * totalDurationMs. Rows are ordered by key.
+     */
+    public List<Map<String, Object>> aggregate(LocalDate from, LocalDate to, GroupBy groupBy, String pageId,
+            String eventType) throws IOException {
+        long fromMicros = from.atStartOfDay(ZoneOffset.UTC).toEpochSecond() * 1_000_000L;
+        long toMicros = to.atStartOfDay(ZoneOffset.UTC).toEpochSecond() * 1_000_000L;
+        EnumSet<ColumnarArchive.Column> columns = EnumSet.of(ColumnarArchive.Column.USER_ID,
+                ColumnarArchive.Column.DURATION_MS, ColumnarArchive.Column.SCROLL_DEPTH);
+        if (groupBy == GroupBy.PAGE || pageId != null)
+            columns.add(ColumnarArchive.Column.PAGE_ID);
+        if (groupBy == GroupBy.EVENT_TYPE || eventType != null)
+            columns.add(ColumnarArchive.Column.EVENT_TYPE);
+
+        Map<String, Group> groups = new HashMap<>();
+        for (Path file : archiveFiles()) {
+            try (ColumnarArchive.Reader reader = new ColumnarArchive.Reader(file)) {
+                ColumnarArchive.Footer footer = reader.footer();
+                if (footer.rows() == 0 || footer.maxCreatedAt() < fromMicros || footer.minCreatedAt() >= toMicros)
+                    continue;
+                // Filters are resolved to dictionary codes once per file; an unknown value skips the file
+                int pageCode = pageId == null ? -1 : footer.pageIds().indexOf(pageId);
+                int eventCode = eventType == null ? -1 : footer.eventTypes().indexOf(eventType);
+                if ((pageId != null && pageCode < 0) || (eventType != null && eventCode < 0))
+                    continue;
+
+                reader.scan(fromMicros, toMicros, columns, batch -> {
+                    for (int i = 0; i < batch.rows; i++) {
+                        long ts = batch.createdAt[i];
+                        if (ts < fromMicros || ts >= toMicros)
+                            continue;
+                        if (pageId != null && batch.pageId[i] != pageCode)
+                            continue;
+                        if (eventType != null && batch.eventType[i] != eventCode)
+                            continue;
+                        String key = switch (groupBy) {
+                            case DAY -> LocalDate.ofEpochDay(Math.floorDiv(ts, 86_400_000_000L)).toString();
+                            case PAGE -> footer.pageIds().get(batch.pageId[i]);
+                            case EVENT_TYPE -> footer.eventTypes().get(batch.eventType[i]);
+                        };
+                        groups.computeIfAbsent(key, k -> new Group())
+                                .add(batch.userId[i], batch.scrollDepth[i], batch.durationMs[i]);
+                    }
+                });
+            }
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>(groups.size());
+        groups.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            Group g = e.getValue();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("key", e.getKey());
+            row.put("events", g.events);
+            row.put("uniqueUsers", g.users.size());
+            row.put("avgScrollDepth", g.scrollCount > 0 ? g.scrollSum / g.scrollCount : 0);
+            row.put("totalDurationMs", g.durationSum);
+            result.add(row);
+        });
+        return result;
+    }
+
+    /** Salted user id hashes for one archive file; the salt is discarded with this object. */
+    private static final class UserPseudonyms {
+        private final byte[] salt = new byte[16];
+        private final MessageDigest sha256;
+        private final Map<Long, Long> cache = new HashMap<>();
+
+        UserPseudonyms() {
+            SECURE_RANDOM.nextBytes(salt);
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        long of(long userId) {
+            return cache.computeIfAbsent(userId, id -> {
+                sha256.update(salt);
+                byte[] digest = sha256.digest(ByteBuffer.allocate(Long.BYTES).putLong(id).array());
+                return ByteBuffer.wrap(digest).getLong();
+            });
+        }
+    }
+
+    private static final class Group {
+        long events;
+        final Set<Long> users = new HashSet<>();
+        long scrollSum;
+        long scrollCount;
+        long durationSum;
+
+        void add(long userId, long scrollDepth, long durationMs) {
+            events++;
+            users.add(userId);
+            if (scrollDepth != Long.MIN_VALUE) {
+                scrollSum += scrollDepth;
+                scrollCount++;
+            }
+            if (durationMs != Long.MIN_VALUE)
+                durationSum += durationMs;
+        }
+    }
+
+    private List<Path> archiveFiles() throws IOException {
+        if (dir == null || !Files.isDirectory(dir))
+            return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+                    .toList();
+        }
+    }
+
+    /** File metadata from its footer, or null if the file is not a complete archive. */
+    private ArchiveFile describe(Path file) {
+        try (ColumnarArchive.Reader reader = new ColumnarArchive.Reader(file)) {
+            ColumnarArchive.Footer footer = reader.footer();
+            String name = file.getFileName().toString();
+            boolean empty = footer.rows() == 0;
+            return new ArchiveFile(name.substring(0, name.length() - SUFFIX.length()), footer.rows(), Files.size(file),
+                    empty ? null : instant(footer.minCreatedAt()), empty ? null : instant(footer.maxCreatedAt()));
+        } catch (IOException e) {
+            log.warn("Unreadable archive {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static long micros(Timestamp ts) {
+        Instant instant = ts.toInstant();
+        return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1_000;
+    }
+
+    private static Instant instant(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000);
+    }
+
+    private static Integer nullableInt(ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+}
@@ -0,0 +1,453 @@
+package com.c4gt.service;
+
+import com.c4gt.dto.EngagementSummaryDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Running per-user engagement counters in Redis hashes, so the summary and
+ * the admin overview are O(1) reads however long a user's history is.
+ *
+ * Keys:
+ * - engagement:counters:{userId} — pages, active_ms, visits, scroll_sum,
+ *   scroll_count, dropoffs, retries, plus `seeded` once loaded from Postgres
+ * - engagement:counters:{userId}:pages — per-page max active ms, so the
+ *   GREATEST semantics of page_time_tracking can be turned into deltas
+ * - engagement:counters:global — platform totals for the admin overview
+ *
+ * Counters change where the corresponding writes land in Postgres (rollup and
+ * page-time flushes), with one pipelined round trip per flushed chunk, so
+ * they never run ahead of the database. A user hash without `seeded` is
+ * loaded from Postgres on first read. Users whose data changed since the last
+ * run are periodically overwritten from Postgres, which repairs drift from
+ * lost increments or Redis restarts, and the global hash is rebuilt from the
+ * same tables. User hashes expire `ttl` after they were last loaded, so users
+ * who stop changing drop out of Redis; erasure deletes them at once
+ * (discardUser). Redis errors are counted and otherwise ignored; reads fall
+ * back to SQL.
+ */
+@Service
+public class EngagementCounters {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementCounters.class);
+
+    private static final String KEY_PREFIX = "engagement:counters:";
+    private static final String GLOBAL_KEY = KEY_PREFIX + "global";
+    private static final String WATERMARK = "redis_counters";
+
+    public static final String PAGES = "pages";
+    public static final String ACTIVE_MS = "active_ms";
+    public static final String VISITS = "visits";
+    public static final String SCROLL_SUM = "scroll_sum";
+    public static final String SCROLL_COUNT = "scroll_count";
+    public static final String DROPOFFS = "dropoffs";
+    public static final String RETRIES = "retries";
+    public static final String USERS = "users";
+    private static final String SEEDED = "seeded";
+
+    /**
+     * KEYS: user hash, user pages hash, global hash. ARGV: page id, active ms, visits.
+     * Raises the page's max active ms and adds the increase (and a new page) to the totals.
+     */
+    private static final DefaultRedisScript<Long> PAGE_TIME_SCRIPT = new DefaultRedisScript<>("""
+            local new = tonumber(ARGV[2])
+            local old = redis.call('HGET', KEYS[2], ARGV[1])
+            if not old then
+              old = 0
+              redis.call('HSET', KEYS[2], ARGV[1], new)
+              if redis.call('HINCRBY', KEYS[1], 'pages', 1) == 1 then
+                redis.call('HINCRBY', KEYS[3], 'users', 1)
+              end
+              redis.call('HINCRBY', KEYS[3], 'pages', 1)
+            else
+              old = tonumber(old)
+              if new > old then redis.call('HSET', KEYS[2], ARGV[1], new) end
+            end
+            if new > old then
+              redis.call('HINCRBY', KEYS[1], 'active_ms', new - old)
+              redis.call('HINCRBY', KEYS[3], 'active_ms', new - old)
+            end
+            redis.call('HINCRBY', KEYS[1], 'visits', ARGV[3])
+            redis.call('HINCRBY', KEYS[3], 'visits', ARGV[3])
+            return 1
+            """, Long.class);
+
+    /** Per-user totals: page rows plus the daily rollup counters. */
+    private static final String USER_TOTALS = """
+            SELECT u.user_id,
+                   COALESCE(pt.pages, 0) AS pages, COALESCE(pt.active_ms, 0) AS active_ms,
+                   COALESCE(pt.visits, 0) AS visits,
+                   COALESCE(d.scroll_sum, 0) AS scroll_sum, COALESCE(d.scroll_count, 0) AS scroll_count,
+                   COALESCE(d.dropoffs, 0) AS dropoffs, COALESCE(d.retries, 0) AS retries
+            FROM (SELECT UNNEST(CAST(:users AS BIGINT[])) AS user_id) u
+            LEFT JOIN (SELECT user_id, COUNT(*) AS pages, SUM(active_time_ms) AS active_ms, SUM(visit_count) AS visits
+                       FROM page_time_tracking WHERE user_id = ANY(CAST(:users AS BIGINT[]))
+                       GROUP BY user_id) pt ON pt.user_id = u.user_id
+            LEFT JOIN (SELECT user_id, SUM(scroll_depth_sum) AS scroll_sum, SUM(scroll_depth_count) AS scroll_count,
+                              SUM(dropoffs) AS dropoffs, SUM(retries) AS retries
+                       FROM daily_user_engagement WHERE user_id = ANY(CAST(:users AS BIGINT[]))
+                       GROUP BY user_id) d ON d.user_id = u.user_id
+            """;
+
+    /** Platform totals over the same tables as USER_TOTALS; users counts users with page rows. */
+    private static final String GLOBAL_TOTALS = """
+            SELECT pt.users, pt.pages, pt.active_ms, pt.visits, d.scroll_sum, d.scroll_count, d.dropoffs, d.retries
+            FROM (SELECT COUNT(DISTINCT user_id) AS users, COUNT(*) AS pages,
+                         COALESCE(SUM(active_time_ms), 0) AS active_ms, COALESCE(SUM(visit_count), 0) AS visits
+                  FROM page_time_tracking) pt
+            CROSS JOIN (SELECT COALESCE(SUM(scroll_depth_sum), 0) AS scroll_sum,
+                               COALESCE(SUM(scroll_depth_count), 0) AS scroll_count,
+                               COALESCE(SUM(dropoffs), 0) AS dropoffs, COALESCE(SUM(retries), 0) AS retries
+                        FROM daily_user_engagement) d
+            """;
+
+    /** Users changed since :since with id above :after, in id order, :limit at a time. */
+    private static final String CHANGED_USERS = """
+            SELECT user_id FROM (
+                SELECT user_id FROM page_time_tracking WHERE updated_at > :since
+                UNION SELECT user_id FROM engagement_events WHERE created_at > :since
+                UNION SELECT user_id FROM dropoff_events WHERE created_at > :since
+                UNION SELECT user_id FROM retry_events WHERE created_at > :since
+            ) changed
+            WHERE user_id > :after
+            ORDER BY user_id
+            LIMIT :limit
+            """;
+
+    /** A flushed page-time row: the page's active ms (a running max) and visits added. */
+    public record PageTime(long userId, String pageId, long activeMs, int visits) {
+    }
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbc;
+    @Autowired
+    private ClusterLeaseService leases;
+    @Autowired
+    private EngagementSummaryCache summaryCache;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.counters.reconcile-batch-size:500}")
+    private int reconcileBatchSize;
+    @Value("${app.engagement.counters.reconcile-scan-size:50000}")
+    private int reconcileScanSize;
+    @Value("${app.engagement.counters.ttl:30d}")
+    private Duration ttl;
+    @Value("${app.analytics.summary-overlap-seconds:120}")
+    private int overlapSeconds;
+
+    private Counter redisFailures;
+    private Counter reconciledUsers;
+
+    @PostConstruct
+    void registerMetrics() {
+        redisFailures = meterRegistry.counter("engagement.counters.redis.failures");
+        reconciledUsers = meterRegistry.counter("engagement.counters.reconciled");
+    }
+
+    // --- Updates (called after the matching Postgres write succeeded) ---
+
+    /** Apply flushed page-time rows, one pipelined round trip. */
+    public void recordPageTimes(Collection<PageTime> rows) {
+        if (!rows.isEmpty())
+            recordPageTimes(rows, true);
+    }
+
+    private void recordPageTimes(Collection<PageTime> rows, boolean retryOnNoScript) {
+        String sha = PAGE_TIME_SCRIPT.getSha1();
+        try {
+            pipelined(redis -> {
+                for (PageTime row : rows) {
+                    redis.evalSha(sha, ReturnType.INTEGER, 3, userKey(row.userId()), pagesKey(row.userId()),
+                            GLOBAL_KEY, row.pageId(), Long.toString(row.activeMs()), Integer.toString(row.visits()));
+                }
+            });
+        } catch (DataAccessException e) {
+            if (!retryOnNoScript || !isNoScript(e)) {
+                failed(e);
+                return;
+            }
+            // Script not cached yet (first use or Redis restart): load it and send the batch once more
+            try {
+                redisTemplate.execute((RedisCallback<String>) c -> c.scriptingCommands()
+                        .scriptLoad(PAGE_TIME_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+            } catch (DataAccessException loadFailed) {
+                failed(loadFailed);
+                return;
+            }
+            recordPageTimes(rows, false);
+        }
+    }
+
+    /**
+     * Add per-user deltas, one pipelined round trip. deltas maps userId to
+     * field → delta; zero deltas are skipped and fields are also summed into
+     * the global hash.
+     */
+    public void increment(Map<Long, Map<String, Long>> deltas) {
+        if (deltas.isEmpty())
+            return;
+        Map<String, Long> global = new HashMap<>();
+        try {
+            pipelined(redis -> {
+                deltas.forEach((userId, fields) -> fields.forEach((field, delta) -> {
+                    if (delta == 0)
+                        return;
+                    redis.hIncrBy(userKey(userId), field, delta);
+                    global.merge(field, delta, Long::sum);
+                }));
+                global.forEach((field, delta) -> redis.hIncrBy(GLOBAL_KEY, field, delta));
+            });
+        } catch (DataAccessException e) {
+            failed(e);
+        }
+    }
+
+    // --- Reads ---
+
+    /**
+     * The user's summary from Redis, loading it from Postgres on first use.
+     *
+     * @return the summary, or null if Redis is unavailable
+     */
+    public EngagementSummaryDTO summary(long userId) {
+        Map<Object, Object> hash;
+        try {
+            hash = redisTemplate.opsForHash().entries(userKey(userId));
+        } catch (DataAccessException e) {
+            failed(e);
+            return null;
+        }
+        if (!hash.containsKey(SEEDED)) {
+            Map<Long, Map<String, Long>> loaded = load(List.of(userId));
+            if (!store(loaded))
+                return null;
+            return toSummary(loaded.get(userId));
+        }
+        Map<String, Long> fields = new HashMap<>();
+        hash.forEach((k, v) -> fields.put((String) k, Long.parseLong((String) v)));
+        return toSummary(fields);
+    }
+
+    /**
+     * Platform totals (users, pages, visits, active_ms, dropoffs), or null if
+     * the global hash has not been built yet or Redis is unavailable.
+     */
+    public Map<String, Long> global() {
+        try {
+            Map<Object, Object> hash = redisTemplate.opsForHash().entries(GLOBAL_KEY);
+            if (!hash.containsKey(SEEDED))
+                return null;
+            Map<String, Long> totals = new HashMap<>();
+            hash.forEach((k, v) -> totals.put((String) k, Long.parseLong((String) v)));
+            return totals;
+        } catch (DataAccessException e) {
+            failed(e);
+            return null;
+        }
+    }
+
+    /**
+     * Erasure: delete the user's hashes. The global totals keep the user's
+     * share until the next reconciliation rebuilds them.
+     */
+    public void discardUser(long userId) {
+        try {
+            redisTemplate.delete(List.of(userKey(userId), pagesKey(userId)));
+        } catch (DataAccessException e) {
+            failed(e);
+            log.warn("Could not delete engagement counters of erased user {}; they expire within {}", userId, ttl);
+        }
+    }
+
+    // --- Reconciliation ---
+
+    /**
+     * Overwrite the counters of every user whose data changed since the last
+     * run with values recomputed from Postgres, then rebuild the global hash
+     * from the same tables. The watermark advances only if every changed user
+     * was stored.
+     */
+    @Scheduled(fixedDelayString = "${app.engagement.counters.reconcile-interval-ms:900000}", initialDelay = 180_000)
+    public void reconcile() {
+        leases.runExclusive("engagement.counters.reconcile", Duration.ofMinutes(5), this::reconcileChanged);
+    }
+
+    private void reconcileChanged() {
+        try {
+            List<Timestamp> marks = namedJdbc.queryForList(
+                    "SELECT high_water FROM analytics_watermarks WHERE summary = :summary",
+                    new MapSqlParameterSource("summary", WATERMARK), Timestamp.class);
+            Timestamp mark = namedJdbc.queryForObject("SELECT clock_timestamp()", new MapSqlParameterSource(),
+                    Timestamp.class);
+            // First run: nothing to repair yet, users are loaded lazily on read
+            Timestamp since = marks.isEmpty() ? mark
+                    : Timestamp.from(marks.get(0).toInstant().minusSeconds(overlapSeconds));
+
+            int reconciled = 0;
+            boolean stored = true;
+            long after = 0;
+            List<Long> users;
+            do {
+                users = namedJdbc.queryForList(CHANGED_USERS, new MapSqlParameterSource("since", since)
+                        .addValue("after", after).addValue("limit", reconcileScanSize), Long.class);
+                for (int from = 0; from < users.size(); from += reconcileBatchSize) {
+                    List<Long> batch = users.subList(from, Math.min(users.size(), from + reconcileBatchSize));
+                    if (store(load(batch)))
+                        summaryCache.evictAll(batch);
+                    else
+                        stored = false;
+                }
+                reconciled += users.size();
+                if (!users.isEmpty())
+                    after = users.get(users.size() - 1);
+            } while (users.size() == reconcileScanSize);
+            reconciledUsers.increment(reconciled);
+            if (!stored) {
+                // Keep the mark so the next run retries these users
+                log.warn("Engagement counter reconciliation incomplete, Redis unavailable");
+                return;
+            }
+            reconcileGlobal();
+
+            namedJdbc.update("""
+                    INSERT INTO analytics_watermarks (summary, high_water, refreshed_at, keys_refreshed)
+                    VALUES (:summary, :mark, NOW(), :rows)
+                    ON CONFLICT (summary) DO UPDATE SET
+                        high_water = EXCLUDED.high_water,
+                        refreshed_at = EXCLUDED.refreshed_at,
+                        keys_refreshed = EXCLUDED.keys_refreshed
+                    """, new MapSqlParameterSource("summary", WATERMARK).addValue("mark", mark)
+                    .addValue("rows", reconciled));
+            if (reconciled > 0)
+                log.info("Reconciled engagement counters for {} users", reconciled);
+        } catch (Exception e) {
+            log.error("Engagement counter reconciliation failed", e);
+        }
+    }
+
+    private void reconcileGlobal() {
+        Map<String, Object> totals = namedJdbc.queryForMap(GLOBAL_TOTALS, new MapSqlParameterSource());
+        Map<String, String> hash = new HashMap<>();
+        totals.forEach((k, v) -> hash.put(k, Long.toString(((Number) v).longValue())));
+        hash.put(SEEDED, "1");
+        redisTemplate.opsForHash().putAll(GLOBAL_KEY, hash);
+    }
+
+    /** Counters for users recomputed from Postgres, including per-page max active ms under "page:" keys. */
+    private Map<Long, Map<String, Long>> load(List<Long> users) {
+        MapSqlParameterSource params = new MapSqlParameterSource("users", users.toArray(new Long[0]));
+        Map<Long, Map<String, Long>> result = new HashMap<>();
+        namedJdbc.query(USER_TOTALS, params, rs -> {
+            Map<String, Long> fields = new HashMap<>();
+            for (String field : List.of(PAGES, ACTIVE_MS, VISITS, SCROLL_SUM, SCROLL_COUNT, DROPOFFS, RETRIES)) {
+                fields.put(field, rs.getLong(field));
+            }
+            result.put(rs.getLong("user_id"), fields);
+        });
+        namedJdbc.query("""
+                SELECT user_id, page_id, active_time_ms FROM page_time_tracking
+                WHERE user_id = ANY(CAST(:users AS BIGINT[]))
+                """, params, rs -> {
+            result.get(rs.getLong("user_id")).put("page:" + rs.getString("page_id"), rs.getLong("active_time_ms"));
+        });
+        return result;
+    }
+
+    /**
+     * Overwrite the user and pages hashes and restart their TTL. Fields are
+     * overwritten in place rather than deleted first, so concurrent flushes
+     * never see a missing page and count it as new.
+     *
+     * @return false if Redis was unavailable
+     */
+    private boolean store(Map<Long, Map<String, Long>> loaded) {
+        try {
+            pipelined(redis -> loaded.forEach((userId, fields) -> {
+                Map<String, String> totals = new HashMap<>();
+                Map<String, String> pages = new HashMap<>();
+                fields.forEach((field, value) -> {
+                    if (field.startsWith("page:"))
+                        pages.put(field.substring(5), Long.toString(value));
+                    else
+                        totals.put(field, Long.toString(value));
+                });
+                totals.put(SEEDED, "1");
+                redis.hMSet(userKey(userId), totals);
+                redis.expire(userKey(userId), ttl.toSeconds());
+                if (!pages.isEmpty()) {
+                    redis.hMSet(pagesKey(userId), pages);
+                    redis.expire(pagesKey(userId), ttl.toSeconds());
+                }
+            }));
+            return true;
+        } catch (DataAccessException e) {
+            failed(e);
+            return false;
+        }
+    }
+
+    private static EngagementSummaryDTO toSummary(Map<String, Long> fields) {
+        long scrollCount = fields.getOrDefault(SCROLL_COUNT, 0L);
+        return new EngagementSummaryDTO(
+                fields.getOrDefault(PAGES, 0L).intValue(),
+                fields.getOrDefault(ACTIVE_MS, 0L),
+                scrollCount > 0 ? (int) (fields.getOrDefault(SCROLL_SUM, 0L) / scrollCount) : 0,
+                fields.getOrDefault(DROPOFFS, 0L).intValue(),
+                fields.getOrDefault(RETRIES, 0L).intValue());
+    }
+
+    private void pipelined(Consumer<StringRedisConnection> commands) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            commands.accept((StringRedisConnection) connection);
+            return null;
+        });
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT"))
+                return true;
+        }
+        return false;
+    }
+
+    private void failed(DataAccessException e) {
+        redisFailures.increment();
+        log.warn("Engagement counters: Redis unavailable: {}", e.getMessage());
+    }
+
+    private static String userKey(long userId) {
+        return KEY_PREFIX + userId;
+    }
+
+    private static String pagesKey(long userId) {
+        return KEY_PREFIX + userId + ":pages";
+    }
+}
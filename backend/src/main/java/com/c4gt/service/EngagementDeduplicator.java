@@ -0,0 +1,177 @@
+package com.c4gt.service;
+
+import com.c4gt.dto.EngagementEventDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drops engagement events the server has already accepted (client retries).
+ *
+ * An event's idempotency key is sessionId:clientTimestamp:seq; events without
+ * a seq (older clients) are never treated as duplicates. Keys are bucketed
+ * into windows by client timestamp, so every node puts a retried event in the
+ * same window.
+ *
+ * Per window there is a local Bloom filter and a Redis set
+ * (engagement:dedup:{window}). One pipelined SADD per batch is the
+ * cross-node source of truth — SADD returning 0 means another request already
+ * had the key. If Redis is unavailable the local Bloom filter decides on its
+ * own, at the cost of a small false-positive rate.
+ */
+@Service
+public class EngagementDeduplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementDeduplicator.class);
+    private static final String KEY_PREFIX = "engagement:dedup:";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.dedup.window-minutes:10}")
+    private int windowMinutes;
+    @Value("${app.engagement.dedup.retained-windows:12}")
+    private int retainedWindows;
+    @Value("${app.engagement.dedup.expected-per-window:200000}")
+    private long expectedPerWindow;
+    @Value("${app.engagement.dedup.false-positive-rate:0.001}")
+    private double falsePositiveRate;
+    @Value("${app.engagement.dedup.redis-enabled:true}")
+    private boolean redisEnabled;
+
+    private final Map<Long, BloomFilter> filters = new ConcurrentHashMap<>();
+    private long windowMs;
+    private Counter duplicateCounter;
+    private Counter redisFailureCounter;
+
+    @PostConstruct
+    void init() {
+        windowMs = Duration.ofMinutes(windowMinutes).toMillis();
+        duplicateCounter = meterRegistry.counter("engagement.dedup.duplicates");
+        redisFailureCounter = meterRegistry.counter("engagement.dedup.redis.failures");
+    }
+
+    /**
+     * Check a batch of events and record the new ones.
+     *
+     * @return per-event flags, true where the event is a duplicate
+     */
+    public boolean[] markDuplicates(String sessionId, List<EngagementEventDTO> events) {
+        boolean[] duplicate = new boolean[events.size()];
+        String[] keys = new String[events.size()];
+        long[] windows = new long[events.size()];
+        boolean any = false;
+        for (int i = 0; i < events.size(); i++) {
+            EngagementEventDTO event = events.get(i);
+            if (sessionId == null || event.getSeq() == null || event.getTimestamp() == null)
+                continue;
+            keys[i] = sessionId + ":" + event.getTimestamp() + ":" + event.getSeq();
+            windows[i] = event.getTimestamp() / windowMs;
+            any = true;
+        }
+        if (!any)
+            return duplicate;
+
+        List<Object> added = redisEnabled ? addToRedis(keys, windows) : null;
+        int result = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null)
+                continue;
+            BloomFilter filter = filterFor(windows[i]);
+            if (added != null) {
+                duplicate[i] = Long.valueOf(0).equals(added.get(result++));
+            } else {
+                duplicate[i] = filter != null && filter.mightContain(keys[i]);
+            }
+            if (filter != null)
+                filter.put(keys[i]);
+            if (duplicate[i])
+                duplicateCounter.increment();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Forget events markDuplicates recorded that were then not stored (no
+     * sink had room, or they could not be mapped), so a retry of them is
+     * accepted. Removes the Redis keys; the local Bloom filter cannot forget,
+     * so while Redis is down such a retry may still be dropped.
+     */
+    public void release(String sessionId, List<EngagementEventDTO> events) {
+        if (!redisEnabled || sessionId == null)
+            return;
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (EngagementEventDTO event : events) {
+                    if (event.getSeq() == null || event.getTimestamp() == null)
+                        continue;
+                    redis.sRem(KEY_PREFIX + event.getTimestamp() / windowMs,
+                            sessionId + ":" + event.getTimestamp() + ":" + event.getSeq());
+                }
+                return null;
+            });
+        } catch (DataAccessException e) {
+            redisFailureCounter.increment();
+            log.warn("Redis dedup unavailable, could not release {} keys: {}", events.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Pipelined SADD of every key plus one EXPIRE per touched window.
+     *
+     * @return SADD replies in key order, or null if Redis is unavailable
+     */
+    private List<Object> addToRedis(String[] keys, long[] windows) {
+        try {
+            Set<Long> touched = new LinkedHashSet<>();
+            long ttlSeconds = windowMs / 1000 * retainedWindows;
+            List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] == null)
+                        continue;
+                    redis.sAdd(KEY_PREFIX + windows[i], keys[i]);
+                    touched.add(windows[i]);
+                }
+                for (Long window : touched) {
+                    redis.expire(KEY_PREFIX + window, ttlSeconds);
+                }
+                return null;
+            });
+            return replies.subList(0, replies.size() - touched.size());
+        } catch (DataAccessException e) {
+            redisFailureCounter.increment();
+            log.warn("Redis dedup unavailable, using local Bloom filters only: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /** Local filter for a window, or null if the window is older than we retain. */
+    private BloomFilter filterFor(long window) {
+        long current = System.currentTimeMillis() / windowMs;
+        if (window <= current - retainedWindows)
+            return null;
+        if (filters.size() > retainedWindows + 1)
+            filters.keySet().removeIf(w -> w <= current - retainedWindows);
+        return filters.computeIfAbsent(window, w -> new BloomFilter(expectedPerWindow, falsePositiveRate));
+    }
+}
@@ -0,0 +1,127 @@
+package com.c4gt.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk writer for engagement_events.
+ *
+ * Rows are written with multi-row INSERT statements instead of one JPA save per
+ * event. IDENTITY ids prevent Hibernate from batching, so going through the
+ * entity costs one round trip per event; here a chunk of up to
+ * {@link #ROWS_PER_STATEMENT} rows is a single statement.
+ *
+ * Rows from many users can be mixed freely in one call.
+ */
+@Service
+public class EngagementEventWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementEventWriter.class);
+
+    /** 10 bind parameters per row — stays well under the 65535 bind limit of the PG protocol. */
+    static final int ROWS_PER_STATEMENT = 1000;
+
+    // Column lengths of engagement_events; longer values would fail the whole statement
+    static final int SESSION_ID_LENGTH = 64;
+    static final int EVENT_TYPE_LENGTH = 50;
+    static final int PAGE_ID_LENGTH = 100;
+    static final int SECTION_ID_LENGTH = 100;
+    static final int CLIENT_VERSION_LENGTH = 20;
+
+    private static final String INSERT_PREFIX = """
+            INSERT INTO engagement_events (user_id, session_id, event_type, page_id, section_id, duration_ms, scroll_depth, metadata, client_version, client_ts)
+            VALUES
+            """;
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?::JSONB, ?, ?)";
+    // Explicit SQL types so null binds don't trigger a parameter-metadata round trip
+    private static final int[] ROW_TYPES = {
+            Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.INTEGER, Types.SMALLINT, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP_WITH_TIMEZONE };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * A validated engagement event, already mapped to the engagement_events
+     * columns. server_ts and created_at are left to the column defaults.
+     */
+    public record Row(
+            long userId,
+            String sessionId,
+            String eventType,
+            String pageId,
+            String sectionId,
+            Integer durationMs,
+            Short scrollDepth,
+            String metadata,
+            String clientVersion,
+            long clientTsMillis) {
+    }
+
+    /**
+     * Insert all rows, chunked into multi-row statements.
+     *
+     * @return number of rows inserted
+     */
+    @Transactional
+    public int writeAll(List<Row> rows) {
+        if (rows.isEmpty())
+            return 0;
+
+        int written = 0;
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<Row> chunk = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_STATEMENT));
+            written += jdbcTemplate.update(buildInsert(chunk.size()), bindArgs(chunk), bindTypes(chunk.size()));
+        }
+
+        log.debug("Bulk-inserted {} engagement events", written);
+        return written;
+    }
+
+    private static String buildInsert(int rowCount) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rowCount * (ROW_PLACEHOLDER.length() + 2));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0)
+                sql.append(", ");
+            sql.append(ROW_PLACEHOLDER);
+        }
+        return sql.toString();
+    }
+
+    private static int[] bindTypes(int rowCount) {
+        int[] types = new int[rowCount * ROW_TYPES.length];
+        for (int i = 0; i < rowCount; i++) {
+            System.arraycopy(ROW_TYPES, 0, types, i * ROW_TYPES.length, ROW_TYPES.length);
+        }
+        return types;
+    }
+
+    private static Object[] bindArgs(List<Row> rows) {
+        List<Object> args = new ArrayList<>(rows.size() * ROW_TYPES.length);
+        for (Row row : rows) {
+            args.add(row.userId());
+            args.add(row.sessionId());
+            args.add(row.eventType());
+            args.add(row.pageId());
+            args.add(row.sectionId());
+            args.add(row.durationMs());
+            args.add(row.scrollDepth());
+            args.add(row.metadata() != null ? row.metadata() : "{}");
+            args.add(row.clientVersion());
+            args.add(OffsetDateTime.ofInstant(Instant.ofEpochMilli(row.clientTsMillis()), ZoneOffset.UTC));
+        }
+        return args.toArray();
+    }
+}
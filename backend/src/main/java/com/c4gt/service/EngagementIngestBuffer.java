@@ -0,0 +1,243 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Group-commit buffer between the engagement API and the database.
+ *
+ * Request threads enqueue rows into lock-free MPSC rings (one per writer
+ * thread) and return immediately. Each writer drains its ring and commits
+ * everything it has in one transaction once either {@code batch-size} rows are
+ * pending or the oldest pending row is {@code max-delay-ms} old — so thousands
+ * of HTTP batches from many users become a handful of commits per second.
+ *
+ * How many writers may commit at once is governed by an
+ * {@link AdaptiveConcurrencyLimiter} fed with observed commit latency, so a
+ * slowing database gets fewer concurrent transactions rather than more.
+ * Rows the database rejects as invalid (see {@link BatchBisector}) are
+ * dropped and counted as engagement.ingest.rejected without failing the
+ * other users' rows in the batch; batches that fail for any other reason go
+ * to the {@link EngagementSpool} for replay.
+ * Pending rows are flushed on shutdown. The lifecycle phase is below the web
+ * server's, so with server.shutdown=graceful in-flight requests finish
+ * enqueueing before the writers drain and stop.
+ */
+@Service
+public class EngagementIngestBuffer implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementIngestBuffer.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Autowired
+    private EngagementEventWriter eventWriter;
+    @Autowired
+    private EngagementSpool spool;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.ingest.capacity:65536}")
+    private int capacity;
+    @Value("${app.engagement.ingest.batch-size:2000}")
+    private int batchSize;
+    @Value("${app.engagement.ingest.max-delay-ms:50}")
+    private long maxDelayMs;
+    @Value("${app.engagement.ingest.writer-threads:4}")
+    private int writerThreads;
+
+    private MpscRingBuffer<EngagementEventWriter.Row>[] rings;
+    private AdaptiveConcurrencyLimiter commitLimiter;
+    private final AtomicLong committedRows = new AtomicLong();
+    private Counter rejectedCounter;
+    private Thread[] writers;
+    private volatile boolean running;
+
+    @PostConstruct
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void init() {
+        rings = new MpscRingBuffer[writerThreads];
+        for (int i = 0; i < writerThreads; i++) {
+            rings[i] = new MpscRingBuffer<>(Math.max(2, capacity / writerThreads));
+        }
+        commitLimiter = new AdaptiveConcurrencyLimiter(Math.max(1, writerThreads / 2), 1, writerThreads);
+        rejectedCounter = meterRegistry.counter("engagement.ingest.rejected");
+    }
+
+    /**
+     * Enqueue rows for group commit. Rows of one call go to the same writer so a
+     * request's events are committed together.
+     *
+     * @return number of rows accepted; the rest did not fit
+     */
+    public int offerAll(long userId, List<EngagementEventWriter.Row> rows) {
+        int accepted = 0;
+        int shard = Math.floorMod(Long.hashCode(userId), rings.length);
+        for (EngagementEventWriter.Row row : rows) {
+            if (!offer(shard, row))
+                break;
+            accepted++;
+        }
+        if (accepted > 0 && writers != null)
+            LockSupport.unpark(writers[shard]);
+        return accepted;
+    }
+
+    /**
+     * Enqueue a single row (streaming ingestion).
+     *
+     * @return false if every writer's ring is full
+     */
+    public boolean offer(long userId, EngagementEventWriter.Row row) {
+        int shard = Math.floorMod(Long.hashCode(userId), rings.length);
+        if (!offer(shard, row))
+            return false;
+        if (writers != null)
+            LockSupport.unpark(writers[shard]);
+        return true;
+    }
+
+    private boolean offer(int preferredShard, EngagementEventWriter.Row row) {
+        for (int i = 0; i < rings.length; i++) {
+            if (rings[(preferredShard + i) % rings.length].offer(row))
+                return true;
+        }
+        return false;
+    }
+
+    /** Rows currently waiting across all writers. */
+    public int pending() {
+        int total = 0;
+        for (MpscRingBuffer<EngagementEventWriter.Row> ring : rings) {
+            total += ring.size();
+        }
+        return total;
+    }
+
+    /** Total rows committed to the database since startup. */
+    public long committedRows() {
+        return committedRows.get();
+    }
+
+    /** Writers currently allowed to commit concurrently. */
+    public int commitConcurrencyLimit() {
+        return commitLimiter.getLimit();
+    }
+
+    public int commitsInFlight() {
+        return commitLimiter.getInFlight();
+    }
+
+    public int capacity() {
+        int total = 0;
+        for (MpscRingBuffer<EngagementEventWriter.Row> ring : rings) {
+            total += ring.capacity();
+        }
+        return total;
+    }
+
+    // --- Writer loop ---
+
+    private void runWriter(MpscRingBuffer<EngagementEventWriter.Row> ring) {
+        List<EngagementEventWriter.Row> batch = new ArrayList<>(batchSize);
+        long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        long deadline = 0;
+
+        while (running || !ring.isEmpty()) {
+            boolean wasEmpty = batch.isEmpty();
+            int drained = ring.drain(batch::add, batchSize - batch.size());
+            if (wasEmpty && drained > 0)
+                deadline = System.nanoTime() + maxDelayNanos;
+
+            if (batch.size() >= batchSize || (!batch.isEmpty() && System.nanoTime() >= deadline)) {
+                commit(batch);
+            } else if (drained == 0) {
+                long wait = batch.isEmpty() ? IDLE_PARK_NANOS * 10 : Math.min(IDLE_PARK_NANOS, deadline - System.nanoTime());
+                LockSupport.parkNanos(this, Math.max(wait, 1));
+            }
+        }
+
+        if (!batch.isEmpty())
+            commit(batch);
+    }
+
+    private void commit(List<EngagementEventWriter.Row> batch) {
+        commitLimiter.acquire();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            BatchBisector.Outcome<EngagementEventWriter.Row> outcome = BatchBisector.write(batch, eventWriter::writeAll);
+            committedRows.addAndGet(batch.size() - outcome.rejected().size() - outcome.unwritten().size());
+            if (!outcome.rejected().isEmpty()) {
+                rejectedCounter.increment(outcome.rejected().size());
+                log.warn("Rejected {} engagement events the database refused, first from user {}",
+                        outcome.rejected().size(), outcome.rejected().get(0).userId());
+            }
+            if (!outcome.complete()) {
+                log.warn("Group commit failed, spooling {} engagement events: {}", outcome.unwritten().size(),
+                        outcome.failure().getMessage());
+                spool.append(outcome.unwritten());
+            }
+            succeeded = outcome.complete();
+        } finally {
+            commitLimiter.release(System.nanoTime() - start, succeeded);
+        }
+        batch.clear();
+    }
+
+    // --- Lifecycle ---
+
+    @Override
+    public void start() {
+        running = true;
+        writers = new Thread[rings.length];
+        for (int i = 0; i < rings.length; i++) {
+            MpscRingBuffer<EngagementEventWriter.Row> ring = rings[i];
+            writers[i] = new Thread(() -> runWriter(ring), "engagement-writer-" + i);
+            writers[i].setDaemon(true); // stop() joins them; never block JVM exit on a failed context
+            writers[i].start();
+        }
+        log.info("Engagement ingest buffer started: writers={}, capacity={}, batchSize={}, maxDelayMs={}",
+                rings.length, capacity(), batchSize, maxDelayMs);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (Thread writer : writers) {
+            LockSupport.unpark(writer);
+        }
+        for (Thread writer : writers) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(20));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("Engagement ingest buffer stopped, {} rows left unflushed", pending());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Stop after the web server (DEFAULT_PHASE - 1024/2048) has drained in-flight requests. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
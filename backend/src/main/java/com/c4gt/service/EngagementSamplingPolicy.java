@@ -0,0 +1,304 @@
+package com.c4gt.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Server-side sampling and load shedding for high-frequency engagement event
+ * types, applied after deduplication and before events enter the ingest
+ * buffer.
+ *
+ * Each event type may have a rule (types without one are always kept):
+ * - sample-rate: fraction of sessions whose events of this type are kept.
+ *   The decision hashes (session id, event type), so a session is either
+ *   fully in or fully out and retries are sampled the same way.
+ * - collapse-window-seconds: of the events carrying a scroll depth, only the
+ *   deepest per (session, page, event type, window of client time) in a
+ *   batch is kept. 0 disables collapsing.
+ * - shed-level: the type is dropped entirely while the pipeline load level
+ *   is at or above this (1 = elevated, 2 = critical). 0 never sheds.
+ *
+ * Defaults come from app.engagement.sampling.rules. Per-type overrides live
+ * in the Redis hash engagement:sampling:rules (field = event type, value =
+ * rule JSON) and are re-read every reload-interval-ms, so a change made
+ * through the admin API reaches every instance without a restart.
+ *
+ * The load level comes from the ingest lag: rows pending in the buffer
+ * divided by the measured commit rate. A spool backlog that has grown over
+ * the last spool-growth-seconds means the database is falling behind, so it
+ * holds the level at elevated or above. A backlog that is steady or being
+ * replayed does not, so it cannot pin the level while it drains. The level
+ * drops only once lag is below half the threshold, so shedding does not flap.
+ * Dropped events are counted by type and reason (sampled, collapsed, shed).
+ */
+@Service
+public class EngagementSamplingPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementSamplingPolicy.class);
+    private static final String OVERRIDES_KEY = "engagement:sampling:rules";
+
+    public static final int NORMAL = 0;
+    public static final int ELEVATED = 1;
+    public static final int CRITICAL = 2;
+
+    /** Null fields take their defaults: keep every session, no collapsing, never shed. */
+    public record Rule(Double sampleRate, Integer collapseWindowSeconds, Integer shedLevel) {
+        public Rule {
+            sampleRate = sampleRate != null ? sampleRate : 1.0;
+            collapseWindowSeconds = collapseWindowSeconds != null ? collapseWindowSeconds : 0;
+            shedLevel = shedLevel != null ? shedLevel : 0;
+            if (sampleRate < 0 || sampleRate > 1)
+                throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+            if (collapseWindowSeconds < 0 || collapseWindowSeconds > 3600)
+                throw new IllegalArgumentException("collapseWindowSeconds must be between 0 and 3600");
+            if (shedLevel < 0 || shedLevel > CRITICAL)
+                throw new IllegalArgumentException("shedLevel must be 0, 1 or 2");
+        }
+    }
+
+    /** Called once per dropped event. */
+    interface DropListener {
+        void dropped(String eventType, String reason);
+    }
+
+    @Autowired
+    private EngagementIngestBuffer ingestBuffer;
+    @Autowired
+    private EngagementAdmissionControl admissionControl;
+    @Autowired
+    private EngagementSpool spool;
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private Environment environment;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.sampling.enabled:true}")
+    private boolean enabled;
+    @Value("${app.engagement.sampling.elevated-lag-seconds:2}")
+    private double elevatedLagSeconds;
+    @Value("${app.engagement.sampling.critical-lag-seconds:10}")
+    private double criticalLagSeconds;
+    @Value("${app.engagement.sampling.spool-growth-seconds:10}")
+    private int spoolGrowthSeconds;
+
+    private Map<String, Rule> defaults = Map.of();
+    private volatile Map<String, Rule> rules = Map.of();
+    private volatile int loadLevel = NORMAL;
+    private volatile double lagSeconds;
+    /** Spool usage of the last spoolGrowthSeconds evaluations, oldest at spoolUsageNext. */
+    private double[] spoolUsage;
+    private int spoolUsageNext;
+
+    @PostConstruct
+    void init() {
+        Map<String, Rule> bound = Binder.get(environment)
+                .bind("app.engagement.sampling.rules", Bindable.mapOf(String.class, Rule.class))
+                .orElse(Map.of());
+        Map<String, Rule> normalized = new HashMap<>();
+        bound.forEach((type, rule) -> normalized.put(type.toUpperCase(Locale.ROOT), rule));
+        defaults = Map.copyOf(normalized);
+        rules = defaults;
+        spoolUsage = new double[Math.max(1, spoolGrowthSeconds)];
+
+        Gauge.builder("engagement.sampling.load.level", this, p -> p.loadLevel)
+                .description("0 normal, 1 elevated, 2 critical")
+                .register(meterRegistry);
+        Gauge.builder("engagement.ingest.lag", this, p -> p.lagSeconds)
+                .description("Pending rows divided by the commit rate")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Drop the rows the current rules and load level say to drop.
+     *
+     * @return rows to ingest, in their original order (rows itself if none were dropped)
+     */
+    public List<EngagementEventWriter.Row> apply(List<EngagementEventWriter.Row> rows) {
+        if (!enabled || rows.isEmpty())
+            return rows;
+        Map<String, Rule> current = rules;
+        if (current.isEmpty())
+            return rows;
+        return apply(rows, current, loadLevel,
+                (type, reason) -> meterRegistry.counter("engagement.sampling.dropped",
+                        "type", type, "reason", reason).increment());
+    }
+
+    static List<EngagementEventWriter.Row> apply(List<EngagementEventWriter.Row> rows, Map<String, Rule> rules,
+            int level, DropListener listener) {
+        boolean[] drop = new boolean[rows.size()];
+        int dropped = 0;
+        // Collapse key -> index of the deepest row seen so far
+        Map<String, Integer> deepest = null;
+        for (int i = 0; i < rows.size(); i++) {
+            EngagementEventWriter.Row row = rows.get(i);
+            Rule rule = rules.get(row.eventType());
+            if (rule == null)
+                continue;
+            if (rule.shedLevel() > 0 && level >= rule.shedLevel()) {
+                drop[i] = true;
+                dropped++;
+                listener.dropped(row.eventType(), "shed");
+                continue;
+            }
+            if (rule.sampleRate() < 1.0 && !sampled(row.sessionId(), row.eventType(), rule.sampleRate())) {
+                drop[i] = true;
+                dropped++;
+                listener.dropped(row.eventType(), "sampled");
+                continue;
+            }
+            if (rule.collapseWindowSeconds() > 0 && row.scrollDepth() != null) {
+                if (deepest == null)
+                    deepest = new HashMap<>();
+                long window = Math.floorDiv(row.clientTsMillis(), rule.collapseWindowSeconds() * 1000L);
+                String key = row.sessionId() + '\0' + row.pageId() + '\0' + row.eventType() + '\0' + window;
+                Integer previous = deepest.putIfAbsent(key, i);
+                if (previous == null)
+                    continue;
+                // Keep the deeper of the two; on a tie the earlier row stays
+                int loser = i;
+                if (row.scrollDepth() > rows.get(previous).scrollDepth()) {
+                    loser = previous;
+                    deepest.put(key, i);
+                }
+                drop[loser] = true;
+                dropped++;
+                listener.dropped(row.eventType(), "collapsed");
+            }
+        }
+        if (dropped == 0)
+            return rows;
+        List<EngagementEventWriter.Row> kept = new ArrayList<>(rows.size() - dropped);
+        for (int i = 0; i < rows.size(); i++) {
+            if (!drop[i])
+                kept.add(rows.get(i));
+        }
+        return kept;
+    }
+
+    /** Deterministic per (session, type): the same session always gets the same answer. */
+    static boolean sampled(String sessionId, String eventType, double rate) {
+        long h = sessionId.hashCode() * 31L + eventType.hashCode();
+        h *= 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0x9E3779B97F4A7C15L;
+        // Top 24 bits as a fraction in [0, 1)
+        return (h >>> 40) < rate * (1 << 24);
+    }
+
+    /**
+     * Re-evaluate the load level once per second.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void evaluateLoad() {
+        double lag = ingestBuffer.pending() / Math.max(admissionControl.drainRatePerSecond(), 1.0);
+        lagSeconds = lag;
+        int target = lag >= criticalLagSeconds ? CRITICAL : lag >= elevatedLagSeconds ? ELEVATED : NORMAL;
+        boolean spoolGrowing = spoolGrowing(spool.usage());
+        if (target < ELEVATED && spoolGrowing)
+            target = ELEVATED;
+
+        int current = loadLevel;
+        if (target < current) {
+            // Step down one level at a time, and only well below the threshold
+            double threshold = current == CRITICAL ? criticalLagSeconds : elevatedLagSeconds;
+            if (lag >= threshold / 2 || (current == ELEVATED && spoolGrowing))
+                return;
+            target = current - 1;
+        }
+        if (target != current) {
+            loadLevel = target;
+            log.warn("Engagement load level {} -> {} (ingest lag {}s)", current, target,
+                    String.format("%.1f", lag));
+        }
+    }
+
+    /** Record this evaluation's spool usage; true if it is above the usage spoolGrowthSeconds ago. */
+    private boolean spoolGrowing(double usage) {
+        double before = spoolUsage[spoolUsageNext];
+        spoolUsage[spoolUsageNext] = usage;
+        spoolUsageNext = (spoolUsageNext + 1) % spoolUsage.length;
+        return usage > before;
+    }
+
+    /**
+     * Re-read the Redis overrides and merge them over the configured defaults.
+     */
+    @Scheduled(fixedDelayString = "${app.engagement.sampling.reload-interval-ms:10000}")
+    public void reload() {
+        Map<Object, Object> stored;
+        try {
+            stored = redisTemplate.opsForHash().entries(OVERRIDES_KEY);
+        } catch (Exception e) {
+            log.debug("Sampling overrides not reloaded: {}", e.getMessage());
+            return;
+        }
+        Map<String, Rule> merged = new HashMap<>(defaults);
+        stored.forEach((type, json) -> {
+            try {
+                merged.put(type.toString(), objectMapper.readValue(json.toString(), Rule.class));
+            } catch (Exception e) {
+                log.warn("Ignoring invalid sampling rule for {}: {}", type, e.getMessage());
+            }
+        });
+        if (!merged.equals(rules)) {
+            rules = Map.copyOf(merged);
+            log.info("Engagement sampling rules now {}", new TreeMap<>(merged));
+        }
+    }
+
+    /** Store a per-type override and apply it on this instance immediately. */
+    public void setRule(String eventType, Rule rule) throws JsonProcessingException {
+        redisTemplate.opsForHash().put(OVERRIDES_KEY, normalize(eventType), objectMapper.writeValueAsString(rule));
+        reload();
+    }
+
+    /** Remove a per-type override; the configured default (if any) applies again. */
+    public void clearRule(String eventType) {
+        redisTemplate.opsForHash().delete(OVERRIDES_KEY, normalize(eventType));
+        reload();
+    }
+
+    /** Effective rules, load level and lag, for the admin API. */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("loadLevel", loadLevel);
+        status.put("ingestLagSeconds", lagSeconds);
+        status.put("rules", new TreeMap<>(rules));
+        status.put("defaults", new TreeMap<>(defaults));
+        return status;
+    }
+
+    private static String normalize(String eventType) {
+        if (eventType == null || eventType.isBlank())
+            throw new IllegalArgumentException("eventType is required");
+        return eventType.trim().toUpperCase(Locale.ROOT);
+    }
+}
@@ -1,35 +1,82 @@
 package com.c4gt.service;
 
 import com.c4gt.dto.*;
-import com.c4gt.entity.EngagementEvent;
-import com.c4gt.repository.EngagementEventRepository;
 import com.c4gt.repository.PageTimeTrackingRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Engagement tracking service.
- * Event writes are async to avoid adding latency to user-facing requests.
+ * Event writes go to an EngagementSink (by default the group-commit ingest
+ * buffer) to avoid adding latency to user-facing requests.
  */
 @Service
 public class EngagementService {
 
     private static final Logger log = LoggerFactory.getLogger(EngagementService.class);
     private static final long MAX_EVENT_AGE_MS = 24 * 60 * 60 * 1000; // 24 hours
+    private static final int STREAM_GROUP_SIZE = 64;
 
+    /** page_time_tracking is one row per (user, page), so COUNT(*) = distinct pages. */
+    private static final String SUMMARY_SQL = """
+            SELECT pt.pages, pt.active_ms, d.scroll_sum, d.scroll_count, d.dropoffs, d.retries
+            FROM (SELECT COUNT(*) AS pages, COALESCE(SUM(active_time_ms), 0) AS active_ms
+                  FROM page_time_tracking WHERE user_id = ?) pt
+            CROSS JOIN (SELECT COALESCE(SUM(scroll_depth_sum), 0) AS scroll_sum,
+                               COALESCE(SUM(scroll_depth_count), 0) AS scroll_count,
+                               COALESCE(SUM(dropoffs), 0) AS dropoffs,
+                               COALESCE(SUM(retries), 0) AS retries
+                        FROM daily_user_engagement WHERE user_id = ?) d
+            """;
+
+    @Value("${app.engagement.stream.max-events:50}")
+    private int maxStreamEvents;
+    @Value("${app.engagement.sink.type:postgres}")
+    private String sinkType;
+
+    @Autowired
+    private List<EngagementSink> sinks;
+    @Autowired
+    private EngagementStreamReader streamReader;
+    @Autowired
+    private EngagementDeduplicator deduplicator;
+    @Autowired
+    private EngagementSamplingPolicy samplingPolicy;
+    @Autowired
+    private TimeTrackingCoalescer timeTrackingCoalescer;
+    @Autowired
+    private StreamingRollupService rollups;
     @Autowired
-    private EngagementEventRepository eventRepository;
+    private EngagementSummaryCache summaryCache;
+    @Autowired
+    private EngagementCounters counters;
+    @Autowired
+    @Qualifier("dropoffSink")
+    private AppendOnlySink dropoffSink;
+    @Autowired
+    @Qualifier("retrySink")
+    private AppendOnlySink retrySink;
+    @Autowired
+    private Validator validator;
     @Autowired
     private PageTimeTrackingRepository pageTimeRepository;
     @Autowired
@@ -37,51 +84,167 @@ public class EngagementService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    private List<EngagementSink> sinkChain;
+
     /**
-     * Process a batch of engagement events. Validates and persists asynchronously.
+     * Build the sink chain: the configured sink, then Postgres, then the
+     * spool, so events only overflow towards more durable local storage.
+     */
+    @PostConstruct
+    void buildSinkChain() {
+        List<String> order = new ArrayList<>(List.of(sinkType, PostgresEngagementSink.NAME, SpoolEngagementSink.NAME));
+        if (sinkType.equals(SpoolEngagementSink.NAME))
+            order = List.of(SpoolEngagementSink.NAME);
+        List<EngagementSink> chain = new ArrayList<>();
+        for (String name : order.stream().distinct().toList()) {
+            chain.add(sinks.stream().filter(s -> s.name().equals(name)).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("Unknown engagement sink: " + name)));
+        }
+        sinkChain = List.copyOf(chain);
+        log.info("Engagement sink chain: {}", order.stream().distinct().toList());
+    }
+
+    /**
+     * Process a batch of engagement events. Validates synchronously and hands
+     * valid events to the sink chain; by default the group-commit ingest
+     * buffer, which persists them together with other users' batches. High-frequency event types may be
+     * sampled or collapsed first (see EngagementSamplingPolicy).
      */
-    @Async
-    @Transactional
     public void processBatch(Long userId, EngagementBatchRequest request) {
-        int accepted = 0;
+        List<EngagementEventDTO> valid = new ArrayList<>(request.getEvents().size());
         int rejected = 0;
 
         for (EngagementEventDTO dto : request.getEvents()) {
-            if (!isValidEvent(dto)) {
+            if (isValidEvent(dto))
+                valid.add(dto);
+            else
                 rejected++;
-                continue;
+        }
+
+        int[] counts = ingest(userId, request.getSessionId(), request.getClientVersion(), valid);
+        log.debug("Batch queued for user {}: accepted={}, duplicates={}, sampledOut={}, rejected={}",
+                userId, counts[0], counts[1], counts[2], rejected + counts[3]);
+    }
+
+    /**
+     * Streaming ingestion for NDJSON / Smile / CBOR bodies. Events are
+     * validated as they are parsed and enqueued in small groups so duplicate
+     * checks take one Redis round trip per group rather than per event.
+     * Events beyond app.engagement.stream.max-events are dropped, the same
+     * 50-event cap as a JSON batch (EngagementBatchRequest).
+     *
+     * @return number of events accepted
+     */
+    public int processStream(Long userId, InputStream body, MediaType contentType,
+            EngagementStreamReader.BatchContext context) throws IOException {
+        requireLength("X-Session-Id", context.getSessionId(), EngagementEventWriter.SESSION_ID_LENGTH);
+        requireLength("X-Client-Version", context.getClientVersion(), EngagementEventWriter.CLIENT_VERSION_LENGTH);
+        int[] counts = new int[2]; // accepted, rejected
+        List<EngagementEventDTO> pending = new ArrayList<>(STREAM_GROUP_SIZE);
+        streamReader.read(body, contentType, context, (ctx, dto) -> {
+            if (counts[0] + counts[1] + pending.size() >= maxStreamEvents) {
+                log.warn("Stream batch for user {} exceeds {} events, truncating", userId, maxStreamEvents);
+                return false;
+            }
+            if (!validator.validate(dto).isEmpty() || !isValidEvent(dto)) {
+                counts[1]++;
+                return true;
             }
+            pending.add(dto);
+            if (pending.size() >= STREAM_GROUP_SIZE)
+                counts[0] += ingestGroup(userId, ctx, pending);
+            return true;
+        });
+        counts[0] += ingestGroup(userId, context, pending);
+
+        log.debug("Stream processed for user {}: accepted={}, rejected={}", userId, counts[0], counts[1]);
+        return counts[0];
+    }
+
+    /** Deduplicate and enqueue a group of validated events, then clear it. */
+    private int ingestGroup(Long userId, EngagementStreamReader.BatchContext context,
+            List<EngagementEventDTO> events) {
+        if (events.isEmpty())
+            return 0;
+        int accepted = ingest(userId, context.getSessionId(), context.getClientVersion(), events)[0];
+        events.clear();
+        return accepted;
+    }
 
+    /**
+     * Deduplicate, map, sample and enqueue validated events. Idempotency keys
+     * of events that were not stored (unmappable, or no sink had room) are
+     * released again, so the client's retry is not taken for a duplicate.
+     *
+     * @return {accepted, duplicates, sampled out, rejected}
+     */
+    private int[] ingest(Long userId, String sessionId, String clientVersion, List<EngagementEventDTO> events) {
+        boolean[] duplicate = deduplicator.markDuplicates(sessionId, events);
+        List<EngagementEventWriter.Row> rows = new ArrayList<>(events.size());
+        Map<EngagementEventWriter.Row, EngagementEventDTO> sources = new IdentityHashMap<>();
+        List<EngagementEventDTO> notStored = new ArrayList<>();
+        int duplicates = 0;
+        for (int i = 0; i < events.size(); i++) {
+            if (duplicate[i]) {
+                duplicates++;
+                continue;
+            }
             try {
-                EngagementEvent event = new EngagementEvent();
-                event.setUserId(userId);
-                event.setSessionId(request.getSessionId() != null ? request.getSessionId() : "unknown");
-                event.setEventType(dto.getEventType());
-                event.setPageId(dto.getPageId());
-                event.setSectionId(dto.getSectionId());
-                event.setDurationMs(dto.getDuration());
-                event.setScrollDepth(dto.getScrollDepth() != null ? dto.getScrollDepth().shortValue() : null);
-                event.setClientVersion(request.getClientVersion());
-                event.setClientTs(LocalDateTime.ofInstant(
-                        Instant.ofEpochMilli(dto.getTimestamp()), ZoneOffset.UTC));
-
-                if (dto.getMetadata() != null) {
-                    event.setMetadata(objectMapper.writeValueAsString(dto.getMetadata()));
-                }
-
-                eventRepository.save(event);
-                accepted++;
+                EngagementEventWriter.Row row = toRow(userId, sessionId, clientVersion, events.get(i));
+                rows.add(row);
+                sources.put(row, events.get(i));
             } catch (Exception e) {
                 log.warn("Failed to process event: {}", e.getMessage());
-                rejected++;
+                notStored.add(events.get(i));
             }
         }
 
-        log.info("Batch processed for user {}: accepted={}, rejected={}", userId, accepted, rejected);
+        List<EngagementEventWriter.Row> sampled = samplingPolicy.apply(rows);
+        int accepted = enqueue(userId, sampled);
+        for (EngagementEventWriter.Row row : sampled.subList(accepted, sampled.size())) {
+            notStored.add(sources.get(row));
+        }
+        if (!notStored.isEmpty())
+            deduplicator.release(sessionId, notStored);
+        return new int[] { accepted, duplicates, rows.size() - sampled.size(), notStored.size() };
+    }
+
+    /** Hand rows to the sink chain; each sink takes what the previous one could not. */
+    private int enqueue(Long userId, List<EngagementEventWriter.Row> rows) {
+        int accepted = 0;
+        for (EngagementSink sink : sinkChain) {
+            if (accepted == rows.size())
+                break;
+            accepted += sink.accept(userId, rows.subList(accepted, rows.size()));
+        }
+        return accepted;
+    }
+
+    private EngagementEventWriter.Row toRow(Long userId, String sessionId, String clientVersion,
+            EngagementEventDTO dto) throws JsonProcessingException {
+        // Checked here as well as on the DTO: one over-long value would fail a whole group commit
+        requireLength("sessionId", sessionId, EngagementEventWriter.SESSION_ID_LENGTH);
+        requireLength("eventType", dto.getEventType(), EngagementEventWriter.EVENT_TYPE_LENGTH);
+        requireLength("pageId", dto.getPageId(), EngagementEventWriter.PAGE_ID_LENGTH);
+        requireLength("sectionId", dto.getSectionId(), EngagementEventWriter.SECTION_ID_LENGTH);
+        requireLength("clientVersion", clientVersion, EngagementEventWriter.CLIENT_VERSION_LENGTH);
+        return new EngagementEventWriter.Row(
+                userId,
+                sessionId != null ? sessionId : "unknown",
+                dto.getEventType(),
+                dto.getPageId(),
+                dto.getSectionId(),
+                dto.getDuration(),
+                dto.getScrollDepth() != null ? dto.getScrollDepth().shortValue() : null,
+                dto.getMetadata() != null ? objectMapper.writeValueAsString(dto.getMetadata()) : null,
+                clientVersion,
+                dto.getTimestamp());
     }
 
     /**
-     * Upsert page time tracking.
+     * Upsert page time tracking. Heartbeats are normally merged by the
+     * coalescer and written in the background; they are written directly
+     * only when it is full or shutting down.
      */
     @Transactional
     public void upsertPageTime(Long userId, PageTimeRequest request) {
@@ -92,19 +255,30 @@ public class EngagementService {
             throw new IllegalArgumentException("totalTimeMs exceeds 24-hour maximum");
         }
 
+        if (timeTrackingCoalescer.recordPageTime(userId, request.getPageId(), request.getActiveTimeMs(),
+                request.getTotalTimeMs(), request.getTabSwitches()))
+            return;
+
         pageTimeRepository.upsertPageTime(
                 userId,
                 request.getPageId(),
                 request.getActiveTimeMs(),
                 request.getTotalTimeMs(),
                 request.getTabSwitches());
+        counters.recordPageTimes(List.of(new EngagementCounters.PageTime(userId, request.getPageId(),
+                request.getActiveTimeMs(), 1)));
+        summaryCache.evict(userId);
     }
 
     /**
-     * Record section time.
+     * Record section time, coalesced like page time.
      */
     @Transactional
     public void recordSectionTime(Long userId, SectionTimeRequest request) {
+        if (timeTrackingCoalescer.recordSectionTime(userId, request.getPageId(), request.getSectionId(),
+                request.getActiveTimeMs(), request.getVisibilityPercent()))
+            return;
+
         jdbcTemplate.update(
                 """
                         INSERT INTO section_time_tracking (user_id, page_id, section_id, active_time_ms, visibility_percent, visit_count, created_at, updated_at)
@@ -121,75 +295,56 @@ public class EngagementService {
     }
 
     /**
-     * Record a drop-off event.
+     * Record a drop-off event. Written in the background by the dropoff sink.
      */
-    @Transactional
     public void recordDropoff(Long userId, DropoffRequest request) {
-        jdbcTemplate.update(
-                """
-                        INSERT INTO dropoff_events (user_id, page_id, last_section_seen, scroll_depth_pct, time_spent_ms, referrer, created_at)
-                        VALUES (?, ?, ?, ?, ?, ?, NOW())
-                        """,
-                userId, request.getPageId(), request.getLastSectionSeen(),
+        dropoffSink.append(userId, request.getPageId(), request.getLastSectionSeen(),
                 request.getScrollDepthPercent(), request.getTimeSpentMs(), request.getReferrer());
+        rollups.recordDropoff(userId);
     }
 
     /**
-     * Record a retry event.
+     * Record a retry event. Written in the background by the retry sink.
      */
-    @Transactional
     public void recordRetry(Long userId, RetryRequest request) {
-        jdbcTemplate.update(
-                """
-                        INSERT INTO retry_events (user_id, page_id, section_id, quiz_id, attempt_number, previous_result, created_at)
-                        VALUES (?, ?, ?, ?, ?, ?, NOW())
-                        """,
-                userId, request.getPageId(), request.getSectionId(),
+        retrySink.append(userId, request.getPageId(), request.getSectionId(),
                 request.getQuizId(), request.getAttemptNumber(), request.getPreviousResult());
+        rollups.recordRetry(userId);
     }
 
     /**
      * Get engagement summary for a user.
+     *
+     * Read from the Redis counters (EngagementCounters) when available,
+     * otherwise in one query. Scroll depth, drop-offs and retries come from
+     * the per-user daily counters in daily_user_engagement (kept current by
+     * StreamingRollupService) rather than from the raw event tables. The
+     * result is cached per user and evicted by EngagementSummaryCache when
+     * the user's writes are flushed.
      */
-    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = EngagementSummaryCache.CACHE, key = "#userId")
     public EngagementSummaryDTO getSummary(Long userId) {
-        EngagementSummaryDTO summary = new EngagementSummaryDTO();
-
-        // Total pages visited
-        Integer pages = jdbcTemplate.queryForObject(
-                "SELECT COUNT(DISTINCT page_id) FROM page_time_tracking WHERE user_id = ?",
-                Integer.class, userId);
-        summary.setTotalPagesVisited(pages != null ? pages : 0);
-
-        // Total active time
-        Long activeMs = jdbcTemplate.queryForObject(
-                "SELECT COALESCE(SUM(active_time_ms), 0) FROM page_time_tracking WHERE user_id = ?",
-                Long.class, userId);
-        summary.setTotalActiveTimeMs(activeMs != null ? activeMs : 0L);
-
-        // Average scroll depth (from recent events)
-        Integer avgScroll = jdbcTemplate.queryForObject(
-                "SELECT COALESCE(AVG(scroll_depth), 0) FROM engagement_events WHERE user_id = ? AND scroll_depth IS NOT NULL",
-                Integer.class, userId);
-        summary.setAverageScrollDepth(avgScroll != null ? avgScroll : 0);
-
-        // Drop-off count
-        Integer dropoffs = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM dropoff_events WHERE user_id = ?",
-                Integer.class, userId);
-        summary.setDropoffCount(dropoffs != null ? dropoffs : 0);
-
-        // Retry count
-        Integer retries = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM retry_events WHERE user_id = ?",
-                Integer.class, userId);
-        summary.setRetryCount(retries != null ? retries : 0);
-
-        return summary;
+        EngagementSummaryDTO fromCounters = counters.summary(userId);
+        if (fromCounters != null)
+            return fromCounters;
+        return jdbcTemplate.queryForObject(SUMMARY_SQL, (rs, rowNum) -> {
+            long scrollCount = rs.getLong("scroll_count");
+            return new EngagementSummaryDTO(
+                    rs.getInt("pages"),
+                    rs.getLong("active_ms"),
+                    scrollCount > 0 ? (int) (rs.getLong("scroll_sum") / scrollCount) : 0,
+                    rs.getInt("dropoffs"),
+                    rs.getInt("retries"));
+        }, userId, userId);
     }
 
     // --- Validation ---
 
+    private static void requireLength(String field, String value, int max) {
+        if (value != null && value.length() > max)
+            throw new IllegalArgumentException(field + " exceeds " + max + " characters");
+    }
+
     private boolean isValidEvent(EngagementEventDTO dto) {
         if (dto.getTimestamp() == null)
             return false;
@@ -0,0 +1,26 @@
+package com.c4gt.service;
+
+import java.util.List;
+
+/**
+ * Destination for validated engagement events leaving EngagementService.
+ *
+ * EngagementService writes to the sink selected by app.engagement.sink.type
+ * and hands whatever it does not accept to the next sink in the chain
+ * (postgres, then spool), so a sink may accept only a prefix of the rows.
+ * A sink also owns what the rows feed downstream: the Postgres and spool
+ * sinks record the per-user rollups themselves, the Redis Streams sink
+ * leaves that to its consumer groups.
+ */
+public interface EngagementSink {
+
+    /** Name used in app.engagement.sink.type. */
+    String name();
+
+    /**
+     * Take the rows of one request, in order.
+     *
+     * @return number of rows accepted, counted from the start of rows
+     */
+    int accept(long userId, List<EngagementEventWriter.Row> rows);
+}
@@ -0,0 +1,478 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Durable local spool for engagement events the database could not take.
+ *
+ * When a group commit fails (Postgres slow or down) or the ingest buffer is
+ * full, rows are appended here instead of being dropped. The spool is a
+ * directory of fixed-size, memory-mapped segment files; an append is a memcpy
+ * into the mapping, so ingest keeps running at full speed regardless of
+ * database health.
+ *
+ * A scheduled replayer drains segments into engagement_events in order and
+ * records its position in a checkpoint file, so a restart resumes where it
+ * left off. Fully replayed segments are deleted. Rows the database refuses
+ * as invalid go to a dead-letter file in the same directory
+ * (engagement.spool.dead_lettered) instead of blocking replay.
+ *
+ * Durability: an append is in the OS page cache as soon as append()
+ * returns, so it survives a crash of the process. Segments are forced to
+ * disk when they are sealed and every force-interval-ms, so a host or OS
+ * failure loses at most that interval of spooled events. The directory
+ * (app.engagement.spool.dir) has no default: it must be on a persistent
+ * volume, not a temp directory that is cleared on reboot.
+ *
+ * Record layout: [int length][payload]. A zero length marks the end of the
+ * written region; the length is written after the payload so a torn append is
+ * never replayed.
+ */
+@Service
+public class EngagementSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementSpool.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String DEAD_LETTER_FILE = "dead-letter.spool";
+
+    @Autowired
+    private EngagementEventWriter eventWriter;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.spool.dir}")
+    private String spoolDir;
+    @Value("${app.engagement.spool.segment-size-mb:64}")
+    private int segmentSizeMb;
+    @Value("${app.engagement.spool.max-segments:16}")
+    private int maxSegments;
+    @Value("${app.engagement.spool.replay-batch-size:2000}")
+    private int replayBatchSize;
+
+    private Path dir;
+    private int segmentSize;
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    private Segment active; // guarded by writeLock
+
+    // Replay position — only the replayer thread moves it
+    private volatile long readSegmentId;
+    private volatile int readOffset;
+
+    private Counter appendedCounter;
+    private Counter rejectedCounter;
+    private Counter replayedCounter;
+    private Counter deadLetteredCounter;
+    private Timer replayTimer;
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        volatile int writePosition;
+        volatile int forcedPosition;
+        volatile boolean sealed;
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        dir = Paths.get(spoolDir);
+        segmentSize = segmentSizeMb * 1024 * 1024;
+        Files.createDirectories(dir);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)).toList()) {
+                Segment segment = openSegment(path);
+                segment.writePosition = scanEnd(segment.buffer);
+                segment.sealed = true;
+                segments.put(segment.id, segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            // Keep appending to the newest segment after a restart
+            active = segments.lastEntry().getValue();
+            active.sealed = false;
+        }
+        loadCheckpoint();
+
+        appendedCounter = meterRegistry.counter("engagement.spool.appended");
+        rejectedCounter = meterRegistry.counter("engagement.spool.rejected");
+        replayedCounter = meterRegistry.counter("engagement.spool.replayed");
+        deadLetteredCounter = meterRegistry.counter("engagement.spool.dead_lettered");
+        replayTimer = Timer.builder("engagement.spool.replay.batch")
+                .description("Time to replay one spooled batch into engagement_events")
+                .register(meterRegistry);
+        Gauge.builder("engagement.spool.segments", segments, Map::size).register(meterRegistry);
+        Gauge.builder("engagement.spool.backlog.bytes", this, EngagementSpool::backlogBytes).register(meterRegistry);
+
+        if (backlogBytes() > 0)
+            log.warn("Engagement spool has {} bytes pending replay in {}", backlogBytes(), dir);
+    }
+
+    /**
+     * Append rows to the spool.
+     *
+     * @return number of rows stored; the rest were lost because the spool is full
+     */
+    public int append(List<EngagementEventWriter.Row> rows) {
+        List<byte[]> records = new ArrayList<>(rows.size());
+        for (EngagementEventWriter.Row row : rows) {
+            records.add(encode(row));
+        }
+
+        int stored = 0;
+        synchronized (writeLock) {
+            for (byte[] record : records) {
+                if (!ensureRoom(record.length))
+                    break;
+                int pos = active.writePosition;
+                active.buffer.put(pos + Integer.BYTES, record);
+                active.buffer.putInt(pos, record.length); // publish after payload
+                active.writePosition = pos + Integer.BYTES + record.length;
+                stored++;
+            }
+        }
+
+        appendedCounter.increment(stored);
+        if (stored < rows.size()) {
+            rejectedCounter.increment(rows.size() - stored);
+            log.error("Engagement spool full ({} segments): {} events lost", maxSegments, rows.size() - stored);
+        }
+        return stored;
+    }
+
+    /** Fraction of the spool's capacity (max-segments × segment size) holding unreplayed rows. */
+    public double usage() {
+        return (double) backlogBytes() / ((long) maxSegments * segmentSize);
+    }
+
+    public boolean hasBacklog() {
+        return backlogBytes() > 0;
+    }
+
+    /**
+     * Replay spooled rows into the database. Rows the database rejects as
+     * invalid (SQLState class 22/23, see BatchBisector) are moved to the
+     * dead-letter file so they cannot block replay; on any other failure
+     * replay stops and retries on the next tick, so a still-down database
+     * costs one attempt per interval.
+     */
+    @Scheduled(fixedDelayString = "${app.engagement.spool.replay-interval-ms:1000}")
+    public void replay() {
+        if (!hasBacklog())
+            return;
+
+        int replayed = 0;
+        while (true) {
+            Map.Entry<Long, Segment> entry = segments.ceilingEntry(readSegmentId);
+            if (entry == null)
+                break;
+            Segment segment = entry.getValue();
+            if (segment.id != readSegmentId) {
+                readSegmentId = segment.id;
+                readOffset = 0;
+            }
+
+            // sealed first: it is set after the last writePosition store, so a position read after it is final
+            boolean sealed = segment.sealed;
+            int end = segment.writePosition;
+            if (readOffset >= end) {
+                if (!sealed)
+                    break; // caught up with the live segment
+                deleteSegment(segment);
+                readSegmentId = segment.id + 1;
+                readOffset = 0;
+                saveCheckpoint();
+                continue;
+            }
+
+            List<EngagementEventWriter.Row> batch = new ArrayList<>(replayBatchSize);
+            int pos = readOffset;
+            while (pos < end && batch.size() < replayBatchSize) {
+                int length = segment.buffer.getInt(pos);
+                byte[] record = new byte[length];
+                segment.buffer.get(pos + Integer.BYTES, record);
+                batch.add(decode(record));
+                pos += Integer.BYTES + length;
+            }
+
+            BatchBisector.Outcome<EngagementEventWriter.Row> outcome = replayTimer
+                    .record(() -> BatchBisector.write(batch, eventWriter::writeAll));
+            if (!outcome.rejected().isEmpty())
+                deadLetter(outcome.rejected());
+            if (!outcome.complete()) {
+                int written = batch.size() - outcome.rejected().size() - outcome.unwritten().size();
+                // Nothing written: retry the same batch next tick. Part written: the checkpoint cannot
+                // express that, so move the rest to the tail of the spool rather than write rows twice.
+                if (written == 0 || append(outcome.unwritten()) < outcome.unwritten().size()) {
+                    log.warn("Spool replay paused, database unavailable: {}", outcome.failure().getMessage());
+                    break;
+                }
+            }
+            readOffset = pos;
+            replayed += batch.size() - outcome.rejected().size();
+            replayedCounter.increment(batch.size() - outcome.rejected().size());
+            saveCheckpoint();
+            if (!outcome.complete())
+                break;
+        }
+
+        if (replayed > 0)
+            log.info("Replayed {} spooled engagement events, {} bytes remaining", replayed, backlogBytes());
+    }
+
+    /**
+     * Flush appends made since the last call to disk, so at most one interval
+     * of spooled events is lost if the host goes down.
+     */
+    @Scheduled(fixedDelayString = "${app.engagement.spool.force-interval-ms:1000}")
+    public void force() {
+        Segment segment;
+        int position;
+        synchronized (writeLock) {
+            segment = active;
+            if (segment == null || segment.writePosition == segment.forcedPosition)
+                return;
+            position = segment.writePosition;
+        }
+        force(segment, position);
+    }
+
+    @PreDestroy
+    void close() {
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                try {
+                    segment.buffer.force();
+                    segment.channel.close();
+                } catch (IOException | UncheckedIOException e) {
+                    log.warn("Failed to close spool segment {}", segment.path, e);
+                }
+            }
+        }
+        saveCheckpoint();
+    }
+
+    // --- Segments ---
+
+    private boolean ensureRoom(int recordLength) {
+        int needed = Integer.BYTES + recordLength;
+        if (needed + Integer.BYTES > segmentSize)
+            return false; // a record that can never fit a segment
+        if (active != null && active.writePosition + needed + Integer.BYTES <= segmentSize)
+            return true;
+        if (segments.size() >= maxSegments)
+            return false;
+
+        long nextId = segments.isEmpty() ? readSegmentId : segments.lastKey() + 1;
+        try {
+            Segment segment = openSegment(dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, nextId, SEGMENT_SUFFIX)));
+            segments.put(segment.id, segment);
+            if (active != null) {
+                active.sealed = true;
+                force(active, active.writePosition);
+            }
+            active = segment;
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to create spool segment in {}", dir, e);
+            return false;
+        }
+    }
+
+    private void force(Segment segment, int position) {
+        try {
+            segment.buffer.force();
+            segment.forcedPosition = position;
+        } catch (UncheckedIOException e) {
+            log.warn("Failed to flush spool segment {}", segment.path, e);
+        }
+    }
+
+    /** Append rows the database refused to the dead-letter file, for inspection. */
+    private void deadLetter(List<EngagementEventWriter.Row> rows) {
+        try (FileChannel out = FileChannel.open(dir.resolve(DEAD_LETTER_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (EngagementEventWriter.Row row : rows) {
+                byte[] record = encode(row);
+                ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + record.length);
+                buffer.putInt(record.length).put(record).flip();
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+            }
+            out.force(false);
+        } catch (IOException e) {
+            log.error("Failed to write {} rows to the spool dead-letter file, they are lost", rows.size(), e);
+        }
+        deadLetteredCounter.increment(rows.size());
+        log.warn("Moved {} spooled engagement events the database refused to {}", rows.size(),
+                dir.resolve(DEAD_LETTER_FILE));
+    }
+
+    private Segment openSegment(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return new Segment(id, path, channel, buffer);
+    }
+
+    private int scanEnd(ByteBuffer buffer) {
+        int pos = 0;
+        while (pos + Integer.BYTES <= segmentSize) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || pos + Integer.BYTES + length > segmentSize)
+                break;
+            pos += Integer.BYTES + length;
+        }
+        return pos;
+    }
+
+    private void deleteSegment(Segment segment) {
+        synchronized (writeLock) {
+            segments.remove(segment.id);
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("Failed to delete replayed spool segment {}", segment.path, e);
+            }
+        }
+    }
+
+    private long backlogBytes() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.writePosition;
+            if (segment.id == readSegmentId)
+                total -= readOffset;
+        }
+        return Math.max(0, total);
+    }
+
+    // --- Checkpoint ---
+
+    private void loadCheckpoint() throws IOException {
+        Path file = dir.resolve(CHECKPOINT_FILE);
+        if (Files.exists(file)) {
+            String[] parts = Files.readString(file).trim().split(" ");
+            readSegmentId = Long.parseLong(parts[0]);
+            readOffset = Integer.parseInt(parts[1]);
+        } else {
+            readSegmentId = segments.isEmpty() ? 0 : segments.firstKey();
+            readOffset = 0;
+        }
+    }
+
+    private void saveCheckpoint() {
+        try {
+            Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+            Files.writeString(tmp, readSegmentId + " " + readOffset);
+            Files.move(tmp, dir.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to write spool checkpoint", e);
+        }
+    }
+
+    // --- Record encoding ---
+
+    static byte[] encode(EngagementEventWriter.Row row) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(row.userId());
+            out.writeLong(row.clientTsMillis());
+            writeString(out, row.sessionId());
+            writeString(out, row.eventType());
+            writeString(out, row.pageId());
+            writeString(out, row.sectionId());
+            out.writeInt(row.durationMs() != null ? row.durationMs() : Integer.MIN_VALUE);
+            out.writeShort(row.scrollDepth() != null ? row.scrollDepth() : Short.MIN_VALUE);
+            writeString(out, row.metadata());
+            writeString(out, row.clientVersion());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream — cannot happen
+        }
+    }
+
+    static EngagementEventWriter.Row decode(byte[] record) {
+        ByteBuffer in = ByteBuffer.wrap(record);
+        long userId = in.getLong();
+        long clientTs = in.getLong();
+        String sessionId = readString(in);
+        String eventType = readString(in);
+        String pageId = readString(in);
+        String sectionId = readString(in);
+        int duration = in.getInt();
+        short scrollDepth = in.getShort();
+        String metadata = readString(in);
+        String clientVersion = readString(in);
+        return new EngagementEventWriter.Row(userId, sessionId, eventType, pageId, sectionId,
+                duration != Integer.MIN_VALUE ? duration : null,
+                scrollDepth != Short.MIN_VALUE ? scrollDepth : null,
+                metadata, clientVersion, clientTs);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,36 @@
+package com.c4gt.service;
+
+import java.util.List;
+
+/**
+ * Downstream consumer of the engagement event stream. Each bean is one
+ * Redis consumer group; EngagementStreamWorkers runs the groups listed in
+ * app.engagement.sink.stream.groups on this instance.
+ *
+ * Delivery is at least once: entries are acknowledged after consume returns,
+ * and a batch that throws stays pending and is delivered again. A consumer
+ * that handled part of a batch throws PartialFailure instead, so only the
+ * entries of the rows it lists stay pending.
+ */
+public interface EngagementStreamConsumer {
+
+    /** Consumer group name. */
+    String group();
+
+    void consume(List<EngagementEventWriter.Row> rows);
+
+    /** Thrown by consume when only some rows were handled; unwritten are the rows to deliver again. */
+    class PartialFailure extends RuntimeException {
+
+        private final transient List<EngagementEventWriter.Row> unwritten;
+
+        public PartialFailure(List<EngagementEventWriter.Row> unwritten, RuntimeException cause) {
+            super(cause.getMessage(), cause);
+            this.unwritten = unwritten;
+        }
+
+        public List<EngagementEventWriter.Row> unwritten() {
+            return unwritten;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.c4gt.service;
+
+import com.c4gt.dto.EngagementEventDTO;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader for compact engagement batch encodings.
+ *
+ * Supported formats:
+ * - application/x-ndjson — one event object per line
+ * - application/x-jackson-smile, application/cbor — the same shape as the
+ * JSON batch ({ sessionId, clientVersion, events: [...] }) or a bare array
+ * of events. Batch fields must precede "events" to apply to them.
+ *
+ * Events are handed to the callback one at a time as they are parsed, so a
+ * batch is never materialised as a list. Gzip decoding is the caller's job.
+ */
+@Component
+public class EngagementStreamReader {
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    public static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+    public static final MediaType CBOR = MediaType.parseMediaType("application/cbor");
+
+    private final ObjectReader jsonEventReader = eventReader(new ObjectMapper());
+    private final ObjectReader smileEventReader = eventReader(new ObjectMapper(new SmileFactory()));
+    private final ObjectReader cborEventReader = eventReader(new ObjectMapper(new CBORFactory()));
+
+    /** Batch-level fields; may be filled in from the payload while streaming. */
+    public static class BatchContext {
+        private String sessionId;
+        private String clientVersion;
+
+        public BatchContext(String sessionId, String clientVersion) {
+            this.sessionId = sessionId;
+            this.clientVersion = clientVersion;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getClientVersion() {
+            return clientVersion;
+        }
+    }
+
+    @FunctionalInterface
+    public interface EventCallback {
+        /** @return false to stop reading */
+        boolean onEvent(BatchContext context, EngagementEventDTO event);
+    }
+
+    public void read(InputStream in, MediaType contentType, BatchContext context, EventCallback callback)
+            throws IOException {
+        if (NDJSON.isCompatibleWith(contentType)) {
+            readSequence(jsonEventReader, in, context, callback);
+        } else if (SMILE.isCompatibleWith(contentType)) {
+            readBatch(smileEventReader, in, context, callback);
+        } else if (CBOR.isCompatibleWith(contentType)) {
+            readBatch(cborEventReader, in, context, callback);
+        } else {
+            throw new IllegalArgumentException("Unsupported engagement batch encoding: " + contentType);
+        }
+    }
+
+    private static ObjectReader eventReader(ObjectMapper mapper) {
+        return mapper.readerFor(EngagementEventDTO.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    /** Root-level sequence of event objects (NDJSON). */
+    private void readSequence(ObjectReader reader, InputStream in, BatchContext context, EventCallback callback)
+            throws IOException {
+        try (JsonParser parser = reader.createParser(in)) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                if (!callback.onEvent(context, reader.readValue(parser)))
+                    return;
+            }
+        }
+    }
+
+    /** Batch object or bare array, streamed token by token. */
+    private void readBatch(ObjectReader reader, InputStream in, BatchContext context, EventCallback callback)
+            throws IOException {
+        try (JsonParser parser = reader.createParser(in)) {
+            JsonToken root = parser.nextToken();
+            if (root == JsonToken.START_ARRAY) {
+                readEvents(reader, parser, context, callback);
+                return;
+            }
+            if (root != JsonToken.START_OBJECT)
+                throw new IllegalArgumentException("Engagement batch must be an object or an array");
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "sessionId" -> context.sessionId = parser.getValueAsString();
+                    case "clientVersion" -> context.clientVersion = parser.getValueAsString();
+                    case "events" -> {
+                        if (!readEvents(reader, parser, context, callback))
+                            return;
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private boolean readEvents(ObjectReader reader, JsonParser parser, BatchContext context, EventCallback callback)
+            throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY)
+            throw new IllegalArgumentException("events must be an array");
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (!callback.onEvent(context, reader.readValue(parser)))
+                return false;
+        }
+        return true;
+    }
+}
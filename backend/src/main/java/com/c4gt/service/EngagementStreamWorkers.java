@@ -0,0 +1,364 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the Redis Streams consumer groups of the engagement event stream when
+ * app.engagement.sink.type is redis-stream.
+ *
+ * app.engagement.sink.stream.groups lists the groups this instance runs and
+ * how many consumer threads each gets (e.g. "db-writer:2,rollups:1"), so
+ * each consumer scales on its own: API nodes can run none and a worker
+ * deployment only the database writer. Each thread first re-reads its own
+ * pending entries (left over from a crash or a failed batch), then new ones.
+ * Entries idle longer than claim-idle-ms in the pending list of a consumer
+ * that went away are claimed and processed again.
+ *
+ * When a consumer handled only part of a batch (see
+ * EngagementStreamConsumer.PartialFailure), the entries it handled are
+ * acknowledged and only the rest stay pending.
+ *
+ * If a batch was consumed but its acknowledgement failed, each thread
+ * remembers the batch's entry ids and acknowledges them without consuming
+ * again when they are redelivered, so non-idempotent consumers (rollups) do
+ * not count them twice. Entries consumed by a replica that then died before
+ * acknowledging are consumed again by whoever claims them; for the rollups
+ * the nightly reconciliation corrects that.
+ *
+ * Per group it reports engagement.stream.lag (seconds between the newest
+ * entry and the newest one delivered to the group), engagement.stream.pending
+ * (delivered, not yet acknowledged), and consumed/failed counts.
+ */
+@Service
+public class EngagementStreamWorkers implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementStreamWorkers.class);
+    private static final long FAILURE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** Batches whose acknowledgement failed that a thread remembers, see the class comment. */
+    private static final int UNACKED_BATCHES = 10;
+
+    @Autowired
+    private List<EngagementStreamConsumer> consumers;
+    @Autowired
+    private RedisStreamEngagementSink streamSink;
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.sink.type:postgres}")
+    private String sinkType;
+    @Value("${app.engagement.sink.stream.groups:db-writer:2,rollups:1}")
+    private String groupsSpec;
+    @Value("${app.engagement.sink.stream.batch-size:500}")
+    private int batchSize;
+    @Value("${app.engagement.sink.stream.poll-interval-ms:100}")
+    private long pollIntervalMs;
+    @Value("${app.engagement.sink.stream.claim-idle-ms:60000}")
+    private long claimIdleMs;
+
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    private static final class Group {
+        final EngagementStreamConsumer consumer;
+        final Counter consumed;
+        final Counter failed;
+        volatile double lagSeconds;
+        volatile long pending;
+
+        Group(EngagementStreamConsumer consumer, Counter consumed, Counter failed) {
+            this.consumer = consumer;
+            this.consumed = consumed;
+            this.failed = failed;
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (!RedisStreamEngagementSink.NAME.equals(sinkType))
+            return;
+        String host = hostName();
+        for (String spec : groupsSpec.split(",")) {
+            if (spec.isBlank())
+                continue;
+            String[] parts = spec.trim().split(":");
+            String name = parts[0];
+            int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            EngagementStreamConsumer consumer = consumers.stream().filter(c -> c.group().equals(name)).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No engagement stream consumer for group " + name));
+            Group group = new Group(consumer,
+                    meterRegistry.counter("engagement.stream.consumed", "group", name),
+                    meterRegistry.counter("engagement.stream.failed", "group", name));
+            groups.put(name, group);
+            Gauge.builder("engagement.stream.lag", group, g -> g.lagSeconds)
+                    .tag("group", name)
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            Gauge.builder("engagement.stream.pending", group, g -> g.pending)
+                    .tag("group", name)
+                    .register(meterRegistry);
+
+            for (int i = 0; i < count; i++) {
+                String consumerName = host + "-" + i;
+                Thread thread = new Thread(() -> run(name, group, consumerName),
+                        "engagement-stream-" + name + "-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+        log.info("Engagement stream consumers started on {}: {}", streamSink.streamKey(), groupsSpec);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(20));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Stop with the ingest buffer, after the web server has drained requests. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    /**
+     * Sample per-group lag and pending counts every few seconds.
+     */
+    @Scheduled(fixedRate = 5000)
+    public void sampleLag() {
+        if (groups.isEmpty())
+            return;
+        try {
+            StreamOperations<String, Object, Object> stream = redisTemplate.opsForStream();
+            StreamInfo.XInfoStream info = stream.info(streamSink.streamKey());
+            long newest = millis(info.lastGeneratedId());
+            stream.groups(streamSink.streamKey()).forEach(g -> {
+                Group group = groups.get(g.groupName());
+                if (group == null)
+                    return;
+                group.pending = g.pendingCount();
+                group.lagSeconds = Math.max(0, newest - millis(g.lastDeliveredId())) / 1000.0;
+            });
+        } catch (Exception e) {
+            log.debug("Stream lag sample failed: {}", e.getMessage());
+        }
+    }
+
+    // --- Consumer loop ---
+
+    private void run(String name, Group group, String consumerName) {
+        StreamOperations<String, Object, Object> stream = redisTemplate.opsForStream();
+        Consumer self = Consumer.from(name, consumerName);
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+        // Built once, instead of a generic varargs array on every read
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        StreamOffset<String>[] ownOffsets = new StreamOffset[] {
+                StreamOffset.create(streamSink.streamKey(), ReadOffset.from("0")) };
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        StreamOffset<String>[] newOffsets = new StreamOffset[] {
+                StreamOffset.create(streamSink.streamKey(), ReadOffset.lastConsumed()) };
+        Set<RecordId> consumedUnacked = newUnackedSet();
+        boolean groupReady = false;
+        boolean ownPending = true;
+        long nextClaim = System.currentTimeMillis() + claimIdleMs;
+
+        while (running) {
+            try {
+                if (!groupReady) {
+                    createGroup(name);
+                    groupReady = true;
+                }
+                if (System.currentTimeMillis() >= nextClaim) {
+                    nextClaim = System.currentTimeMillis() + claimIdleMs;
+                    if (claimIdle(stream, name, consumerName) > 0)
+                        ownPending = true;
+                }
+                // "0" re-delivers this consumer's pending entries; ">" reads new ones
+                List<MapRecord<String, Object, Object>> records = stream.read(self, options,
+                        ownPending ? ownOffsets : newOffsets);
+                if (records == null || records.isEmpty()) {
+                    if (ownPending)
+                        ownPending = false;
+                    else
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(pollIntervalMs));
+                    continue;
+                }
+                process(stream, name, group, records, consumedUnacked);
+            } catch (Exception e) {
+                group.failed.increment();
+                log.warn("Engagement stream consumer {}/{} failed: {}", name, consumerName, e.getMessage());
+                ownPending = true;
+                LockSupport.parkNanos(this, FAILURE_BACKOFF_NANOS);
+            }
+        }
+    }
+
+    private void process(StreamOperations<String, Object, Object> stream, String name, Group group,
+            List<MapRecord<String, Object, Object>> records, Set<RecordId> consumedUnacked) {
+        List<EngagementEventWriter.Row> rows = new ArrayList<>(records.size());
+        Map<EngagementEventWriter.Row, RecordId> rowIds = new IdentityHashMap<>();
+        List<RecordId> ids = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            ids.add(record.getId());
+            if (consumedUnacked.contains(record.getId()))
+                continue;
+            try {
+                EngagementEventWriter.Row row = RedisStreamEngagementSink.decode(record.getValue());
+                rows.add(row);
+                rowIds.put(row, record.getId());
+            } catch (RuntimeException e) {
+                // Unreadable entries are acknowledged with the batch rather than retried forever
+                log.warn("Skipping malformed stream entry {}: {}", record.getId(), e.getMessage());
+                group.failed.increment();
+            }
+        }
+        if (!rows.isEmpty()) {
+            try {
+                group.consumer.consume(rows);
+            } catch (EngagementStreamConsumer.PartialFailure e) {
+                // Acknowledge what was handled; only the unwritten rows' entries stay pending
+                for (EngagementEventWriter.Row row : e.unwritten()) {
+                    ids.remove(rowIds.get(row));
+                }
+                acknowledge(stream, name, ids, consumedUnacked);
+                group.consumed.increment(rows.size() - e.unwritten().size());
+                throw e;
+            }
+        }
+        acknowledge(stream, name, ids, consumedUnacked);
+        group.consumed.increment(rows.size());
+    }
+
+    /** Acknowledge ids, remembering them if that fails (see the class comment). */
+    private void acknowledge(StreamOperations<String, Object, Object> stream, String name, List<RecordId> ids,
+            Set<RecordId> consumedUnacked) {
+        if (ids.isEmpty())
+            return;
+        try {
+            stream.acknowledge(streamSink.streamKey(), name, ids.toArray(new RecordId[0]));
+        } catch (RuntimeException e) {
+            consumedUnacked.addAll(ids);
+            throw e;
+        }
+        consumedUnacked.removeAll(ids);
+    }
+
+    /** Insertion-ordered set that forgets the oldest ids beyond UNACKED_BATCHES batches. */
+    private Set<RecordId> newUnackedSet() {
+        int limit = UNACKED_BATCHES * batchSize;
+        return Collections.newSetFromMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RecordId, Boolean> eldest) {
+                return size() > limit;
+            }
+        });
+    }
+
+    /** Take over entries another consumer has held longer than claim-idle-ms. */
+    private int claimIdle(StreamOperations<String, Object, Object> stream, String name, String consumerName) {
+        PendingMessages pending = stream.pending(streamSink.streamKey(), name, Range.unbounded(), batchSize);
+        Duration minIdle = Duration.ofMillis(claimIdleMs);
+        List<RecordId> stale = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (!message.getConsumerName().equals(consumerName)
+                    && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0)
+                stale.add(message.getId());
+        }
+        if (stale.isEmpty())
+            return 0;
+        List<MapRecord<String, Object, Object>> claimed = stream.claim(streamSink.streamKey(), name, consumerName,
+                minIdle, stale.toArray(RecordId[]::new));
+        if (!claimed.isEmpty())
+            log.info("Claimed {} idle engagement stream entries for {}/{}", claimed.size(), name, consumerName);
+        return claimed.size();
+    }
+
+    private void createGroup(String name) {
+        byte[] key = streamSink.streamKey().getBytes(StandardCharsets.UTF_8);
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.streamCommands().xGroupCreate(key, name, ReadOffset.from("0"), true));
+            log.info("Created engagement stream consumer group {}", name);
+        } catch (RedisSystemException e) {
+            String message = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+            if (message == null || !message.contains("BUSYGROUP"))
+                throw e;
+        }
+    }
+
+    /** Millisecond part of a stream entry id ("1700000000000-0"). */
+    private static long millis(String id) {
+        if (id == null)
+            return 0;
+        int dash = id.indexOf('-');
+        return Long.parseLong(dash < 0 ? id : id.substring(0, dash));
+    }
+
+    private static String hostName() {
+        String host = System.getenv("HOSTNAME");
+        if (host != null)
+            return host;
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Invalidation for the engagementSummary cache (see EngagementService.getSummary).
+ *
+ * A user's entry is evicted when writes that feed the summary reach the
+ * database: rollup and page-time flushes, and direct page-time upserts.
+ * Flushes evict a whole chunk of users with one multi-key DEL. A failed
+ * eviction is only counted; the cache TTL bounds how stale the entry gets.
+ */
+@Component
+public class EngagementSummaryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementSummaryCache.class);
+
+    public static final String CACHE = "engagementSummary";
+    /** RedisCacheManager's default key layout: cacheName::key */
+    private static final String KEY_PREFIX = CACHE + "::";
+
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Counter evictions;
+    private Counter failures;
+
+    @PostConstruct
+    void registerMetrics() {
+        evictions = meterRegistry.counter("engagement.summary.cache.evictions");
+        failures = meterRegistry.counter("engagement.summary.cache.evict.failures");
+    }
+
+    /**
+     * Evict one user's summary. Inside a transaction the eviction happens
+     * after commit (the cache manager is transaction-aware).
+     */
+    public void evict(long userId) {
+        try {
+            Cache cache = cacheManager.getCache(CACHE);
+            if (cache != null)
+                cache.evict(userId);
+            evictions.increment();
+        } catch (Exception e) {
+            failures.increment();
+            log.debug("Summary cache evict failed for user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    /** Evict the summaries of every user in userIds in one round trip. */
+    public void evictAll(Collection<Long> userIds) {
+        if (userIds.isEmpty())
+            return;
+        List<String> keys = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            keys.add(KEY_PREFIX + userId);
+        }
+        try {
+            redisTemplate.delete(keys);
+            evictions.increment(keys.size());
+        } catch (Exception e) {
+            failures.increment(keys.size());
+            log.debug("Summary cache evict failed for {} users: {}", keys.size(), e.getMessage());
+        }
+    }
+}
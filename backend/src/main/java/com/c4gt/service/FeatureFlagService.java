@@ -1,10 +1,14 @@
 package com.c4gt.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Simple feature flags backed by Redis.
@@ -12,14 +16,28 @@ import java.util.Map;
  * (0-100)
  * 
  * Default: all flags OFF unless explicitly set.
+ *
+ * Reads go through RedisFastPath. Every value read is remembered, and while
+ * Redis is unavailable the last known value is used instead. For
+ * authenticated requests all FLAGS are fetched up front in one MGET (see
+ * RedisRequestPrefetcher), so reading them costs no further round trips.
  */
 @Service
 public class FeatureFlagService {
 
     private static final String KEY_PREFIX = "flag:";
 
+    /** Flags reported by getAllFlags and prefetched with each authenticated request. */
+    public static final List<String> FLAGS = List.of(
+            "engagement_tracking", "learning_engine", "mastery_scoring", "guided_implementation");
+
+    /** Marks a flag that was unset when last read (ConcurrentHashMap cannot hold null). */
+    private static final String UNSET = "";
+
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private RedisFastPath fastPath;
+
+    private final Map<String, String> lastKnown = new ConcurrentHashMap<>();
 
     /**
      * Check if a feature is enabled for a given user.
@@ -28,7 +46,7 @@ public class FeatureFlagService {
      */
     public boolean isEnabled(String flagName, Long userId) {
         try {
-            String value = redisTemplate.opsForValue().get(KEY_PREFIX + flagName);
+            String value = read(flagName);
             if (value == null || "off".equalsIgnoreCase(value))
                 return false;
             if ("on".equalsIgnoreCase(value))
@@ -47,17 +65,57 @@ public class FeatureFlagService {
      * Get all feature flags.
      */
     public Map<String, Boolean> getAllFlags(Long userId) {
-        return Map.of(
-                "engagement_tracking", isEnabled("engagement_tracking", userId),
-                "learning_engine", isEnabled("learning_engine", userId),
-                "mastery_scoring", isEnabled("mastery_scoring", userId),
-                "guided_implementation", isEnabled("guided_implementation", userId));
+        Map<String, Boolean> flags = new LinkedHashMap<>();
+        for (String flag : FLAGS)
+            flags.put(flag, isEnabled(flag, userId));
+        return flags;
     }
 
     /**
      * Set a feature flag (admin only).
      */
     public void setFlag(String flagName, String value) {
-        redisTemplate.opsForValue().set(KEY_PREFIX + flagName, value);
+        fastPath.execute("flags", redis -> {
+            redis.opsForValue().set(KEY_PREFIX + flagName, value);
+            return null;
+        }, () -> {
+            throw new IllegalStateException("Feature flags cannot be changed while Redis is unavailable");
+        });
+        lastKnown.put(flagName, value);
+    }
+
+    /** Queue a read of all FLAGS on a RedisRequestPrefetcher pipeline (reply: list of values). */
+    public void queue(StringRedisConnection connection) {
+        connection.mGet(FLAGS.stream().map(flag -> KEY_PREFIX + flag).toArray(String[]::new));
+    }
+
+    /** Flag values by name from the reply to queue(), remembered like any other read. */
+    public Map<String, String> prefetched(List<?> values) {
+        Map<String, String> flags = new HashMap<>();
+        for (int i = 0; i < FLAGS.size(); i++) {
+            Object value = i < values.size() ? values.get(i) : null;
+            String current = value != null ? value.toString() : UNSET;
+            lastKnown.put(FLAGS.get(i), current);
+            flags.put(FLAGS.get(i), current);
+        }
+        return flags;
+    }
+
+    /**
+     * Current value from the request's prefetched values or Redis, or the
+     * last known one if Redis is unavailable.
+     */
+    private String read(String flagName) {
+        RedisRequestContext context = RedisRequestContext.current();
+        if (context != null && context.flags() != null && context.flags().containsKey(flagName)) {
+            String value = context.flags().get(flagName);
+            return value.equals(UNSET) ? null : value;
+        }
+        String value = fastPath.execute("flags", redis -> {
+            String current = redis.opsForValue().get(KEY_PREFIX + flagName);
+            lastKnown.put(flagName, current != null ? current : UNSET);
+            return current != null ? current : UNSET;
+        }, () -> lastKnown.get(flagName));
+        return value == null || value.equals(UNSET) ? null : value;
     }
 }
@@ -0,0 +1,116 @@
+package com.c4gt.service;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Open-addressing hash table from a long key to a fixed number of long
+ * counters, stored in flat primitive arrays: no boxing, no per-entry
+ * objects. Not thread-safe; callers guard it (see StreamingRollupService).
+ *
+ * Key 0 is reserved as the empty marker.
+ */
+final class LongKeyedCounters {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final int width;
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int resizeAt;
+
+    LongKeyedCounters(int width, int expectedKeys) {
+        this.width = width;
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedKeys / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /** Add delta to counter {@code slot} of {@code key}. */
+    void add(long key, int slot, long delta) {
+        int index = indexFor(key); // may grow; read values only afterwards
+        values[index * width + slot] += delta;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long key, long[] values, int offset);
+    }
+
+    /** Visit every entry; counters for an entry are values[offset .. offset + width). */
+    void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0)
+                consumer.accept(keys[i], values, i * width);
+        }
+    }
+
+    /** Remove every key matching filter, rebuilding the table; returns how many were removed. */
+    int removeIf(LongPredicate filter) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        int before = size;
+        allocate(oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0 || filter.test(oldKeys[i]))
+                continue;
+            int j = indexFor(oldKeys[i]);
+            System.arraycopy(oldValues, i * width, values, j * width, width);
+        }
+        return before - size;
+    }
+
+    /** Slot index for key, inserting it with zeroed counters if absent. */
+    private int indexFor(long key) {
+        if (key == 0)
+            throw new IllegalArgumentException("key 0 is reserved");
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (true) {
+            long k = keys[i];
+            if (k == key)
+                return i;
+            if (k == 0) {
+                if (size >= resizeAt) {
+                    grow();
+                    return indexFor(key);
+                }
+                keys[i] = key;
+                size++;
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int j = indexFor(oldKeys[i]);
+            System.arraycopy(oldValues, i * width, values, j * width, width);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity * width];
+        size = 0;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,105 @@
+package com.c4gt.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded, lock-free multi-producer / single-consumer ring buffer.
+ *
+ * Each slot carries a sequence number (Vyukov-style): producers claim a slot by
+ * CAS on the tail and publish by bumping the slot sequence; the single consumer
+ * only reads slots whose sequence says they are published. No locks, no
+ * allocation per element, and {@link #offer} fails fast when the ring is full.
+ *
+ * {@link #drain} must only ever be called from one thread at a time.
+ */
+public final class MpscRingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // written by the consumer only
+
+    public MpscRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2)
+            throw new IllegalArgumentException("capacity must be at least 2");
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Try to enqueue an element.
+     *
+     * @return false if the ring is full
+     */
+    public boolean offer(E element) {
+        if (element == null)
+            throw new NullPointerException("element");
+
+        long t;
+        int index;
+        while (true) {
+            t = tail.get();
+            index = (int) (t & mask);
+            long diff = sequences.get(index) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1))
+                    break;
+            } else if (diff < 0) {
+                return false; // slot not yet consumed — ring is full
+            }
+            // else another producer claimed this slot first; retry with fresh tail
+        }
+
+        slots.lazySet(index, element);
+        sequences.set(index, t + 1); // publish
+        return true;
+    }
+
+    /**
+     * Remove up to {@code max} published elements and hand them to the consumer.
+     * Single-consumer only.
+     *
+     * @return number of elements drained
+     */
+    public int drain(Consumer<E> consumer, int max) {
+        long h = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) (h & mask);
+            if (sequences.get(index) != h + 1)
+                break; // nothing published at this position yet
+
+            E element = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.set(index, h + capacity); // hand the slot back to producers
+            head = ++h;
+            drained++;
+            consumer.accept(element);
+        }
+        return drained;
+    }
+
+    /** Approximate number of queued elements. */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,337 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates and drops engagement_events partitions.
+ *
+ * Partitions are range partitions on created_at, named
+ * engagement_events_YYYY_MM (monthly) or engagement_events_YYYY_MM_DD
+ * (daily). The manager keeps `ahead` months of partitions created past
+ * today in either granularity (about 90 daily partitions for the default of
+ * 3), so a stalled job has months, not days, before inserts start falling
+ * through to the default partition. Daily partitions
+ * prune tighter for per-user and per-page range queries and make retention a
+ * cheap drop of small tables. Switching granularity is safe: a period already
+ * covered by an existing partition is skipped.
+ *
+ * New partitions are built standalone and then ATTACHed, which needs only a
+ * SHARE UPDATE EXCLUSIVE lock on the parent. Rows that already reached the
+ * default partition for that range are moved in the same transaction. The
+ * parent's indexes, including the BRIN index on created_at, are created on
+ * attach.
+ *
+ * Rows that do land in the default partition are not covered by dropping
+ * partitions, so retention also deletes the default partition's expired rows
+ * (without archiving them), and sampling warns while it holds any.
+ *
+ * Partition count and sizes are sampled every 5 minutes and exported as
+ * engagement.partitions.* gauges.
+ */
+@Service
+public class PartitionManagerService {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionManagerService.class);
+
+    static final String PARENT = "engagement_events";
+    static final String DEFAULT_PARTITION = "engagement_events_default";
+    private static final DateTimeFormatter MONTHLY = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final DateTimeFormatter DAILY = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+
+    public enum Granularity {
+        MONTHLY, DAILY
+    }
+
+    /** A partition's name and its [from, to) range of created_at dates (UTC). */
+    public record Partition(String name, LocalDate from, LocalDate to) {
+        boolean overlaps(LocalDate otherFrom, LocalDate otherTo) {
+            return from.isBefore(otherTo) && otherFrom.isBefore(to);
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private ClusterLeaseService leases;
+    @Autowired
+    private EngagementArchiveService archiver;
+
+    @Value("${app.engagement.partitions.granularity:MONTHLY}")
+    private Granularity granularity;
+    @Value("${app.engagement.partitions.ahead:3}")
+    private int ahead;
+    @Value("${app.engagement.partitions.retention-days:90}")
+    private int retentionDays;
+    @Value("${app.engagement.partitions.lock-timeout:5s}")
+    private String lockTimeout;
+    @Value("${app.engagement.partitions.default-delete-batch:10000}")
+    private int defaultDeleteBatch;
+
+    private MultiGauge partitionBytes;
+    private volatile int partitionCount;
+    private volatile long totalBytes;
+    private volatile long defaultPartitionRows;
+
+    @PostConstruct
+    void registerMetrics() {
+        partitionBytes = MultiGauge.builder("engagement.partitions.bytes")
+                .description("Size of each engagement_events partition including indexes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("engagement.partitions.count", this, s -> s.partitionCount)
+                .register(meterRegistry);
+        Gauge.builder("engagement.partitions.total.bytes", this, s -> s.totalBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("engagement.partitions.default.rows", this, s -> s.defaultPartitionRows)
+                .description("Estimated rows that fell through to the default partition; should stay 0")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        ensurePartitions();
+        sampleMetrics();
+    }
+
+    /**
+     * Make sure partitions exist for today through `ahead` months. Runs daily,
+     * on one replica at a time.
+     */
+    @Scheduled(cron = "${app.engagement.partitions.cron:0 30 0 * * *}", zone = "UTC")
+    public void ensurePartitions() {
+        leases.runExclusive("partitions.ensure", Duration.ofMinutes(10), this::createMissing);
+    }
+
+    private void createMissing() {
+        try {
+            List<Partition> existing = listPartitions();
+            LocalDate start = periodStart(LocalDate.now(ZoneOffset.UTC));
+            LocalDate horizon = start.withDayOfMonth(1).plusMonths(ahead + 1L);
+            for (LocalDate from = start; from.isBefore(horizon); from = next(from, 1)) {
+                LocalDate periodFrom = from;
+                LocalDate to = next(from, 1);
+                if (existing.stream().anyMatch(p -> p.overlaps(periodFrom, to)))
+                    continue;
+                Partition partition = new Partition(nameFor(from), from, to);
+                attach(partition);
+                existing.add(partition);
+            }
+        } catch (Exception e) {
+            log.error("Partition pre-creation failed", e);
+        }
+    }
+
+    /**
+     * Drop partitions whose whole range is older than the retention period.
+     * When archiving is enabled, each partition is archived to columnar files
+     * first and kept if that fails. Expired rows in the default partition are
+     * deleted.
+     *
+     * @return names of the dropped partitions
+     */
+    public List<String> dropExpired() {
+        return dropExpired(null);
+    }
+
+    /**
+     * Like {@link #dropExpired()}, but stops as soon as the caller's lease has
+     * been taken over by another replica. Each drop is fenced by the lease in
+     * its own transaction.
+     */
+    public List<String> dropExpired(ClusterLeaseService.Lease lease) {
+        LocalDate cutoff = LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays);
+        List<String> dropped = new ArrayList<>();
+        for (Partition partition : listPartitions()) {
+            if (partition.to().isAfter(cutoff))
+                continue;
+            if (lease != null && !lease.isCurrent()) {
+                log.warn("Lease {} lost, stopping retention run", lease.name());
+                break;
+            }
+            if (archiver.isEnabled()) {
+                try {
+                    archiver.archive(partition);
+                } catch (Exception e) {
+                    log.warn("Could not archive partition {}, keeping it until the next run: {}", partition.name(),
+                            e.getMessage());
+                    continue;
+                }
+            }
+            try {
+                boolean fenced = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                    // Fail fast rather than queue writers behind the ACCESS EXCLUSIVE lock
+                    jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeout + "'");
+                    if (lease != null && !lease.fence())
+                        return false;
+                    jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition.name());
+                    return true;
+                }));
+                if (!fenced) {
+                    log.warn("Lease {} lost, stopping retention run", lease.name());
+                    break;
+                }
+                dropped.add(partition.name());
+                log.info("Dropped expired partition {} [{} .. {})", partition.name(), partition.from(), partition.to());
+            } catch (Exception e) {
+                log.warn("Could not drop partition {}, will retry next run: {}", partition.name(), e.getMessage());
+            }
+        }
+        if (lease == null || lease.isCurrent())
+            deleteExpiredDefaultRows(cutoff); // idempotent, so a check is enough
+        return dropped;
+    }
+
+    /**
+     * Delete rows older than cutoff from the default partition in batches, so
+     * each statement holds its row locks only briefly.
+     */
+    private void deleteExpiredDefaultRows(LocalDate cutoff) {
+        long deleted = 0;
+        try {
+            int n;
+            do {
+                n = jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE ctid IN (SELECT ctid FROM "
+                        + DEFAULT_PARTITION + " WHERE created_at < ?::date LIMIT ?)",
+                        cutoff.toString(), defaultDeleteBatch);
+                deleted += n;
+            } while (n == defaultDeleteBatch);
+        } catch (Exception e) {
+            log.warn("Could not delete expired rows from {}, will retry next run: {}", DEFAULT_PARTITION,
+                    e.getMessage());
+        }
+        if (deleted > 0)
+            log.warn("Deleted {} expired rows from {}; partitions are not being created ahead of inserts", deleted,
+                    DEFAULT_PARTITION);
+    }
+
+    /**
+     * All date-named partitions of engagement_events, oldest first.
+     */
+    public List<Partition> listPartitions() {
+        List<String> names = jdbcTemplate.queryForList("""
+                SELECT c.relname
+                FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE i.inhparent = 'engagement_events'::regclass
+                ORDER BY c.relname
+                """, String.class);
+        List<Partition> partitions = new ArrayList<>(names.size());
+        for (String name : names) {
+            Partition partition = parse(name);
+            if (partition != null)
+                partitions.add(partition);
+        }
+        return partitions;
+    }
+
+    @Scheduled(fixedRate = 5 * 60 * 1000, initialDelay = 5 * 60 * 1000)
+    public void sampleMetrics() {
+        try {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("""
+                    SELECT c.relname AS name, pg_total_relation_size(c.oid) AS bytes, c.reltuples::bigint AS est_rows
+                    FROM pg_inherits i
+                    JOIN pg_class c ON c.oid = i.inhrelid
+                    WHERE i.inhparent = 'engagement_events'::regclass
+                    """);
+            List<MultiGauge.Row<?>> gaugeRows = new ArrayList<>(rows.size());
+            long total = 0;
+            long defaultRows = 0;
+            for (Map<String, Object> row : rows) {
+                String name = (String) row.get("name");
+                long bytes = ((Number) row.get("bytes")).longValue();
+                total += bytes;
+                if (DEFAULT_PARTITION.equals(name))
+                    defaultRows = Math.max(0, ((Number) row.get("est_rows")).longValue());
+                gaugeRows.add(MultiGauge.Row.of(Tags.of("partition", name), bytes));
+            }
+            partitionBytes.register(gaugeRows, true);
+            partitionCount = rows.size();
+            totalBytes = total;
+            defaultPartitionRows = defaultRows;
+            if (defaultRows > 0)
+                log.warn("About {} rows are in {}; check that partition pre-creation is running", defaultRows,
+                        DEFAULT_PARTITION);
+        } catch (Exception e) {
+            log.warn("Partition metrics sampling failed: {}", e.getMessage());
+        }
+    }
+
+    // --- Helpers ---
+
+    private void attach(Partition partition) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeout + "'");
+            jdbcTemplate.execute("CREATE TABLE " + partition.name()
+                    + " (LIKE " + PARENT + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            int moved = jdbcTemplate.update("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION
+                    + " WHERE created_at >= ?::date AND created_at < ?::date RETURNING *) INSERT INTO "
+                    + partition.name() + " SELECT * FROM moved",
+                    partition.from().toString(), partition.to().toString());
+            jdbcTemplate.execute("ALTER TABLE " + PARENT + " ATTACH PARTITION " + partition.name()
+                    + " FOR VALUES FROM ('" + partition.from() + "') TO ('" + partition.to() + "')");
+            if (moved > 0)
+                log.warn("Moved {} rows from the default partition into {}", moved, partition.name());
+        });
+        log.info("Created partition {} [{} .. {})", partition.name(), partition.from(), partition.to());
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        return granularity == Granularity.DAILY ? date : date.withDayOfMonth(1);
+    }
+
+    private LocalDate next(LocalDate from, int periods) {
+        return granularity == Granularity.DAILY ? from.plusDays(periods) : from.plusMonths(periods);
+    }
+
+    private String nameFor(LocalDate from) {
+        return PARENT + "_" + (granularity == Granularity.DAILY ? DAILY : MONTHLY).format(from);
+    }
+
+    /** Parse engagement_events_YYYY_MM or engagement_events_YYYY_MM_DD; null for other names. */
+    static Partition parse(String name) {
+        if (!name.startsWith(PARENT + "_"))
+            return null;
+        String[] parts = name.substring(PARENT.length() + 1).split("_");
+        try {
+            if (parts.length == 2) {
+                LocalDate from = LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), 1);
+                return new Partition(name, from, from.plusMonths(1));
+            }
+            if (parts.length == 3) {
+                LocalDate from = LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                        Integer.parseInt(parts[2]));
+                return new Partition(name, from, from.plusDays(1));
+            }
+        } catch (RuntimeException ignored) {
+            // Not a date-based partition name
+        }
+        return null;
+    }
+}
@@ -0,0 +1,33 @@
+package com.c4gt.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Writes events to engagement_events through the group-commit ingest buffer.
+ * Rows that do not fit the buffer are left for the next sink.
+ */
+@Component
+public class PostgresEngagementSink implements EngagementSink {
+
+    public static final String NAME = "postgres";
+
+    @Autowired
+    private EngagementIngestBuffer ingestBuffer;
+    @Autowired
+    private StreamingRollupService rollups;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int accept(long userId, List<EngagementEventWriter.Row> rows) {
+        int accepted = ingestBuffer.offerAll(userId, rows);
+        rollups.recordEvents(userId, rows.subList(0, accepted));
+        return accepted;
+    }
+}
@@ -1,24 +1,202 @@
 package com.c4gt.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Redis-based sliding window rate limiter.
- * Uses INCR + EXPIRE to count requests per key within a time window.
+ * Redis-based rate limiter using the generic cell rate algorithm (GCRA).
+ *
+ * Each key stores one value, its theoretical arrival time (TAT): when the
+ * key would be fully replenished. A request advances the TAT by window /
+ * maxRequests and is allowed while the TAT stays within one window of now.
+ * The limit is therefore a smooth sliding window with bursts of up to
+ * maxRequests, not a fixed window that resets all at once.
+ *
+ * The check and update are one Lua script, so a Redis call is a single
+ * atomic round trip. The key expires when it is fully replenished, so it
+ * cannot outlive its window. Time comes from the Redis server clock, so
+ * replicas with skewed clocks agree.
+ *
+ * Most checks do not reach Redis: each instance leases up to lease-size
+ * tokens per key from the cluster-wide limit and spends them from an
+ * in-memory bucket with a CAS, only going back to Redis when the lease is
+ * used up. A denial is remembered until its retry-after, so a client
+ * hammering a limit is answered locally too. Lease size is a tenth of the
+ * limit at most, so small limits (auth, OTP) stay exact. The cost is that
+ * each instance may hold up to one unspent lease per key, which the other
+ * instances cannot use. Leases expire after one window: by then Redis has
+ * replenished the key anyway, so dropping unspent tokens loses nothing.
+ * Concurrent refills of one key each get their own grant from Redis; the
+ * unspent tokens of the lease being replaced are carried into the new one,
+ * and a denial does not replace a lease that still has tokens.
+ * The local map is bounded by max-keys; beyond it, checks go to Redis.
+ *
+ * For authenticated API requests the Redis call is usually made up front,
+ * in the same pipeline as the other per-request lookups (see
+ * RedisRequestPrefetcher); check() then takes the decision from the
+ * request's RedisRequestContext.
+ *
+ * Redis calls go through RedisFastPath (short timeout, circuit breaker).
+ * When Redis is unavailable the same algorithm runs in memory on each
+ * instance, which keeps limits in force, only no longer cluster-wide.
  */
 @Service
 public class RateLimitService {
 
     private static final Logger log = LoggerFactory.getLogger(RateLimitService.class);
+    private static final String KEY_PREFIX = "ratelimit:";
 
+    /**
+     * KEYS: limiter key. ARGV: emission interval ms, burst tolerance ms
+     * (window), tokens wanted, tokens required. Grants as many of the wanted
+     * tokens as fit, or none if fewer than required fit.
+     * Returns {granted, remaining, retry after ms, reset after ms}.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> GCRA_SCRIPT = new DefaultRedisScript<>("""
+            local emission = tonumber(ARGV[1])
+            local tolerance = tonumber(ARGV[2])
+            local wanted = tonumber(ARGV[3])
+            local required = tonumber(ARGV[4])
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            local tat = tonumber(redis.call('GET', KEYS[1])) or now
+            if tat < now then
+              tat = now
+            end
+            local fit = math.floor((now + tolerance - tat) / emission)
+            if fit < required then
+              return {0, math.max(fit, 0), tat + required * emission - tolerance - now, tat - now}
+            end
+            local granted = math.min(wanted, fit)
+            local new_tat = tat + granted * emission
+            redis.call('SET', KEYS[1], new_tat, 'PX', new_tat - now)
+            return {granted, math.floor((now + tolerance - new_tat) / emission), 0, new_tat - now}
+            """, List.class);
+
+    /** Outcome of a rate limit check. Times are in milliseconds from now. */
+    public record Decision(boolean allowed, int limit, int remaining, long retryAfterMillis, long resetAfterMillis) {
+
+        static Decision failOpen(int limit) {
+            return new Decision(true, limit, limit, 0, 0);
+        }
+    }
+
+    /**
+     * One script call: ask for up to wanted tokens of key, at least cost of
+     * them (wanted is larger than cost when refilling a lease).
+     */
+    public record RemoteCheck(String key, int maxRequests, Duration window, int wanted, int cost) {
+
+        long windowMs() {
+            return Math.max(1, window.toMillis());
+        }
+
+        long emission() {
+            return Math.max(1, windowMs() / Math.max(1, maxRequests));
+        }
+
+        String redisKey() {
+            return KEY_PREFIX + key;
+        }
+
+        String[] args() {
+            return new String[] { Long.toString(emission()), Long.toString(windowMs()), Integer.toString(wanted),
+                    Integer.toString(cost) };
+        }
+    }
+
+    /**
+     * Tokens leased from Redis for one key, or a remembered denial (no
+     * tokens, deniedUntil in the future) for requests costing at least
+     * deniedCost. Replaced on refill, taking over the old lease's tokens
+     * (see drain).
+     */
+    private static final class Lease {
+        final AtomicInteger tokens;
+        final int limit;
+        final int remoteRemaining;
+        final long grantedAt;
+        final long resetAfterMillis;
+        final long deniedUntil;
+        final int deniedCost;
+        final long expiresAt;
+
+        Lease(int tokens, int limit, int remoteRemaining, long grantedAt, long resetAfterMillis,
+                long deniedUntil, int deniedCost, long expiresAt) {
+            this.tokens = new AtomicInteger(tokens);
+            this.limit = limit;
+            this.remoteRemaining = remoteRemaining;
+            this.grantedAt = grantedAt;
+            this.resetAfterMillis = resetAfterMillis;
+            this.deniedUntil = deniedUntil;
+            this.deniedCost = deniedCost;
+            this.expiresAt = expiresAt;
+        }
+
+        /** Take n tokens; returns the tokens left, or -1 if there were fewer than n. */
+        int take(int n) {
+            int t;
+            do {
+                t = tokens.get();
+                if (t < n)
+                    return -1;
+            } while (!tokens.compareAndSet(t, t - n));
+            return t - n;
+        }
+
+        /** Take all tokens left, so none can be spent here after the lease is replaced. */
+        int drain() {
+            return tokens.getAndSet(0);
+        }
+
+        boolean usable(int maxRequests, long now) {
+            return limit == maxRequests && now < expiresAt && tokens.get() > 0;
+        }
+    }
+
+    @Autowired
+    private RedisFastPath fastPath;
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.rate-limit.local.enabled:true}")
+    private boolean localEnabled;
+    @Value("${app.rate-limit.local.lease-size:10}")
+    private int leaseSize;
+    @Value("${app.rate-limit.local.max-keys:100000}")
+    private int maxKeys;
+
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    /** TATs of the in-memory fallback limiter, used only while Redis is unavailable. */
+    private final ConcurrentHashMap<String, AtomicLong> localTat = new ConcurrentHashMap<>();
+    private Counter localDecisions;
+    private Counter remoteDecisions;
+
+    @PostConstruct
+    void registerMetrics() {
+        localDecisions = meterRegistry.counter("ratelimit.decisions", "tier", "local");
+        remoteDecisions = meterRegistry.counter("ratelimit.decisions", "tier", "redis");
+        Gauge.builder("ratelimit.local.keys", leases, Map::size).register(meterRegistry);
+    }
 
     /**
      * Check if the given key has exceeded the rate limit.
@@ -30,37 +208,184 @@ public class RateLimitService {
      * @return true if request is ALLOWED, false if rate limited
      */
     public boolean isAllowed(String key, int maxRequests, Duration window) {
-        try {
-            String redisKey = "ratelimit:" + key;
-            Long count = redisTemplate.opsForValue().increment(redisKey);
-            if (count == null)
-                return true;
+        return check(key, maxRequests, window).allowed();
+    }
 
-            if (count == 1) {
-                redisTemplate.expire(redisKey, window);
-            }
+    /**
+     * Count a request against the key and return the decision together with
+     * the remaining quota and when it resets.
+     */
+    public Decision check(String key, int maxRequests, Duration window) {
+        return check(key, maxRequests, window, 1);
+    }
+
+    /**
+     * Count a request of the given cost (tokens) against the key. Either the
+     * whole cost is taken or the request is denied.
+     */
+    public Decision check(String key, int maxRequests, Duration window, int cost) {
+        RedisRequestContext context = RedisRequestContext.current();
+        Decision prefetched = context != null ? context.takeRateLimit(key) : null;
+        if (prefetched != null)
+            return prefetched;
 
-            if (count > maxRequests) {
-                log.warn("Rate limit exceeded for key={}, count={}, max={}", key, count, maxRequests);
-                return false;
+        cost = Math.max(1, cost);
+        int lease = leaseFor(maxRequests);
+        if (!localEnabled || lease <= cost)
+            return remote(new RemoteCheck(key, maxRequests, window, cost, cost));
+
+        long now = System.currentTimeMillis();
+        Lease current = leases.get(key);
+        if (current != null && current.limit == maxRequests && now < current.expiresAt) {
+            if (now < current.deniedUntil && cost >= current.deniedCost) {
+                localDecisions.increment();
+                return new Decision(false, maxRequests, current.remoteRemaining, current.deniedUntil - now,
+                        Math.max(0, current.grantedAt + current.resetAfterMillis - now));
+            }
+            int left = current.take(cost);
+            if (left >= 0) {
+                localDecisions.increment();
+                return new Decision(true, maxRequests, Math.min(maxRequests, current.remoteRemaining + left), 0,
+                        Math.max(0, current.grantedAt + current.resetAfterMillis - now));
             }
-            return true;
-        } catch (Exception e) {
-            // Redis failure = fail open (allow the request)
-            log.error("Redis rate limit check failed, allowing request", e);
-            return true;
         }
+        return remote(new RemoteCheck(key, maxRequests, window, lease, cost));
+    }
+
+    /**
+     * The Redis call a check of key would make, for RedisRequestPrefetcher to
+     * send in its pipeline, or null if the local lease (or a cached denial)
+     * will answer it.
+     */
+    public RemoteCheck prepare(String key, int maxRequests, Duration window, int cost) {
+        cost = Math.max(1, cost);
+        int lease = leaseFor(maxRequests);
+        if (!localEnabled || lease <= cost)
+            return new RemoteCheck(key, maxRequests, window, cost, cost);
+        long now = System.currentTimeMillis();
+        Lease current = leases.get(key);
+        if (current != null && current.limit == maxRequests && now < current.expiresAt
+                && ((now < current.deniedUntil && cost >= current.deniedCost) || current.tokens.get() >= cost))
+            return null;
+        return new RemoteCheck(key, maxRequests, window, lease, cost);
+    }
+
+    /** Queue the script call of check on a pipeline; its result goes to complete(). */
+    public void queue(StringRedisConnection connection, RemoteCheck check) {
+        String[] args = check.args();
+        connection.evalSha(GCRA_SCRIPT.getSha1(), ReturnType.MULTI, 1, check.redisKey(), args[0], args[1], args[2],
+                args[3]);
+    }
+
+    /** Load the script after a pipeline failed with NOSCRIPT (first use, or Redis restarted). */
+    public void loadScript(StringRedisConnection connection) {
+        connection.scriptLoad(GCRA_SCRIPT.getScriptAsString());
+    }
+
+    /** Ask Redis for the tokens of check and turn the reply into a decision. */
+    private Decision remote(RemoteCheck check) {
+        List<?> result = fastPath.execute("ratelimit",
+                redis -> redis.execute(GCRA_SCRIPT, List.of(check.redisKey()), (Object[]) check.args()), () -> null);
+        return complete(check, result);
+    }
+
+    /**
+     * Decision for a check from the script reply: the cost is spent on this
+     * request, the rest of the granted tokens (or a denial) is kept locally
+     * for later checks on the key. A null reply means Redis was unavailable.
+     */
+    public Decision complete(RemoteCheck check, List<?> result) {
+        remoteDecisions.increment();
+        String key = check.key();
+        int maxRequests = check.maxRequests();
+        if (result == null || result.size() < 4)
+            return local(key, maxRequests, check.windowMs(), check.emission(), check.cost());
+
+        int granted = (int) ((Number) result.get(0)).longValue();
+        int remaining = (int) Math.min(maxRequests, ((Number) result.get(1)).longValue());
+        long retryAfter = ((Number) result.get(2)).longValue();
+        long resetAfter = ((Number) result.get(3)).longValue();
+        if (check.wanted() > check.cost())
+            cacheLease(key, maxRequests, check.windowMs(), granted, check.cost(), remaining, retryAfter, resetAfter);
+
+        if (granted == 0) {
+            log.warn("Rate limit exceeded for key={}, max={}, retryAfterMs={}", key, maxRequests, retryAfter);
+            return new Decision(false, maxRequests, remaining, retryAfter, resetAfter);
+        }
+        return new Decision(true, maxRequests, Math.min(maxRequests, remaining + granted - check.cost()), 0,
+                resetAfter);
+    }
+
+    private int leaseFor(int maxRequests) {
+        return Math.max(1, Math.min(leaseSize, maxRequests / 10));
+    }
+
+    /**
+     * The same GCRA in memory, per instance, while Redis is unavailable. Each
+     * instance then allows the full limit on its own, so the cluster-wide
+     * limit is only approximate; it fails open once max-keys are tracked.
+     */
+    private Decision local(String key, int maxRequests, long windowMs, long emission, int cost) {
+        AtomicLong tat = localTat.get(key);
+        if (tat == null) {
+            if (localTat.size() >= maxKeys)
+                return Decision.failOpen(maxRequests);
+            tat = localTat.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        while (true) {
+            long now = System.currentTimeMillis();
+            long observed = tat.get();
+            long current = Math.max(observed, now);
+            long fit = (now + windowMs - current) / emission;
+            if (fit < cost)
+                return new Decision(false, maxRequests, (int) Math.max(fit, 0),
+                        current + cost * emission - windowMs - now, current - now);
+            long next = current + cost * emission;
+            if (tat.compareAndSet(observed, next))
+                return new Decision(true, maxRequests, (int) Math.min(maxRequests, (now + windowMs - next) / emission),
+                        0, next - now);
+        }
+    }
+
+    private void cacheLease(String key, int maxRequests, long windowMs, int granted, int cost, int remaining,
+            long retryAfter, long resetAfter) {
+        if (leases.size() >= maxKeys && !leases.containsKey(key))
+            return;
+        long now = System.currentTimeMillis();
+        leases.compute(key, (k, old) -> {
+            boolean carry = old != null && old.usable(maxRequests, now);
+            if (granted == 0)
+                // Another refill may have just left tokens here; those are still good
+                return carry ? old
+                        : new Lease(0, maxRequests, remaining, now, resetAfter, now + retryAfter, cost,
+                                now + retryAfter);
+            int carried = carry ? old.drain() : 0;
+            return new Lease(carried + granted - cost, maxRequests, remaining, now, resetAfter, 0, 0, now + windowMs);
+        });
+    }
+
+    /**
+     * Drop expired leases and denials so the map only holds active keys.
+     */
+    @Scheduled(fixedDelay = 10_000)
+    public void evictExpiredLeases() {
+        long now = System.currentTimeMillis();
+        leases.values().removeIf(lease -> now >= lease.expiresAt);
+        localTat.values().removeIf(tat -> now >= tat.get());
     }
 
     /**
-     * Get remaining requests for a key.
+     * Get remaining requests for a key without counting one.
      */
-    public int getRemaining(String key, int maxRequests) {
+    public int getRemaining(String key, int maxRequests, Duration window) {
         try {
-            String val = redisTemplate.opsForValue().get("ratelimit:" + key);
+            String val = fastPath.execute("ratelimit", redis -> redis.opsForValue().get(KEY_PREFIX + key), () -> null);
             if (val == null)
                 return maxRequests;
-            return Math.max(0, maxRequests - Integer.parseInt(val));
+            long windowMs = Math.max(1, window.toMillis());
+            long emission = Math.max(1, windowMs / Math.max(1, maxRequests));
+            long backlog = Math.max(0, Long.parseLong(val) - System.currentTimeMillis());
+            return (int) Math.max(0, Math.min(maxRequests, (windowMs - backlog) / emission));
         } catch (Exception e) {
             return maxRequests;
         }
@@ -0,0 +1,168 @@
+package com.c4gt.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Redis access for the per-request hot path: rate limiting, the token
+ * blacklist and feature flags.
+ *
+ * Calls go through their own Lettuce connection with a short command
+ * timeout (app.redis.fast-path.timeout) instead of the shared 5s one, and
+ * through the "redis" circuit breaker. When a call fails or times out, or
+ * while the breaker is open, the caller's in-memory fallback answers
+ * instead, so a Redis brown-out costs at most one short timeout per request
+ * until the breaker opens, and nothing after that.
+ *
+ * The connection is built from Spring Boot's auto-configured Lettuce
+ * factory: the same standalone, sentinel or cluster setup (host/port or
+ * spring.data.redis.url), credentials, SSL, client options and
+ * LettuceClientConfigurationBuilderCustomizers, with only the command
+ * timeout changed. Startup fails if that factory is not Lettuce. With
+ * virtual threads on, VirtualThreadConfig wraps the shared factory in a
+ * proxy that limits concurrent connections; the proxy is unwrapped to read
+ * the Lettuce setup, and its advice is applied to the fast-path factory as
+ * well, so both count against the same app.virtual-threads.redis-max-concurrency
+ * permits. The factory is not a bean on purpose: a second RedisConnectionFactory or
+ * StringRedisTemplate bean would switch off Spring Boot's auto-configured
+ * ones.
+ */
+@Service
+public class RedisFastPath {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisFastPath.class);
+
+    @Autowired
+    private RedisConnectionFactory sharedConnectionFactory;
+    @Autowired
+    @Qualifier("redisCircuitBreaker")
+    private CircuitBreaker breaker;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.redis.fast-path.timeout:150ms}")
+    private Duration timeout;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate template;
+
+    @PostConstruct
+    void init() {
+        Object target = AopProxyUtils.getSingletonTarget(sharedConnectionFactory);
+        Object unwrapped = target != null ? target : sharedConnectionFactory;
+        if (!(unwrapped instanceof LettuceConnectionFactory shared))
+            throw new IllegalStateException("RedisFastPath needs the Lettuce client, found "
+                    + unwrapped.getClass().getName());
+        LettuceClientConfiguration client = withTimeout(shared.getClientConfiguration(), timeout);
+        if (shared.isClusterAware())
+            connectionFactory = new LettuceConnectionFactory(shared.getClusterConfiguration(), client);
+        else if (shared.isRedisSentinelAware())
+            connectionFactory = new LettuceConnectionFactory(shared.getSentinelConfiguration(), client);
+        else
+            connectionFactory = new LettuceConnectionFactory(shared.getStandaloneConfiguration(), client);
+        connectionFactory.afterPropertiesSet();
+        template = new StringRedisTemplate(withSharedAdvice(connectionFactory));
+        breaker.getEventPublisher().onStateTransition(event ->
+                log.warn("Redis circuit breaker {}", event.getStateTransition()));
+        log.info("Redis fast path: command timeout {}", timeout);
+    }
+
+    /** factory behind the same advice as the shared factory's proxy, if it has one. */
+    private RedisConnectionFactory withSharedAdvice(LettuceConnectionFactory factory) {
+        if (!(sharedConnectionFactory instanceof Advised advised))
+            return factory;
+        ProxyFactory proxy = new ProxyFactory(factory);
+        for (Advisor advisor : advised.getAdvisors())
+            proxy.addAdvisor(advisor);
+        return (RedisConnectionFactory) proxy.getProxy();
+    }
+
+    /** Copy of base with another command timeout. Shared client resources stay owned by base. */
+    static LettuceClientConfiguration withTimeout(LettuceClientConfiguration base, Duration timeout) {
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder builder = LettuceClientConfiguration.builder();
+        if (base.isUseSsl()) {
+            LettuceClientConfiguration.LettuceSslClientConfigurationBuilder ssl = builder.useSsl();
+            if (!base.isVerifyPeer())
+                ssl.disablePeerVerification();
+            if (base.isStartTls())
+                ssl.startTls();
+            builder = ssl.and();
+        }
+        base.getClientResources().ifPresent(builder::clientResources);
+        base.getClientOptions().ifPresent(builder::clientOptions);
+        base.getClientName().ifPresent(builder::clientName);
+        base.getReadFrom().ifPresent(builder::readFrom);
+        base.getRedisCredentialsProviderFactory().ifPresent(builder::redisCredentialsProviderFactory);
+        return builder.commandTimeout(timeout)
+                .shutdownTimeout(base.getShutdownTimeout())
+                .shutdownQuietPeriod(base.getShutdownQuietPeriod())
+                .build();
+    }
+
+    @PreDestroy
+    void close() {
+        connectionFactory.destroy();
+    }
+
+    /**
+     * Run call against Redis, or return fallback if the breaker is open or
+     * the call fails.
+     *
+     * @param operation metric tag for fallbacks, e.g. "ratelimit"
+     */
+    public <T> T execute(String operation, Function<StringRedisTemplate, T> call, Supplier<T> fallback) {
+        if (!breaker.tryAcquirePermission())
+            return fallback(operation, "open", fallback);
+        long start = System.nanoTime();
+        try {
+            T result = call.apply(template);
+            breaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (Exception e) {
+            breaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            log.debug("Redis {} call failed, using fallback: {}", operation, e.getMessage());
+            return fallback(operation, "error", fallback);
+        }
+    }
+
+    /** Run a write; failures are recorded by the breaker and otherwise ignored. */
+    public void run(String operation, Consumer<StringRedisTemplate> call) {
+        execute(operation, redis -> {
+            call.accept(redis);
+            return null;
+        }, () -> null);
+    }
+
+    /** True while calls are going to Redis (breaker closed or half-open). */
+    public boolean isAvailable() {
+        return breaker.getState() != CircuitBreaker.State.OPEN
+                && breaker.getState() != CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    private <T> T fallback(String operation, String reason, Supplier<T> fallback) {
+        meterRegistry.counter("redis.fastpath.fallbacks", "operation", operation, "reason", reason).increment();
+        return fallback.get();
+    }
+}
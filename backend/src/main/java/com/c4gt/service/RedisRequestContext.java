@@ -0,0 +1,68 @@
+package com.c4gt.service;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Map;
+
+/**
+ * Redis results fetched for the current request in one pipelined round
+ * trip (see RedisRequestPrefetcher), read by RateLimitService,
+ * TokenBlacklistService and FeatureFlagService instead of going to Redis
+ * themselves. Held as a request attribute, so it lives exactly as long as
+ * the request.
+ *
+ * Anything not prefetched (no context, a different key, or the prefetch
+ * failed) is looked up by the service as usual.
+ */
+public class RedisRequestContext {
+
+    public static final String ATTRIBUTE = RedisRequestContext.class.getName();
+
+    private String rateLimitKey;
+    private RateLimitService.Decision rateLimit;
+    private String jti;
+    private Boolean revoked;
+    private Map<String, String> flags;
+
+    /** Context of the current request, or null outside a request or if nothing was prefetched. */
+    public static RedisRequestContext current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes != null
+                ? (RedisRequestContext) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+                : null;
+    }
+
+    public void setRateLimit(String key, RateLimitService.Decision decision) {
+        this.rateLimitKey = key;
+        this.rateLimit = decision;
+    }
+
+    /** The prefetched decision for key, once: a second check of the same key counts again. */
+    RateLimitService.Decision takeRateLimit(String key) {
+        if (rateLimit == null || !key.equals(rateLimitKey))
+            return null;
+        RateLimitService.Decision decision = rateLimit;
+        rateLimit = null;
+        return decision;
+    }
+
+    public void setRevoked(String jti, boolean revoked) {
+        this.jti = jti;
+        this.revoked = revoked;
+    }
+
+    /** Prefetched revocation state of jti, or null if it was not fetched. */
+    Boolean revoked(String jti) {
+        return jti.equals(this.jti) ? revoked : null;
+    }
+
+    public void setFlags(Map<String, String> flags) {
+        this.flags = flags;
+    }
+
+    /** Prefetched flag values by name (UNSET for flags with no value), or null. */
+    Map<String, String> flags() {
+        return flags;
+    }
+}
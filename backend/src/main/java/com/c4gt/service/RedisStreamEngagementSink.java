@@ -0,0 +1,131 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends events to a Redis stream (app.engagement.sink.stream.key), one
+ * entry per event, in one pipelined round trip per request. Consumer groups
+ * read the stream independently (see EngagementStreamWorkers), so the
+ * database writer and the rollups each keep their own position and lag.
+ *
+ * The stream is capped at roughly max-len entries. A group that falls
+ * further behind than that loses the trimmed entries, so max-len should
+ * cover the longest consumer outage worth riding out. If Redis rejects the
+ * pipeline, the rows go to the next sink; entries that were added before
+ * the failure are then delivered twice.
+ */
+@Component
+public class RedisStreamEngagementSink implements EngagementSink {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisStreamEngagementSink.class);
+
+    public static final String NAME = "redis-stream";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.engagement.sink.stream.key:engagement:events}")
+    private String streamKey;
+    @Value("${app.engagement.sink.stream.max-len:1000000}")
+    private long maxLen;
+
+    private Counter appended;
+    private Counter failed;
+
+    @PostConstruct
+    void registerMetrics() {
+        appended = meterRegistry.counter("engagement.stream.appended");
+        failed = meterRegistry.counter("engagement.stream.append.failures");
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int accept(long userId, List<EngagementEventWriter.Row> rows) {
+        if (rows.isEmpty())
+            return 0;
+        XAddOptions options = XAddOptions.maxlen(maxLen).approximateTrimming(true);
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (EngagementEventWriter.Row row : rows) {
+                    redis.xAdd(StreamRecords.string(encode(row)).withStreamKey(streamKey), options);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            failed.increment(rows.size());
+            log.debug("Stream append failed for {} events: {}", rows.size(), e.getMessage());
+            return 0;
+        }
+        appended.increment(rows.size());
+        return rows.size();
+    }
+
+    String streamKey() {
+        return streamKey;
+    }
+
+    // --- Entry encoding: one field per column, null columns omitted ---
+
+    static Map<String, String> encode(EngagementEventWriter.Row row) {
+        Map<String, String> fields = new HashMap<>(16);
+        fields.put("u", Long.toString(row.userId()));
+        fields.put("ts", Long.toString(row.clientTsMillis()));
+        fields.put("t", row.eventType());
+        fields.put("p", row.pageId());
+        putIfPresent(fields, "s", row.sessionId());
+        putIfPresent(fields, "sec", row.sectionId());
+        putIfPresent(fields, "d", row.durationMs());
+        putIfPresent(fields, "sd", row.scrollDepth());
+        putIfPresent(fields, "m", row.metadata());
+        putIfPresent(fields, "v", row.clientVersion());
+        return fields;
+    }
+
+    static EngagementEventWriter.Row decode(Map<?, ?> fields) {
+        Object duration = fields.get("d");
+        Object scrollDepth = fields.get("sd");
+        return new EngagementEventWriter.Row(
+                Long.parseLong(fields.get("u").toString()),
+                string(fields.get("s")),
+                fields.get("t").toString(),
+                fields.get("p").toString(),
+                string(fields.get("sec")),
+                duration != null ? Integer.valueOf(duration.toString()) : null,
+                scrollDepth != null ? Short.valueOf(scrollDepth.toString()) : null,
+                string(fields.get("m")),
+                string(fields.get("v")),
+                Long.parseLong(fields.get("ts").toString()));
+    }
+
+    private static void putIfPresent(Map<String, String> fields, String name, Object value) {
+        if (value != null)
+            fields.put(name, value.toString());
+    }
+
+    private static String string(Object value) {
+        return value != null ? value.toString() : null;
+    }
+}
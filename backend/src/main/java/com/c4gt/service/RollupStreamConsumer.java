@@ -0,0 +1,34 @@
+package com.c4gt.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stream consumer group "rollups": feeds the per-user daily rollups, and
+ * through their flush the Redis counters and summary cache evictions.
+ */
+@Component
+public class RollupStreamConsumer implements EngagementStreamConsumer {
+
+    @Autowired
+    private StreamingRollupService rollups;
+
+    @Override
+    public String group() {
+        return "rollups";
+    }
+
+    @Override
+    public void consume(List<EngagementEventWriter.Row> rows) {
+        Map<Long, List<EngagementEventWriter.Row>> byUser = new HashMap<>();
+        for (EngagementEventWriter.Row row : rows) {
+            byUser.computeIfAbsent(row.userId(), k -> new ArrayList<>()).add(row);
+        }
+        byUser.forEach(rollups::recordEvents);
+    }
+}
@@ -1,17 +1,18 @@
 package com.c4gt.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.util.Map;
 
 /**
  * Security audit logging. Append-only — events are never updated or deleted.
- * All writes are async to avoid adding latency to auth operations.
+ * Events are queued on the audit sink and written in batches in the
+ * background, so auditing adds no database round trip to auth operations.
  */
 @Service
 public class SecurityAuditService {
@@ -19,28 +20,27 @@ public class SecurityAuditService {
     private static final Logger log = LoggerFactory.getLogger(SecurityAuditService.class);
 
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    @Qualifier("auditSink")
+    private AppendOnlySink auditSink;
+    @Autowired
+    private ObjectMapper objectMapper;
 
-    @Async
     public void logEvent(String eventType, Long userId, String ipAddress, String userAgent,
             Map<String, Object> details) {
         try {
-            String detailsJson = details != null
-                    ? new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(details)
-                    : "{}";
-
-            jdbcTemplate.update(
-                    """
-                                INSERT INTO security_audit_log (user_id, event_type, ip_address, user_agent, details, created_at)
-                                VALUES (?, ?, ?, ?, ?::JSONB, NOW())
-                            """,
-                    userId, eventType, ipAddress, userAgent, detailsJson);
+            String detailsJson = details != null ? objectMapper.writeValueAsString(details) : "{}";
+            // Header values are client-controlled: cut them to the column lengths rather than lose the row
+            auditSink.append(userId, eventType, truncate(ipAddress, 45), truncate(userAgent, 500), detailsJson);
         } catch (Exception e) {
             // Audit log failures must not block auth operations
             log.error("Failed to write audit log: type={}, userId={}", eventType, userId, e);
         }
     }
 
+    private static String truncate(String value, int max) {
+        return value != null && value.length() > max ? value.substring(0, max) : value;
+    }
+
     // Convenience methods
     public void logLoginSuccess(Long userId, String ip, String userAgent) {
         logEvent("LOGIN_SUCCESS", userId, ip, userAgent, null);
@@ -0,0 +1,35 @@
+package com.c4gt.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Appends events to the local spool, which replays them into
+ * engagement_events in the background. The last sink of every chain; as the
+ * primary sink it keeps ingest off the database entirely, e.g. during
+ * maintenance.
+ */
+@Component
+public class SpoolEngagementSink implements EngagementSink {
+
+    public static final String NAME = "spool";
+
+    @Autowired
+    private EngagementSpool spool;
+    @Autowired
+    private StreamingRollupService rollups;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int accept(long userId, List<EngagementEventWriter.Row> rows) {
+        int accepted = spool.append(rows);
+        rollups.recordEvents(userId, rows.subList(0, accepted));
+        return accepted;
+    }
+}
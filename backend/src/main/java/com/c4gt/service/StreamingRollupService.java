@@ -0,0 +1,390 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user, per-day engagement counters maintained as events are ingested.
+ *
+ * Event counts, scroll-depth sum/count, drop-offs and retries are added to
+ * in-memory tables keyed by (day, userId) packed into one long, and flushed
+ * to daily_user_engagement every minute as additive multi-row upserts.
+ * avg_scroll_depth is derived from the running sum and count columns.
+ * Tables are striped by key to keep lock hold times short under concurrent
+ * ingest; a flush swaps each stripe for an empty one.
+ *
+ * Days are UTC ingest days. Edge cases such as events ingested just before
+ * midnight but committed after it, or spooled events replayed later, are
+ * corrected by the nightly reconciliation in EngagementAggregationService,
+ * which also fills pages_visited and total_active_ms.
+ *
+ * A chunk that fails is bisected (see BatchBisector): rows the database
+ * refuses are dropped on their own, and the rest are kept for the next flush,
+ * up to max-attempts times (engagement.rollup.dropped counts both). Kept rows
+ * for a day that has since been reconciled are dropped too, since the
+ * reconciled row already counts those events.
+ *
+ * On account erasure, discardUser drops the user's pending counters and
+ * kept rows, so the next flush does not recreate the deleted rows.
+ */
+@Service
+public class StreamingRollupService implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingRollupService.class);
+
+    static final int EVENTS = 0;
+    static final int SCROLL_SUM = 1;
+    static final int SCROLL_COUNT = 2;
+    static final int DROPOFFS = 3;
+    static final int RETRIES = 4;
+    private static final int WIDTH = 5;
+
+    private static final int STRIPES = 16;
+    private static final int USER_BITS = 40;
+    private static final long USER_MASK = (1L << USER_BITS) - 1;
+    private static final int ROWS_PER_STATEMENT = 500;
+
+    private static final String UPSERT_PREFIX = """
+            INSERT INTO daily_user_engagement AS d (user_id, date, events_count, scroll_depth_sum, scroll_depth_count, avg_scroll_depth, dropoffs, retries, created_at)
+            VALUES
+            """;
+    private static final String UPSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, NOW())";
+    private static final String UPSERT_SUFFIX = """
+
+            ON CONFLICT (user_id, date) DO UPDATE SET
+                events_count = d.events_count + EXCLUDED.events_count,
+                scroll_depth_sum = d.scroll_depth_sum + EXCLUDED.scroll_depth_sum,
+                scroll_depth_count = d.scroll_depth_count + EXCLUDED.scroll_depth_count,
+                avg_scroll_depth = COALESCE((d.scroll_depth_sum + EXCLUDED.scroll_depth_sum)
+                        / NULLIF(d.scroll_depth_count + EXCLUDED.scroll_depth_count, 0), d.avg_scroll_depth),
+                dropoffs = d.dropoffs + EXCLUDED.dropoffs,
+                retries = d.retries + EXCLUDED.retries
+            """;
+    private static final int[] ROW_TYPES = {
+            Types.BIGINT, Types.DATE, Types.INTEGER, Types.BIGINT, Types.INTEGER, Types.SMALLINT,
+            Types.INTEGER, Types.INTEGER };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private EngagementSummaryCache summaryCache;
+    @Autowired
+    private EngagementCounters counters;
+
+    @Value("${app.engagement.rollup.expected-users-per-stripe:1024}")
+    private int expectedUsersPerStripe;
+    @Value("${app.engagement.rollup.max-attempts:30}")
+    private int maxAttempts;
+
+    private final LongKeyedCounters[] stripes = new LongKeyedCounters[STRIPES];
+    private final Object[] stripeLocks = new Object[STRIPES];
+    private final Object flushLock = new Object();
+    /** Rows kept from failed flushes, by key; row[WIDTH + 1] is the attempt count. Guarded by flushLock. */
+    private final Map<Long, long[]> retained = new HashMap<>();
+    private volatile boolean running;
+    private Counter flushedRows;
+    private Counter flushFailures;
+    private Counter droppedRows;
+
+    @PostConstruct
+    void init() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongKeyedCounters(WIDTH, expectedUsersPerStripe);
+            stripeLocks[i] = new Object();
+        }
+        flushedRows = meterRegistry.counter("engagement.rollup.flushed");
+        flushFailures = meterRegistry.counter("engagement.rollup.flush.failures");
+        droppedRows = meterRegistry.counter("engagement.rollup.dropped");
+        Gauge.builder("engagement.rollup.pending", this, StreamingRollupService::pendingKeys)
+                .description("User-day rollup rows waiting to be flushed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Count accepted engagement events for a user.
+     */
+    public void recordEvents(long userId, List<EngagementEventWriter.Row> rows) {
+        if (rows.isEmpty())
+            return;
+        long scrollSum = 0;
+        int scrollCount = 0;
+        for (EngagementEventWriter.Row row : rows) {
+            if (row.scrollDepth() != null) {
+                scrollSum += row.scrollDepth();
+                scrollCount++;
+            }
+        }
+        long key = key(userId, today());
+        int i = stripeIndex(key);
+        synchronized (stripeLocks[i]) {
+            stripes[i].add(key, EVENTS, rows.size());
+            if (scrollCount > 0) {
+                stripes[i].add(key, SCROLL_SUM, scrollSum);
+                stripes[i].add(key, SCROLL_COUNT, scrollCount);
+            }
+        }
+    }
+
+    public void recordDropoff(long userId) {
+        increment(userId, DROPOFFS);
+    }
+
+    public void recordRetry(long userId) {
+        increment(userId, RETRIES);
+    }
+
+    public int pendingKeys() {
+        int total = 0;
+        for (LongKeyedCounters stripe : stripes) {
+            total += stripe.size(); // racy read is fine for a gauge
+        }
+        return total;
+    }
+
+    /**
+     * Drop everything pending for a user: counters not flushed yet and rows
+     * kept from failed flushes. Waits for a flush in progress, so its rows
+     * are written before the caller deletes them.
+     */
+    public void discardUser(long userId) {
+        long user = userId & USER_MASK;
+        synchronized (flushLock) {
+            int dropped = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                synchronized (stripeLocks[i]) {
+                    dropped += stripes[i].removeIf(key -> (key & USER_MASK) == user);
+                }
+            }
+            int before = retained.size();
+            retained.keySet().removeIf(key -> (key & USER_MASK) == user);
+            dropped += before - retained.size();
+            if (dropped > 0)
+                log.debug("Discarded {} pending rollup rows for erased user {}", dropped, userId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.engagement.rollup.flush-interval-ms:60000}")
+    public void scheduledFlush() {
+        if (running)
+            flush();
+    }
+
+    /**
+     * Write all accumulated deltas. Rows of a failed chunk are kept for the
+     * next flush, see the class comment.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Long, long[]> byKey = new HashMap<>(retained);
+            retained.clear();
+            dropReconciled(byKey);
+            for (int i = 0; i < STRIPES; i++) {
+                LongKeyedCounters drained;
+                synchronized (stripeLocks[i]) {
+                    if (stripes[i].isEmpty())
+                        continue;
+                    drained = stripes[i];
+                    stripes[i] = new LongKeyedCounters(WIDTH, Math.max(expectedUsersPerStripe, drained.size()));
+                }
+                drained.forEach((key, values, offset) -> {
+                    // One row per key: a multi-row upsert cannot update the same row twice
+                    long[] row = byKey.computeIfAbsent(key, k -> {
+                        long[] r = new long[WIDTH + 2];
+                        r[0] = k;
+                        return r;
+                    });
+                    for (int slot = 0; slot < WIDTH; slot++) {
+                        row[1 + slot] += values[offset + slot];
+                    }
+                });
+            }
+            if (byKey.isEmpty())
+                return;
+            List<long[]> rows = new ArrayList<>(byKey.values());
+            // Key order = (day, user) order, so concurrent flushes lock rows consistently
+            rows.sort(Comparator.comparingLong(r -> r[0]));
+
+            int written = 0;
+            for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+                List<long[]> chunk = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_STATEMENT));
+                List<long[]> done = new ArrayList<>(chunk.size());
+                BatchBisector.Outcome<long[]> outcome = BatchBisector.write(chunk, part -> {
+                    writeChunk(part);
+                    done.addAll(part);
+                });
+                written += done.size();
+                if (!done.isEmpty())
+                    publish(done);
+                if (!outcome.rejected().isEmpty()) {
+                    droppedRows.increment(outcome.rejected().size());
+                    log.warn("Rollup flush: dropped {} rows the database refused", outcome.rejected().size());
+                }
+                if (!outcome.complete()) {
+                    flushFailures.increment();
+                    log.warn("Rollup flush failed for {} rows, retrying next cycle: {}", outcome.unwritten().size(),
+                            outcome.failure().getMessage());
+                    retain(outcome.unwritten());
+                }
+            }
+            flushedRows.increment(written);
+            log.debug("Flushed {} daily rollup rows", written);
+        }
+    }
+
+    /** Keep rows for the next flush unless they have failed max-attempts times. */
+    private void retain(List<long[]> rows) {
+        int abandoned = 0;
+        for (long[] row : rows) {
+            if (++row[WIDTH + 1] >= maxAttempts) {
+                abandoned++;
+                continue;
+            }
+            retained.put(row[0], row);
+        }
+        if (abandoned > 0) {
+            droppedRows.increment(abandoned);
+            log.warn("Rollup flush: dropped {} rows after {} attempts; reconciliation will restore them",
+                    abandoned, maxAttempts);
+        }
+    }
+
+    /**
+     * Remove rows for days whose daily reconciliation has completed: it
+     * recomputed those days from the events, so adding the rows would count
+     * them twice. Only rows kept from failed flushes can be for past days.
+     */
+    private void dropReconciled(Map<Long, long[]> byKey) {
+        LocalDate today = today();
+        LocalDate oldest = today;
+        for (long key : byKey.keySet()) {
+            LocalDate day = LocalDate.ofEpochDay(key >>> USER_BITS);
+            if (day.isBefore(oldest))
+                oldest = day;
+        }
+        if (!oldest.isBefore(today))
+            return;
+        List<LocalDate> reconciled;
+        try {
+            reconciled = jdbcTemplate.queryForList("""
+                    SELECT window_start FROM aggregation_checkpoints
+                    WHERE job = 'daily' AND status = 'COMPLETED' AND window_start BETWEEN ? AND ?
+                    """, Date.class, Date.valueOf(oldest), Date.valueOf(today))
+                    .stream().map(Date::toLocalDate).toList();
+        } catch (Exception e) {
+            // The flush is about to fail too; the rows are checked again next time
+            return;
+        }
+        int before = byKey.size();
+        byKey.keySet().removeIf(key -> reconciled.contains(LocalDate.ofEpochDay(key >>> USER_BITS)));
+        if (byKey.size() < before) {
+            droppedRows.increment(before - byKey.size());
+            log.info("Rollup flush: dropped {} kept rows for days already reconciled", before - byKey.size());
+        }
+    }
+
+    private void writeChunk(List<long[]> chunk) {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX);
+        Object[] args = new Object[chunk.size() * ROW_TYPES.length];
+        int[] types = new int[args.length];
+        int a = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            long[] row = chunk.get(i);
+            if (i > 0)
+                sql.append(", ");
+            sql.append(UPSERT_ROW);
+            long scrollCount = row[1 + SCROLL_COUNT];
+            args[a++] = row[0] & USER_MASK;
+            args[a++] = LocalDate.ofEpochDay(row[0] >>> USER_BITS);
+            args[a++] = (int) row[1 + EVENTS];
+            args[a++] = row[1 + SCROLL_SUM];
+            args[a++] = (int) scrollCount;
+            args[a++] = (short) (scrollCount > 0 ? row[1 + SCROLL_SUM] / scrollCount : 0);
+            args[a++] = (int) row[1 + DROPOFFS];
+            args[a++] = (int) row[1 + RETRIES];
+            System.arraycopy(ROW_TYPES, 0, types, i * ROW_TYPES.length, ROW_TYPES.length);
+        }
+        jdbcTemplate.update(sql.append(UPSERT_SUFFIX).toString(), args, types);
+    }
+
+    /** Mirror a written chunk into the Redis counters and evict the users' cached summaries. */
+    private void publish(List<long[]> chunk) {
+        Map<Long, Map<String, Long>> deltas = new HashMap<>();
+        for (long[] row : chunk) {
+            Map<String, Long> fields = deltas.computeIfAbsent(row[0] & USER_MASK, u -> new HashMap<>());
+            fields.merge(EngagementCounters.SCROLL_SUM, row[1 + SCROLL_SUM], Long::sum);
+            fields.merge(EngagementCounters.SCROLL_COUNT, row[1 + SCROLL_COUNT], Long::sum);
+            fields.merge(EngagementCounters.DROPOFFS, row[1 + DROPOFFS], Long::sum);
+            fields.merge(EngagementCounters.RETRIES, row[1 + RETRIES], Long::sum);
+        }
+        counters.increment(deltas);
+        summaryCache.evictAll(deltas.keySet());
+    }
+
+    private void increment(long userId, int slot) {
+        long key = key(userId, today());
+        int i = stripeIndex(key);
+        synchronized (stripeLocks[i]) {
+            stripes[i].add(key, slot, 1);
+        }
+    }
+
+    /** Stripe tables are swapped by flush, so they are always accessed under stripeLocks[i]. */
+    private static int stripeIndex(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    static long key(long userId, LocalDate day) {
+        return day.toEpochDay() << USER_BITS | (userId & USER_MASK);
+    }
+
+    private static LocalDate today() {
+        return LocalDate.now(ZoneOffset.UTC);
+    }
+
+    // --- Lifecycle ---
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        flush();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Stop after the ingest buffer and sinks so their last rows are counted. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 8192;
+    }
+}
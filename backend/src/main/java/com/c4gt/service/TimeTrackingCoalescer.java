@@ -0,0 +1,430 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind coalescing for page_time_tracking and section_time_tracking.
+ *
+ * Heartbeats for the same (user, page[, section]) arrive every few seconds
+ * while a learner reads. Instead of one upsert per heartbeat they are merged
+ * in memory with the same semantics the upserts use — GREATEST for times,
+ * sums for tab switches and visit counts, latest for visibility — and written
+ * as multi-row upserts on a fixed interval and on shutdown.
+ *
+ * Rows are written in key order so concurrent flushes from several nodes
+ * always lock rows in the same order. Rows the database refuses (see
+ * BatchBisector) are dropped on their own rather than failing their chunk;
+ * rows of a chunk that failed otherwise are merged back and retried on the
+ * next flush, up to max-attempts times (engagement.coalesce.dropped counts
+ * both). If the pending map grows past max-pending-keys new heartbeats are
+ * rejected and the caller writes them directly.
+ */
+@Service
+public class TimeTrackingCoalescer implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeTrackingCoalescer.class);
+
+    /** Rows per upsert statement; at most 6 binds per row. */
+    static final int ROWS_PER_STATEMENT = 500;
+
+    private static final String PAGE_UPSERT_PREFIX = """
+            INSERT INTO page_time_tracking (user_id, page_id, active_time_ms, total_time_ms, tab_switches, visit_count, last_visited_at, created_at, updated_at)
+            VALUES
+            """;
+    private static final String PAGE_ROW = "(?, ?, ?, ?, ?, ?, ?, NOW(), NOW())";
+    private static final String PAGE_UPSERT_SUFFIX = """
+
+            ON CONFLICT (user_id, page_id) DO UPDATE SET
+                active_time_ms = GREATEST(page_time_tracking.active_time_ms, EXCLUDED.active_time_ms),
+                total_time_ms = GREATEST(page_time_tracking.total_time_ms, EXCLUDED.total_time_ms),
+                tab_switches = page_time_tracking.tab_switches + EXCLUDED.tab_switches,
+                visit_count = page_time_tracking.visit_count + EXCLUDED.visit_count,
+                last_visited_at = GREATEST(page_time_tracking.last_visited_at, EXCLUDED.last_visited_at),
+                updated_at = NOW()
+            """;
+    private static final int[] PAGE_TYPES = {
+            Types.BIGINT, Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.INTEGER, Types.INTEGER,
+            Types.TIMESTAMP_WITH_TIMEZONE };
+
+    private static final String SECTION_UPSERT_PREFIX = """
+            INSERT INTO section_time_tracking (user_id, page_id, section_id, active_time_ms, visibility_percent, visit_count, created_at, updated_at)
+            VALUES
+            """;
+    private static final String SECTION_ROW = "(?, ?, ?, ?, ?, ?, NOW(), NOW())";
+    private static final String SECTION_UPSERT_SUFFIX = """
+
+            ON CONFLICT (user_id, page_id, section_id) DO UPDATE SET
+                active_time_ms = GREATEST(section_time_tracking.active_time_ms, EXCLUDED.active_time_ms),
+                visibility_percent = EXCLUDED.visibility_percent,
+                visit_count = section_time_tracking.visit_count + EXCLUDED.visit_count,
+                updated_at = NOW()
+            """;
+    private static final int[] SECTION_TYPES = {
+            Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.SMALLINT, Types.INTEGER };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private EngagementSummaryCache summaryCache;
+    @Autowired
+    private EngagementCounters counters;
+
+    @Value("${app.engagement.coalesce.max-pending-keys:200000}")
+    private int maxPendingKeys;
+    @Value("${app.engagement.coalesce.max-attempts:30}")
+    private int maxAttempts;
+
+    record PageKey(long userId, String pageId) {
+    }
+
+    record SectionKey(long userId, String pageId, String sectionId) {
+    }
+
+    /** Failed flushes of a merged row so far. */
+    abstract static class Delta {
+        int attempts;
+    }
+
+    /** Merged page heartbeats; mutated only inside ConcurrentHashMap.compute. */
+    static final class PageDelta extends Delta {
+        long activeMs;
+        long totalMs;
+        int tabSwitches;
+        int visits;
+        long lastVisitedMillis;
+
+        PageDelta merge(long activeMs, long totalMs, int tabSwitches, int visits, long visitedMillis) {
+            this.activeMs = Math.max(this.activeMs, activeMs);
+            this.totalMs = Math.max(this.totalMs, totalMs);
+            this.tabSwitches += tabSwitches;
+            this.visits += visits;
+            this.lastVisitedMillis = Math.max(this.lastVisitedMillis, visitedMillis);
+            return this;
+        }
+
+        PageDelta retried(int attempts) {
+            this.attempts = Math.max(this.attempts, attempts);
+            return this;
+        }
+    }
+
+    /** Merged section heartbeats; mutated only inside ConcurrentHashMap.compute. */
+    static final class SectionDelta extends Delta {
+        long activeMs;
+        int visibilityPercent;
+        int visits;
+
+        SectionDelta merge(long activeMs, int visibilityPercent, int visits) {
+            this.activeMs = Math.max(this.activeMs, activeMs);
+            this.visibilityPercent = visibilityPercent;
+            this.visits += visits;
+            return this;
+        }
+
+        SectionDelta retried(int attempts) {
+            this.attempts = Math.max(this.attempts, attempts);
+            return this;
+        }
+    }
+
+    private final Map<PageKey, PageDelta> pages = new ConcurrentHashMap<>();
+    private final Map<SectionKey, SectionDelta> sections = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    private volatile boolean running;
+
+    private Counter flushedRows;
+    private Counter flushFailures;
+    private Counter droppedRows;
+    private Timer flushTimer;
+
+    @PostConstruct
+    void registerMetrics() {
+        flushedRows = meterRegistry.counter("engagement.coalesce.flushed");
+        flushFailures = meterRegistry.counter("engagement.coalesce.flush.failures");
+        droppedRows = meterRegistry.counter("engagement.coalesce.dropped");
+        flushTimer = meterRegistry.timer("engagement.coalesce.flush");
+        Gauge.builder("engagement.coalesce.pending", this, TimeTrackingCoalescer::pendingKeys)
+                .description("Page and section rows waiting to be written")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Merge a page-time heartbeat.
+     *
+     * @return false if the coalescer is full or stopped; the caller must write directly
+     */
+    public boolean recordPageTime(long userId, String pageId, long activeMs, long totalMs, int tabSwitches) {
+        if (!running || pendingKeys() >= maxPendingKeys)
+            return false;
+        long now = System.currentTimeMillis();
+        pages.compute(new PageKey(userId, pageId), (k, d) -> (d != null ? d : new PageDelta())
+                .merge(activeMs, totalMs, tabSwitches, 1, now));
+        return true;
+    }
+
+    /**
+     * Merge a section-time heartbeat.
+     *
+     * @return false if the coalescer is full or stopped; the caller must write directly
+     */
+    public boolean recordSectionTime(long userId, String pageId, String sectionId, long activeMs,
+            int visibilityPercent) {
+        if (!running || pendingKeys() >= maxPendingKeys)
+            return false;
+        sections.compute(new SectionKey(userId, pageId, sectionId), (k, d) -> (d != null ? d : new SectionDelta())
+                .merge(activeMs, visibilityPercent, 1));
+        return true;
+    }
+
+    public int pendingKeys() {
+        return pages.size() + sections.size();
+    }
+
+    @Scheduled(fixedDelayString = "${app.engagement.coalesce.flush-interval-ms:2000}")
+    public void scheduledFlush() {
+        if (running)
+            flush();
+    }
+
+    /**
+     * Write everything merged so far.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            long start = System.nanoTime();
+            int written = flushPages() + flushSections();
+            if (written > 0) {
+                flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                flushedRows.increment(written);
+                log.debug("Flushed {} coalesced time-tracking rows", written);
+            }
+        }
+    }
+
+    private int flushPages() {
+        List<Map.Entry<PageKey, PageDelta>> drained = new ArrayList<>(pages.size());
+        for (PageKey key : pages.keySet()) {
+            PageDelta delta = pages.remove(key);
+            if (delta != null)
+                drained.add(Map.entry(key, delta));
+        }
+        drained.sort(Comparator.comparing((Map.Entry<PageKey, PageDelta> e) -> e.getKey().userId())
+                .thenComparing(e -> e.getKey().pageId()));
+
+        int written = 0;
+        for (int from = 0; from < drained.size(); from += ROWS_PER_STATEMENT) {
+            List<Map.Entry<PageKey, PageDelta>> chunk =
+                    drained.subList(from, Math.min(drained.size(), from + ROWS_PER_STATEMENT));
+            List<Map.Entry<PageKey, PageDelta>> done = write("Page", chunk, this::upsertPages, (key, d) ->
+                    pages.compute(key, (k, cur) -> (cur != null ? cur : new PageDelta())
+                            .merge(d.activeMs, d.totalMs, d.tabSwitches, d.visits, d.lastVisitedMillis)
+                            .retried(d.attempts)));
+            written += done.size();
+            if (!done.isEmpty())
+                publish(done);
+        }
+        return written;
+    }
+
+    private void upsertPages(List<Map.Entry<PageKey, PageDelta>> rows) {
+        List<Object> args = new ArrayList<>(rows.size() * PAGE_TYPES.length);
+        for (Map.Entry<PageKey, PageDelta> e : rows) {
+            PageDelta d = e.getValue();
+            args.add(e.getKey().userId());
+            args.add(e.getKey().pageId());
+            args.add(d.activeMs);
+            args.add(d.totalMs);
+            args.add(d.tabSwitches);
+            args.add(d.visits);
+            args.add(OffsetDateTime.ofInstant(Instant.ofEpochMilli(d.lastVisitedMillis), ZoneOffset.UTC));
+        }
+        jdbcTemplate.update(buildUpsert(PAGE_UPSERT_PREFIX, PAGE_ROW, PAGE_UPSERT_SUFFIX, rows.size()),
+                args.toArray(), repeat(PAGE_TYPES, rows.size()));
+    }
+
+    /** Mirror written page rows into the Redis counters and evict the users' cached summaries. */
+    private void publish(List<Map.Entry<PageKey, PageDelta>> chunk) {
+        List<EngagementCounters.PageTime> rows = new ArrayList<>(chunk.size());
+        Set<Long> users = new HashSet<>();
+        for (Map.Entry<PageKey, PageDelta> e : chunk) {
+            PageKey key = e.getKey();
+            rows.add(new EngagementCounters.PageTime(key.userId(), key.pageId(), e.getValue().activeMs,
+                    e.getValue().visits));
+            users.add(key.userId());
+        }
+        counters.recordPageTimes(rows);
+        summaryCache.evictAll(users);
+    }
+
+    private int flushSections() {
+        List<Map.Entry<SectionKey, SectionDelta>> drained = new ArrayList<>(sections.size());
+        for (SectionKey key : sections.keySet()) {
+            SectionDelta delta = sections.remove(key);
+            if (delta != null)
+                drained.add(Map.entry(key, delta));
+        }
+        drained.sort(Comparator.comparing((Map.Entry<SectionKey, SectionDelta> e) -> e.getKey().userId())
+                .thenComparing(e -> e.getKey().pageId())
+                .thenComparing(e -> e.getKey().sectionId()));
+
+        int written = 0;
+        for (int from = 0; from < drained.size(); from += ROWS_PER_STATEMENT) {
+            List<Map.Entry<SectionKey, SectionDelta>> chunk =
+                    drained.subList(from, Math.min(drained.size(), from + ROWS_PER_STATEMENT));
+            // A newer heartbeat may have arrived meanwhile; its visibility wins
+            written += write("Section", chunk, this::upsertSections, (key, d) ->
+                    sections.compute(key, (k, cur) -> (cur != null
+                            ? cur.merge(d.activeMs, cur.visibilityPercent, d.visits)
+                            : new SectionDelta().merge(d.activeMs, d.visibilityPercent, d.visits))
+                            .retried(d.attempts))).size();
+        }
+        return written;
+    }
+
+    private void upsertSections(List<Map.Entry<SectionKey, SectionDelta>> rows) {
+        List<Object> args = new ArrayList<>(rows.size() * SECTION_TYPES.length);
+        for (Map.Entry<SectionKey, SectionDelta> e : rows) {
+            SectionDelta d = e.getValue();
+            args.add(e.getKey().userId());
+            args.add(e.getKey().pageId());
+            args.add(e.getKey().sectionId());
+            args.add(d.activeMs);
+            args.add(d.visibilityPercent);
+            args.add(d.visits);
+        }
+        jdbcTemplate.update(buildUpsert(SECTION_UPSERT_PREFIX, SECTION_ROW, SECTION_UPSERT_SUFFIX, rows.size()),
+                args.toArray(), repeat(SECTION_TYPES, rows.size()));
+    }
+
+    /**
+     * Upsert a chunk through BatchBisector. Rows the database refuses are
+     * dropped; rows not written because of another failure are merged back
+     * for the next flush, unless they have already failed max-attempts times.
+     *
+     * @return the rows written
+     */
+    private <K, D extends Delta> List<Map.Entry<K, D>> write(String table, List<Map.Entry<K, D>> chunk,
+            Consumer<List<Map.Entry<K, D>>> upsert, BiConsumer<K, D> mergeBack) {
+        BatchBisector.Outcome<Map.Entry<K, D>> outcome = BatchBisector.write(chunk, upsert);
+        if (outcome.complete() && outcome.rejected().isEmpty())
+            return chunk;
+
+        Set<Map.Entry<K, D>> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        failed.addAll(outcome.rejected());
+        failed.addAll(outcome.unwritten());
+        if (!outcome.rejected().isEmpty()) {
+            droppedRows.increment(outcome.rejected().size());
+            log.warn("{} time flush: dropped {} rows the database refused", table, outcome.rejected().size());
+        }
+        if (!outcome.complete()) {
+            flushFailures.increment();
+            int abandoned = 0;
+            for (Map.Entry<K, D> e : outcome.unwritten()) {
+                if (e.getValue().attempts + 1 >= maxAttempts) {
+                    abandoned++;
+                    continue;
+                }
+                e.getValue().attempts++;
+                mergeBack.accept(e.getKey(), e.getValue());
+            }
+            droppedRows.increment(abandoned);
+            log.warn("{} time flush failed for {} rows, retrying next cycle ({} dropped after {} attempts): {}",
+                    table, outcome.unwritten().size() - abandoned, abandoned, maxAttempts,
+                    outcome.failure().getMessage());
+        }
+        List<Map.Entry<K, D>> written = new ArrayList<>(chunk.size() - failed.size());
+        for (Map.Entry<K, D> e : chunk) {
+            if (!failed.contains(e))
+                written.add(e);
+        }
+        return written;
+    }
+
+    /**
+     * Drop everything pending for a user (account erasure), so a later flush
+     * cannot re-insert rows after they were deleted. Waits for a flush in
+     * progress, which may hold the user's rows.
+     */
+    public void discard(long userId) {
+        synchronized (flushLock) {
+            pages.keySet().removeIf(key -> key.userId() == userId);
+            sections.keySet().removeIf(key -> key.userId() == userId);
+        }
+    }
+
+    private static String buildUpsert(String prefix, String row, String suffix, int rowCount) {
+        StringBuilder sql = new StringBuilder(prefix.length() + suffix.length() + rowCount * (row.length() + 2));
+        sql.append(prefix);
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0)
+                sql.append(", ");
+            sql.append(row);
+        }
+        return sql.append(suffix).toString();
+    }
+
+    private static int[] repeat(int[] types, int rowCount) {
+        int[] all = new int[rowCount * types.length];
+        for (int i = 0; i < rowCount; i++) {
+            System.arraycopy(types, 0, all, i * types.length, types.length);
+        }
+        return all;
+    }
+
+    // --- Lifecycle ---
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        flush();
+        if (pendingKeys() > 0)
+            log.warn("{} time-tracking rows could not be written on shutdown", pendingKeys());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Same phase as the ingest buffer: after the web server has drained requests. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
@@ -3,55 +3,114 @@ package com.c4gt.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * JWT token blacklisting via Redis.
- * Stores blacklisted JTI (JWT ID) with TTL matching token expiry.
- * Fail-open: if Redis is down, tokens are accepted (with alert).
+ * Stores blacklisted JTI (JWT ID) with TTL matching token expiry, and
+ * indexes them in a sorted set scored by expiry so every instance can keep
+ * a local copy of the revocations that are still live.
+ *
+ * Redis calls go through RedisFastPath. While Redis is unavailable, checks
+ * use the last-synced local copy (plus tokens revoked on this instance
+ * since), so revocations keep working instead of failing open. During a
+ * request, the lookup usually comes prefetched from RedisRequestContext.
  */
 @Service
 public class TokenBlacklistService {
 
     private static final Logger log = LoggerFactory.getLogger(TokenBlacklistService.class);
     private static final String KEY_PREFIX = "jwt:blacklist:";
+    private static final String INDEX_KEY = "jwt:blacklist:index";
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private RedisFastPath fastPath;
+
+    /** jti → expiry (epoch ms); replaced on every sync. */
+    private volatile Map<String, Long> revoked = new ConcurrentHashMap<>();
 
     /**
      * Blacklist a token (on logout or security event).
-     * 
+     *
      * @param jti   JWT ID
      * @param ttlMs remaining time until token expires
      */
     public void blacklist(String jti, long ttlMs) {
-        try {
-            String key = KEY_PREFIX + jti;
-            redisTemplate.opsForValue().set(key, "1", Duration.ofMillis(ttlMs));
-            log.info("Token blacklisted: jti={}", jti);
-        } catch (Exception e) {
-            log.error("Failed to blacklist token: jti={}", jti, e);
-        }
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        revoked.put(jti, expiresAt);
+        fastPath.run("blacklist", redis -> {
+            redis.opsForValue().set(KEY_PREFIX + jti, "1", Duration.ofMillis(ttlMs));
+            redis.opsForZSet().add(INDEX_KEY, jti, expiresAt);
+        });
+        log.info("Token blacklisted: jti={}", jti);
     }
 
     /**
      * Check if a token is blacklisted.
-     * 
+     *
      * @return true if blacklisted, false otherwise
      */
     public boolean isBlacklisted(String jti) {
         if (jti == null)
             return false;
-        try {
-            return Boolean.TRUE.equals(redisTemplate.hasKey(KEY_PREFIX + jti));
-        } catch (Exception e) {
-            // Fail-open: Redis failure = allow (prevent total lockout)
-            log.error("Redis blacklist check failed, allowing token: jti={}", jti, e);
-            return false;
+        Long expiresAt = revoked.get(jti);
+        if (expiresAt != null && expiresAt > System.currentTimeMillis())
+            return true;
+        RedisRequestContext context = RedisRequestContext.current();
+        Boolean prefetched = context != null ? context.revoked(jti) : null;
+        if (prefetched != null)
+            return prefetched;
+        return fastPath.execute("blacklist", redis -> Boolean.TRUE.equals(redis.hasKey(KEY_PREFIX + jti)),
+                () -> false);
+    }
+
+    /** Queue the blacklist lookup of jti on a RedisRequestPrefetcher pipeline (reply: Boolean). */
+    public void queue(StringRedisConnection connection, String jti) {
+        connection.exists(KEY_PREFIX + jti);
+    }
+
+    /**
+     * Refresh the local copy from the index and drop expired index entries.
+     */
+    @Scheduled(fixedDelayString = "${app.redis.fast-path.blacklist-sync-ms:10000}")
+    public void sync() {
+        if (!fastPath.isAvailable())
+            return;
+        long now = System.currentTimeMillis();
+        Set<ZSetOperations.TypedTuple<String>> live = fastPath.execute("blacklist", redis -> {
+            redis.opsForZSet().removeRangeByScore(INDEX_KEY, Double.NEGATIVE_INFINITY, now);
+            return redis.opsForZSet().rangeByScoreWithScores(INDEX_KEY, now, Double.POSITIVE_INFINITY);
+        }, () -> null);
+        if (live == null)
+            return;
+
+        Map<String, Long> next = new ConcurrentHashMap<>();
+        for (ZSetOperations.TypedTuple<String> entry : live) {
+            if (entry.getValue() != null && entry.getScore() != null)
+                next.put(entry.getValue(), entry.getScore().longValue());
+        }
+        // Local revocations missing from the index were made while Redis was down: keep and re-send them
+        Map<String, Long> missing = new HashMap<>();
+        revoked.forEach((jti, expiresAt) -> {
+            if (expiresAt > now && next.putIfAbsent(jti, expiresAt) == null)
+                missing.put(jti, expiresAt);
+        });
+        revoked = next;
+        if (!missing.isEmpty()) {
+            fastPath.run("blacklist", redis -> missing.forEach((jti, expiresAt) -> {
+                redis.opsForValue().set(KEY_PREFIX + jti, "1", Duration.ofMillis(expiresAt - now));
+                redis.opsForZSet().add(INDEX_KEY, jti, expiresAt);
+            }));
+            log.info("Re-sent {} token revocations made while Redis was unavailable", missing.size());
         }
     }
 }
@@ -3,6 +3,7 @@ package com.c4gt.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -29,6 +30,26 @@ public class UserDataService {
     @Autowired
     private SecurityAuditService auditService;
 
+    @Autowired
+    private TimeTrackingCoalescer timeTrackingCoalescer;
+
+    @Autowired
+    private AnalyticsSummaryService analyticsSummaries;
+
+    @Autowired
+    private EngagementCounters engagementCounters;
+
+    @Autowired
+    private StreamingRollupService streamingRollup;
+
+    @Autowired
+    @Qualifier("dropoffSink")
+    private AppendOnlySink dropoffSink;
+
+    @Autowired
+    @Qualifier("retrySink")
+    private AppendOnlySink retrySink;
+
     /**
      * Export all user data as a structured map.
      * Includes: profile, progress, engagement, project, sessions, comments.
@@ -88,6 +109,16 @@ public class UserDataService {
     public Map<String, Object> deleteUserData(Long userId, String ipAddress) {
         Map<String, Integer> deleted = new LinkedHashMap<>();
 
+        // Drop writes still queued for this user first, or they would re-insert rows after the deletes
+        timeTrackingCoalescer.discard(userId);
+        dropoffSink.discardUser(userId);
+        retrySink.discardUser(userId);
+        streamingRollup.discardUser(userId);
+
+        // Summaries only notice changed rows, not deleted ones; needs the source rows still present
+        analyticsSummaries.discardUser(userId);
+        engagementCounters.discardUser(userId);
+
         // Delete engagement events
         deleted.put("engagementEvents", jdbcTemplate.update(
                 "DELETE FROM engagement_events WHERE user_id = ?", userId));
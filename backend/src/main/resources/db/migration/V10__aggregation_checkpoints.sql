@@ -0,0 +1,18 @@
+-- V10: aggregation checkpoints
+-- One row per job × window. A window is done only when status = 'COMPLETED';
+-- anything else (missing, RUNNING from a crashed pod, FAILED) is picked up by catch-up.
+
+CREATE TABLE aggregation_checkpoints (
+    job             VARCHAR(50)  NOT NULL,   -- daily, weekly
+    window_start    DATE         NOT NULL,
+    status          VARCHAR(20)  NOT NULL,   -- RUNNING, COMPLETED, FAILED
+    rows_written    INT          NOT NULL DEFAULT 0,
+    failed_chunks   INT          NOT NULL DEFAULT 0,
+    attempts        INT          NOT NULL DEFAULT 1,
+    started_at      TIMESTAMPTZ  NOT NULL DEFAULT NOW(),
+    finished_at     TIMESTAMPTZ,
+    duration_ms     BIGINT,
+    PRIMARY KEY (job, window_start)
+);
+
+CREATE INDEX idx_aggregation_checkpoints_status ON aggregation_checkpoints(job, status, window_start);
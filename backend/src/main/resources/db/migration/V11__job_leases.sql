@@ -0,0 +1,11 @@
+-- V11: cluster-wide leases for scheduled jobs (ClusterLeaseService)
+-- fencing_token increases every time the lease changes hands, so a holder
+-- whose lease expired can detect that it has been superseded.
+
+CREATE TABLE job_leases (
+    name            VARCHAR(100) PRIMARY KEY,
+    holder          VARCHAR(200) NOT NULL,
+    fencing_token   BIGINT       NOT NULL,
+    acquired_at     TIMESTAMPTZ  NOT NULL,
+    expires_at      TIMESTAMPTZ  NOT NULL
+);
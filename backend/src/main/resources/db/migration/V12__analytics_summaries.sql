@@ -0,0 +1,55 @@
+-- V12: incrementally maintained summary tables replace the V5 materialized views
+-- (AnalyticsSummaryService). Each refresh recomputes only the pages / users
+-- whose source rows changed since the summary's high-water mark.
+
+DROP MATERIALIZED VIEW IF EXISTS mv_page_engagement_daily;
+DROP MATERIALIZED VIEW IF EXISTS mv_user_engagement_profile;
+DROP MATERIALIZED VIEW IF EXISTS mv_content_health;
+
+CREATE TABLE page_engagement_daily_summary (
+    page_id         VARCHAR(100) NOT NULL,
+    date            DATE         NOT NULL,
+    unique_visitors BIGINT       NOT NULL,
+    avg_active_ms   BIGINT       NOT NULL,
+    avg_total_ms    BIGINT       NOT NULL,
+    total_visits    BIGINT       NOT NULL,
+    PRIMARY KEY (page_id, date)
+);
+CREATE INDEX idx_page_engagement_summary_date ON page_engagement_daily_summary(date DESC, unique_visitors DESC);
+
+CREATE TABLE user_engagement_profile_summary (
+    user_id            BIGINT      PRIMARY KEY REFERENCES users(id) ON DELETE CASCADE,
+    total_pages        BIGINT      NOT NULL,
+    total_active_ms    BIGINT      NOT NULL,
+    total_tab_switches BIGINT      NOT NULL,
+    total_visits       BIGINT      NOT NULL,
+    last_active_at     TIMESTAMPTZ,
+    total_dropoffs     BIGINT      NOT NULL,
+    total_retries      BIGINT      NOT NULL
+);
+
+CREATE TABLE content_health_summary (
+    page_id          VARCHAR(100) PRIMARY KEY,
+    total_visitors   BIGINT       NOT NULL,
+    avg_active_ms    BIGINT       NOT NULL,
+    total_dropoffs   BIGINT       NOT NULL,
+    users_retried    BIGINT       NOT NULL,
+    dropoff_rate_pct BIGINT       NOT NULL
+);
+CREATE INDEX idx_content_health_summary_visitors ON content_health_summary(total_visitors DESC);
+
+-- One row per summary: source rows changed after high_water have not been folded in yet
+CREATE TABLE analytics_watermarks (
+    summary        VARCHAR(50)  PRIMARY KEY,
+    high_water     TIMESTAMPTZ  NOT NULL,
+    refreshed_at   TIMESTAMPTZ  NOT NULL,
+    keys_refreshed INT          NOT NULL DEFAULT 0
+);
+
+-- Change detection and per-key recomputation
+CREATE INDEX IF NOT EXISTS idx_page_time_updated ON page_time_tracking(updated_at);
+CREATE INDEX IF NOT EXISTS idx_page_time_page    ON page_time_tracking(page_id);
+CREATE INDEX IF NOT EXISTS idx_dropoff_user      ON dropoff_events(user_id);
+CREATE INDEX IF NOT EXISTS idx_retry_user        ON retry_events(user_id);
+CREATE INDEX IF NOT EXISTS idx_dropoff_created_brin ON dropoff_events USING BRIN (created_at);
+CREATE INDEX IF NOT EXISTS idx_retry_created_brin   ON retry_events USING BRIN (created_at);
@@ -0,0 +1,11 @@
+-- V13: pages whose summaries must be recomputed although none of their source
+-- rows changed, e.g. after a user's rows were erased (AnalyticsSummaryService).
+-- Read like a source table: rows marked after a summary's high-water mark are
+-- folded in by its next refresh, older ones are purged by it.
+
+CREATE TABLE analytics_pending_pages (
+    summary   VARCHAR(50)  NOT NULL,
+    page_id   VARCHAR(100) NOT NULL,
+    marked_at TIMESTAMPTZ  NOT NULL DEFAULT NOW()
+);
+CREATE INDEX idx_analytics_pending_pages ON analytics_pending_pages(summary, marked_at);
@@ -0,0 +1,25 @@
+-- V8: engagement_events partition maintenance
+-- Partitions are created ahead of time by PartitionManagerService; this
+-- migration only covers the gap since V4 and adds the safety nets.
+
+-- Catch-up monthly partitions from 2026-05 through two months past today
+DO $$
+DECLARE
+    m DATE := DATE '2026-05-01';
+BEGIN
+    WHILE m <= date_trunc('month', NOW())::date + INTERVAL '2 months' LOOP
+        EXECUTE format(
+            'CREATE TABLE IF NOT EXISTS %I PARTITION OF engagement_events FOR VALUES FROM (%L) TO (%L)',
+            'engagement_events_' || to_char(m, 'YYYY_MM'), m, (m + INTERVAL '1 month')::date);
+        m := (m + INTERVAL '1 month')::date;
+    END LOOP;
+END $$;
+
+-- Rows outside every range land here instead of failing the insert.
+-- The partition manager moves them out when it attaches the matching partition.
+CREATE TABLE IF NOT EXISTS engagement_events_default PARTITION OF engagement_events DEFAULT;
+
+-- created_at is append-ordered, so a BRIN index is a few pages per partition
+-- and lets range scans inside a partition skip most blocks
+CREATE INDEX IF NOT EXISTS idx_engagement_events_created_brin
+    ON engagement_events USING BRIN (created_at) WITH (pages_per_range = 32);
@@ -0,0 +1,6 @@
+-- V9: running scroll-depth sum/count so daily_user_engagement can be
+-- maintained incrementally (StreamingRollupService) instead of recomputed
+
+ALTER TABLE daily_user_engagement
+    ADD COLUMN scroll_depth_sum   BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN scroll_depth_count INT    NOT NULL DEFAULT 0;
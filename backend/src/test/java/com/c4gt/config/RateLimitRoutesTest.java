@@ -0,0 +1,70 @@
+package com.c4gt.config;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for the RateLimitRoutes trie.
+ */
+class RateLimitRoutesTest {
+
+    private static RateLimitRoutes.Route route(String path, String bucket, int limit) {
+        return new RateLimitRoutes.Route(path, bucket, limit, null, null, null);
+    }
+
+    @Test
+    @DisplayName("the longest matching prefix wins and a literal segment beats a wildcard")
+    void match_prefersLongestAndLiteralMatch() {
+        RateLimitRoutes.Node root = RateLimitRoutes.compile(List.of(
+                route("/api", "api", 100),
+                route("/api/v1/engagement", "telemetry", 600),
+                route("/api/v1/levels/*/comments", "comments", 20),
+                route("/api/v1/levels/top/comments", "top", 5)));
+
+        assertThat(RateLimitRoutes.match(root, "/api/v1/projects", 0).bucket()).isEqualTo("api");
+        assertThat(RateLimitRoutes.match(root, "/api/v1/engagement/batch", 0).bucket()).isEqualTo("telemetry");
+        assertThat(RateLimitRoutes.match(root, "/api/v1/engagementx", 0).bucket()).isEqualTo("api");
+        assertThat(RateLimitRoutes.match(root, "/api/v1/levels/7/comments", 0).bucket()).isEqualTo("comments");
+        assertThat(RateLimitRoutes.match(root, "/api/v1/levels/top/comments/", 0).bucket()).isEqualTo("top");
+        assertThat(RateLimitRoutes.match(root, "/api/v1/levels/7", 0).bucket()).isEqualTo("api");
+        assertThat(RateLimitRoutes.match(root, "/other", 0)).isNull();
+    }
+
+    @Test
+    @DisplayName("invalid and duplicate routes are rejected")
+    void compile_rejectsInvalidRoutes() {
+        assertThatThrownBy(() -> new RateLimitRoutes.Route("/api", "api", 5, null, null, 6))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> RateLimitRoutes.compile(List.of(route("/api", "a", 1), route("/api/", "b", 1))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("the routes in application.yml bind and compile")
+    void applicationYml_routesBind() throws IOException {
+        StandardEnvironment environment = new StandardEnvironment();
+        new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yml"))
+                .forEach(source -> environment.getPropertySources().addLast(source));
+        List<RateLimitRoutes.Route> routes = Binder.get(environment)
+                .bind("app.rate-limit.routes", Bindable.listOf(RateLimitRoutes.Route.class)).get();
+        RateLimitRoutes.Node root = RateLimitRoutes.compile(routes);
+
+        RateLimitRoutes.Route export = RateLimitRoutes.match(root, "/api/v1/user/data/export", 0);
+        assertThat(export.window()).isEqualTo(Duration.ofHours(1));
+        assertThat(export.key()).isEqualTo(RateLimitRoutes.KeyType.USER);
+        assertThat(RateLimitRoutes.match(root, "/api/auth/send-otp", 0).key()).isEqualTo(RateLimitRoutes.KeyType.IP);
+        assertThat(RateLimitRoutes.match(root, "/api/v1/admin/archive/aggregate", 0).cost()).isEqualTo(10);
+    }
+}
@@ -0,0 +1,55 @@
+package com.c4gt.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for BatchBisector.
+ */
+class BatchBisectorTest {
+
+    private static final List<Integer> ROWS = IntStream.range(0, 100).boxed().toList();
+
+    @Test
+    @DisplayName("only rows failing with a data error are rejected, the rest are written")
+    void write_isolatesBadRows() {
+        List<Integer> written = new ArrayList<>();
+        BatchBisector.Outcome<Integer> outcome = BatchBisector.write(ROWS, part -> {
+            if (part.contains(17) || part.contains(63))
+                throw new DataIntegrityViolationException("bad row", new SQLException("value too long", "22001"));
+            written.addAll(part);
+        });
+
+        assertThat(outcome.complete()).isTrue();
+        assertThat(outcome.rejected()).containsExactly(17, 63);
+        assertThat(written).hasSize(98).doesNotContain(17, 63);
+    }
+
+    @Test
+    @DisplayName("other errors stop the write and return what is left")
+    void write_stopsOnConnectionError() {
+        List<Integer> written = new ArrayList<>();
+        BatchBisector.Outcome<Integer> outcome = BatchBisector.write(ROWS, part -> {
+            if (part.contains(5))
+                throw new DataIntegrityViolationException("bad row", new SQLException("not null", "23502"));
+            if (part.contains(80))
+                throw new QueryTimeoutException("timeout");
+            written.addAll(part);
+        });
+
+        assertThat(outcome.complete()).isFalse();
+        assertThat(outcome.failure()).isInstanceOf(QueryTimeoutException.class);
+        assertThat(outcome.rejected()).containsExactly(5);
+        assertThat(outcome.unwritten()).contains(80).doesNotContainAnyElementsOf(written);
+        assertThat(written.size() + outcome.unwritten().size() + 1).isEqualTo(ROWS.size());
+    }
+}
@@ -0,0 +1,94 @@
+package com.c4gt.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for ColumnarArchive.
+ */
+class ColumnarArchiveTest {
+
+    private static final long T0 = 1_767_225_600_000_000L; // 2026-01-01T00:00Z in micros
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("rows round-trip across row groups, including nulls")
+    void writeThenScan_roundTripsAllColumns() throws IOException {
+        Path file = dir.resolve("p.cea");
+        try (ColumnarArchive.Writer writer = new ColumnarArchive.Writer(file, 100)) {
+            for (int i = 0; i < 250; i++) {
+                writer.add(T0 + i * 1_000_000L, 1000 - i % 7, i % 2 == 0 ? "PAGE_VIEW" : "SCROLL_DEPTH",
+                        "page-" + i % 3, i % 5 == 0 ? null : "s" + i % 4, i % 10 == 0 ? null : i * 10,
+                        i % 2 == 0 ? null : i % 101);
+            }
+        }
+
+        try (ColumnarArchive.Reader reader = new ColumnarArchive.Reader(file)) {
+            ColumnarArchive.Footer footer = reader.footer();
+            assertThat(footer.rows()).isEqualTo(250);
+            assertThat(footer.rowGroups()).hasSize(3);
+            assertThat(footer.pageIds()).containsExactly("page-0", "page-1", "page-2");
+
+            List<ColumnarArchive.Batch> batches = new ArrayList<>();
+            reader.scan(Long.MIN_VALUE, Long.MAX_VALUE, EnumSet.allOf(ColumnarArchive.Column.class), batches::add);
+            ColumnarArchive.Batch last = batches.get(2);
+            int i = 249; // last row, index 49 of the third group
+            assertThat(last.rows).isEqualTo(50);
+            assertThat(last.createdAt[49]).isEqualTo(T0 + i * 1_000_000L);
+            assertThat(last.userId[49]).isEqualTo(1000 - i % 7);
+            assertThat(footer.eventTypes().get(last.eventType[49])).isEqualTo("SCROLL_DEPTH");
+            assertThat(footer.pageIds().get(last.pageId[49])).isEqualTo("page-0");
+            assertThat(footer.sectionIds().get(last.sectionId[49])).isEqualTo("s1");
+            assertThat(last.durationMs[49]).isEqualTo(2490);
+            assertThat(last.scrollDepth[49]).isEqualTo(i % 101);
+            assertThat(last.sectionId[45]).isEqualTo(-1); // i = 245
+            assertThat(last.durationMs[40]).isEqualTo(Long.MIN_VALUE); // i = 240
+        }
+    }
+
+    @Test
+    @DisplayName("scan skips row groups outside the time range and undecoded columns stay null")
+    void scan_prunesRowGroupsAndColumns() throws IOException {
+        Path file = dir.resolve("p.cea");
+        try (ColumnarArchive.Writer writer = new ColumnarArchive.Writer(file, 10)) {
+            for (int i = 0; i < 100; i++) {
+                writer.add(T0 + i, i, "PAGE_VIEW", "p", null, null, null);
+            }
+        }
+
+        try (ColumnarArchive.Reader reader = new ColumnarArchive.Reader(file)) {
+            List<ColumnarArchive.Batch> batches = new ArrayList<>();
+            reader.scan(T0 + 35, T0 + 55, EnumSet.of(ColumnarArchive.Column.USER_ID), batches::add);
+            assertThat(batches).hasSize(3); // groups 30-39, 40-49, 50-59
+            assertThat(batches.get(0).userId[0]).isEqualTo(30);
+            assertThat(batches.get(0).pageId).isNull();
+        }
+    }
+
+    @Test
+    @DisplayName("a file without a footer is rejected")
+    void reader_rejectsTruncatedFile() throws IOException {
+        Path file = dir.resolve("p.cea");
+        try (ColumnarArchive.Writer writer = new ColumnarArchive.Writer(file, 10)) {
+            writer.add(T0, 1, "PAGE_VIEW", "p", null, null, null);
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+
+        assertThatThrownBy(() -> new ColumnarArchive.Reader(file)).isInstanceOf(IOException.class);
+    }
+}
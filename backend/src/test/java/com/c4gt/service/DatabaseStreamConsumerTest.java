@@ -0,0 +1,80 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for DatabaseStreamConsumer: which rows a failed batch reports
+ * for redelivery.
+ */
+@ExtendWith(MockitoExtension.class)
+class DatabaseStreamConsumerTest {
+
+    private static final List<EngagementEventWriter.Row> ROWS = LongStream.range(0, 100).mapToObj(
+            user -> new EngagementEventWriter.Row(user, "s", "page_view", "p", null, null, null, null, null, 0L))
+            .toList();
+
+    @Mock
+    private EngagementEventWriter eventWriter;
+
+    @InjectMocks
+    private DatabaseStreamConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(consumer, "meterRegistry", new SimpleMeterRegistry());
+        consumer.registerMetrics();
+    }
+
+    @Test
+    @DisplayName("a failure after some rows were committed reports only the rows not written")
+    void consume_partialWriteReportsUnwritten() {
+        List<EngagementEventWriter.Row> written = new ArrayList<>();
+        when(eventWriter.writeAll(any())).thenAnswer(call -> {
+            List<EngagementEventWriter.Row> part = call.getArgument(0);
+            if (part.contains(ROWS.get(5)))
+                throw new DataIntegrityViolationException("bad row", new SQLException("not null", "23502"));
+            if (part.contains(ROWS.get(80)))
+                throw new QueryTimeoutException("timeout");
+            written.addAll(part);
+            return part.size();
+        });
+
+        EngagementStreamConsumer.PartialFailure failure = catchThrowableOfType(() -> consumer.consume(ROWS),
+                EngagementStreamConsumer.PartialFailure.class);
+
+        assertThat(written).isNotEmpty();
+        assertThat(failure.getCause()).isInstanceOf(QueryTimeoutException.class);
+        assertThat(failure.unwritten()).contains(ROWS.get(80)).doesNotContain(ROWS.get(5))
+                .doesNotContainAnyElementsOf(written);
+        assertThat(written.size() + failure.unwritten().size() + 1).isEqualTo(ROWS.size());
+    }
+
+    @Test
+    @DisplayName("a failure before anything was written keeps the whole batch")
+    void consume_failureWithNothingWrittenRethrows() {
+        when(eventWriter.writeAll(any())).thenThrow(new QueryTimeoutException("timeout"));
+
+        assertThatThrownBy(() -> consumer.consume(ROWS)).isInstanceOf(QueryTimeoutException.class);
+    }
+}
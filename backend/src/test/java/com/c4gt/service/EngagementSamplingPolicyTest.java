@@ -0,0 +1,73 @@
+package com.c4gt.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the pure sampling logic of EngagementSamplingPolicy.
+ */
+class EngagementSamplingPolicyTest {
+
+    private static final long T0 = 1_767_225_600_000L;
+
+    private static EngagementEventWriter.Row row(String session, String type, String page, Integer depth, long ts) {
+        return new EngagementEventWriter.Row(1L, session, type, page, null, null,
+                depth != null ? depth.shortValue() : null, null, null, ts);
+    }
+
+    @Test
+    @DisplayName("only the deepest scroll per session, page and window is kept")
+    void apply_collapsesToMaxScrollDepthPerWindow() {
+        Map<String, EngagementSamplingPolicy.Rule> rules = Map.of("SCROLL_DEPTH",
+                new EngagementSamplingPolicy.Rule(1.0, 5, 0));
+        List<EngagementEventWriter.Row> rows = List.of(
+                row("s", "SCROLL_DEPTH", "p1", 20, T0),
+                row("s", "PAGE_VIEW", "p1", null, T0),
+                row("s", "SCROLL_DEPTH", "p1", 70, T0 + 1000),
+                row("s", "SCROLL_DEPTH", "p1", 40, T0 + 2000),
+                row("s", "SCROLL_DEPTH", "p2", 10, T0 + 2000),
+                row("s", "SCROLL_DEPTH", "p1", 30, T0 + 6000));
+        List<String> reasons = new ArrayList<>();
+
+        List<EngagementEventWriter.Row> kept = EngagementSamplingPolicy.apply(rows, rules,
+                EngagementSamplingPolicy.NORMAL, (type, reason) -> reasons.add(reason));
+
+        assertThat(kept).containsExactly(rows.get(1), rows.get(2), rows.get(4), rows.get(5));
+        assertThat(reasons).containsExactly("collapsed", "collapsed");
+    }
+
+    @Test
+    @DisplayName("shedding drops a type only at or above its shed level")
+    void apply_shedsByLoadLevel() {
+        Map<String, EngagementSamplingPolicy.Rule> rules = Map.of("SCROLL_DEPTH",
+                new EngagementSamplingPolicy.Rule(null, null, 2));
+        List<EngagementEventWriter.Row> rows = List.of(
+                row("s", "SCROLL_DEPTH", "p", 10, T0), row("s", "PAGE_VIEW", "p", null, T0));
+
+        assertThat(EngagementSamplingPolicy.apply(rows, rules, EngagementSamplingPolicy.ELEVATED, (t, r) -> {
+        })).isSameAs(rows);
+        assertThat(EngagementSamplingPolicy.apply(rows, rules, EngagementSamplingPolicy.CRITICAL, (t, r) -> {
+        })).containsExactly(rows.get(1));
+    }
+
+    @Test
+    @DisplayName("sampling is deterministic per session and close to the configured rate")
+    void sampled_isDeterministicAndProportional() {
+        int kept = 0;
+        for (int i = 0; i < 10_000; i++) {
+            boolean first = EngagementSamplingPolicy.sampled("session_" + i, "SCROLL_DEPTH", 0.25);
+            assertThat(EngagementSamplingPolicy.sampled("session_" + i, "SCROLL_DEPTH", 0.25)).isEqualTo(first);
+            if (first)
+                kept++;
+        }
+        assertThat(kept).isBetween(2_300, 2_700);
+        assertThat(EngagementSamplingPolicy.sampled("any", "SCROLL_DEPTH", 1.0)).isTrue();
+        assertThat(EngagementSamplingPolicy.sampled("any", "SCROLL_DEPTH", 0.0)).isFalse();
+    }
+}
@@ -0,0 +1,176 @@
+package com.c4gt.service;
+
+import com.c4gt.dto.EngagementEventDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for EngagementStreamReader, plus an opt-in format benchmark:
+ * mvn test -Dtest=EngagementStreamReaderTest -Dbenchmark=true
+ */
+class EngagementStreamReaderTest {
+
+    private static final Logger log = LoggerFactory.getLogger(EngagementStreamReaderTest.class);
+
+    private final EngagementStreamReader reader = new EngagementStreamReader();
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    @DisplayName("NDJSON events are streamed one per line")
+    void ndjson_readsEachLine() throws IOException {
+        List<EngagementEventDTO> events = sampleEvents(3);
+        List<EngagementEventDTO> read = readAll(ndjson(events), EngagementStreamReader.NDJSON, "s-1");
+
+        assertThat(read).hasSize(3);
+        assertThat(read.get(2).getPageId()).isEqualTo(events.get(2).getPageId());
+    }
+
+    @Test
+    @DisplayName("Smile batch object carries sessionId to the events")
+    void smile_readsBatchObject() throws IOException {
+        byte[] body = new ObjectMapper(new SmileFactory()).writeValueAsBytes(batch(sampleEvents(5)));
+        EngagementStreamReader.BatchContext context = new EngagementStreamReader.BatchContext(null, null);
+        List<EngagementEventDTO> read = new ArrayList<>();
+        reader.read(new ByteArrayInputStream(body), EngagementStreamReader.SMILE, context, (ctx, e) -> read.add(e));
+
+        assertThat(read).hasSize(5);
+        assertThat(context.getSessionId()).isEqualTo("session-42");
+        assertThat(context.getClientVersion()).isEqualTo("1.4.0");
+    }
+
+    @Test
+    @DisplayName("CBOR bare array of events is accepted")
+    void cbor_readsBareArray() throws IOException {
+        byte[] body = new ObjectMapper(new CBORFactory()).writeValueAsBytes(sampleEvents(4));
+        assertThat(readAll(body, EngagementStreamReader.CBOR, null)).hasSize(4);
+    }
+
+    @Test
+    @DisplayName("callback returning false stops parsing")
+    void callback_canStopEarly() throws IOException {
+        List<EngagementEventDTO> read = new ArrayList<>();
+        reader.read(new ByteArrayInputStream(ndjson(sampleEvents(10))), EngagementStreamReader.NDJSON,
+                new EngagementStreamReader.BatchContext(null, null), (ctx, e) -> read.add(e) && read.size() < 3);
+
+        assertThat(read).hasSize(3);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    @DisplayName("benchmark: bytes on the wire and parse CPU per 1,000 events")
+    void benchmark_formats() throws IOException {
+        List<EngagementEventDTO> events = sampleEvents(1000);
+        Map<String, Object> batch = batch(events);
+
+        byte[] jsonBody = json.writeValueAsBytes(batch);
+        byte[] ndjsonBody = ndjson(events);
+        byte[] ndjsonGzip = gzip(ndjsonBody);
+        byte[] smileBody = new ObjectMapper(new SmileFactory()).writeValueAsBytes(batch);
+        byte[] cborBody = new ObjectMapper(new CBORFactory()).writeValueAsBytes(batch);
+
+        log.info(String.format("%-14s %10s %14s", "format", "bytes", "parse us/1k"));
+        log.info(String.format("%-14s %10d %14.1f", "json (list)", jsonBody.length, timeJsonList(jsonBody)));
+        log.info(String.format("%-14s %10d %14.1f", "ndjson", ndjsonBody.length,
+                time(() -> readAll(ndjsonBody, EngagementStreamReader.NDJSON, null))));
+        log.info(String.format("%-14s %10d %14.1f", "ndjson+gzip", ndjsonGzip.length,
+                time(() -> readAll(new GZIPInputStream(new ByteArrayInputStream(ndjsonGzip)),
+                        EngagementStreamReader.NDJSON))));
+        log.info(String.format("%-14s %10d %14.1f", "smile", smileBody.length,
+                time(() -> readAll(smileBody, EngagementStreamReader.SMILE, null))));
+        log.info(String.format("%-14s %10d %14.1f", "cbor", cborBody.length,
+                time(() -> readAll(cborBody, EngagementStreamReader.CBOR, null))));
+
+        assertThat(ndjsonGzip.length).isLessThan(jsonBody.length);
+        assertThat(smileBody.length).isLessThan(jsonBody.length);
+    }
+
+    // --- Helpers ---
+
+    private interface IoAction {
+        Object run() throws IOException;
+    }
+
+    private double time(IoAction action) throws IOException {
+        for (int i = 0; i < 200; i++) {
+            action.run(); // warm-up
+        }
+        int iterations = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            action.run();
+        }
+        return (System.nanoTime() - start) / 1000.0 / iterations;
+    }
+
+    private double timeJsonList(byte[] body) throws IOException {
+        return time(() -> json.readValue(body, com.c4gt.dto.EngagementBatchRequest.class));
+    }
+
+    private List<EngagementEventDTO> readAll(byte[] body, MediaType type, String sessionId) throws IOException {
+        List<EngagementEventDTO> read = new ArrayList<>();
+        reader.read(new ByteArrayInputStream(body), type, new EngagementStreamReader.BatchContext(sessionId, null),
+                (ctx, e) -> read.add(e));
+        return read;
+    }
+
+    private List<EngagementEventDTO> readAll(InputStream body, MediaType type) throws IOException {
+        List<EngagementEventDTO> read = new ArrayList<>();
+        reader.read(body, type, new EngagementStreamReader.BatchContext(null, null), (ctx, e) -> read.add(e));
+        return read;
+    }
+
+    private List<EngagementEventDTO> sampleEvents(int count) {
+        List<EngagementEventDTO> events = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            events.add(new EngagementEventDTO("SCROLL_DEPTH", "LEVEL_" + (i % 15), null,
+                    now - i * 250L, (i * 37) % 30000, i % 101, null, (long) i));
+        }
+        return events;
+    }
+
+    private Map<String, Object> batch(List<EngagementEventDTO> events) {
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("sessionId", "session-42");
+        batch.put("clientVersion", "1.4.0");
+        batch.put("events", events);
+        return batch;
+    }
+
+    private byte[] ndjson(List<EngagementEventDTO> events) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (EngagementEventDTO event : events) {
+            sb.append(json.writeValueAsString(event)).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(raw);
+        }
+        return out.toByteArray();
+    }
+}
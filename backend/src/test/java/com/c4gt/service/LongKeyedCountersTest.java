@@ -0,0 +1,62 @@
+package com.c4gt.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for LongKeyedCounters.
+ */
+class LongKeyedCountersTest {
+
+    @Test
+    @DisplayName("counters accumulate per key and survive growth")
+    void add_accumulatesAcrossResize() {
+        LongKeyedCounters table = new LongKeyedCounters(2, 4);
+        for (long key = 1; key <= 10_000; key++) {
+            table.add(key, 0, key);
+            table.add(key, 1, 1);
+            table.add(key, 1, 1);
+        }
+
+        Map<Long, long[]> seen = new HashMap<>();
+        table.forEach((key, values, offset) -> seen.put(key, new long[] { values[offset], values[offset + 1] }));
+
+        assertThat(table.size()).isEqualTo(10_000);
+        assertThat(seen).hasSize(10_000);
+        assertThat(seen.get(1234L)).containsExactly(1234L, 2L);
+    }
+
+    @Test
+    @DisplayName("rollup key keeps user and day apart")
+    void rollupKey_isUniquePerUserAndDay() {
+        LocalDate day = LocalDate.of(2026, 10, 17);
+        assertThat(StreamingRollupService.key(1, day)).isNotEqualTo(StreamingRollupService.key(1, day.plusDays(1)));
+        assertThat(StreamingRollupService.key(1, day)).isNotEqualTo(StreamingRollupService.key(2, day));
+        assertThat(StreamingRollupService.key(1, day) >>> 40).isEqualTo(day.toEpochDay());
+    }
+
+    @Test
+    @DisplayName("removing keys keeps the other keys and their counters")
+    void removeIf_keepsOtherKeys() {
+        LongKeyedCounters table = new LongKeyedCounters(1, 4);
+        for (long key = 1; key <= 100; key++) {
+            table.add(key, 0, key);
+        }
+
+        assertThat(table.removeIf(key -> key % 2 == 0)).isEqualTo(50);
+        List<Long> seen = new ArrayList<>();
+        table.forEach((key, values, offset) -> {
+            assertThat(values[offset]).isEqualTo(key);
+            seen.add(key);
+        });
+        assertThat(seen).hasSize(50).allMatch(key -> key % 2 == 1);
+    }
+}
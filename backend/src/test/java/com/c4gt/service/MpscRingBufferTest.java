@@ -0,0 +1,82 @@
+package com.c4gt.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for MpscRingBuffer.
+ */
+class MpscRingBufferTest {
+
+    @Test
+    @DisplayName("capacity is rounded up to a power of two")
+    void capacity_roundedUp() {
+        assertThat(new MpscRingBuffer<>(1000).capacity()).isEqualTo(1024);
+        assertThat(new MpscRingBuffer<>(1024).capacity()).isEqualTo(1024);
+    }
+
+    @Test
+    @DisplayName("offer fails when full and succeeds again after drain")
+    void offer_failsWhenFull() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(ring.offer(i)).isTrue();
+        }
+        assertThat(ring.offer(99)).isFalse();
+
+        List<Integer> out = new ArrayList<>();
+        assertThat(ring.drain(out::add, 2)).isEqualTo(2);
+        assertThat(out).containsExactly(0, 1);
+        assertThat(ring.offer(4)).isTrue();
+        assertThat(ring.offer(5)).isTrue();
+
+        ring.drain(out::add, Integer.MAX_VALUE);
+        assertThat(out).containsExactly(0, 1, 2, 3, 4, 5);
+        assertThat(ring.isEmpty()).isTrue();
+    }
+
+    @Test
+    @DisplayName("concurrent producers never lose or duplicate elements")
+    void concurrentProducers_noLossNoDuplicates() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(1024);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ring.offer(base + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                return null;
+            });
+        }
+
+        Set<Integer> seen = new HashSet<>();
+        start.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (seen.size() < producers * perProducer && System.nanoTime() < deadline) {
+            ring.drain(e -> assertThat(seen.add(e)).isTrue(), 256);
+        }
+        pool.shutdown();
+
+        assertThat(seen).hasSize(producers * perProducer);
+        assertThat(ring.isEmpty()).isTrue();
+    }
+}
@@ -0,0 +1,124 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Unit tests for RateLimitService: handling of the GCRA script reply, local
+ * leases, and the in-memory fallback. Redis is mocked; an unanswered call
+ * returns null, as RedisFastPath does when Redis is unavailable.
+ */
+@ExtendWith(MockitoExtension.class)
+class RateLimitServiceTest {
+
+    private static final Duration MINUTE = Duration.ofMinutes(1);
+
+    @Mock
+    private RedisFastPath fastPath;
+
+    @InjectMocks
+    private RateLimitService rateLimitService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(rateLimitService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(rateLimitService, "localEnabled", true);
+        ReflectionTestUtils.setField(rateLimitService, "leaseSize", 10);
+        ReflectionTestUtils.setField(rateLimitService, "maxKeys", 1000);
+        rateLimitService.registerMetrics();
+    }
+
+    /** A refill of key: 10 tokens wanted, 1 spent on the request that made it. */
+    private static RateLimitService.RemoteCheck refill(String key) {
+        return new RateLimitService.RemoteCheck(key, 100, MINUTE, 10, 1);
+    }
+
+    /** Script reply: {granted, remaining, retry after ms, reset after ms}. */
+    private static List<Long> reply(long granted, long remaining, long retryAfter, long resetAfter) {
+        return List.of(granted, remaining, retryAfter, resetAfter);
+    }
+
+    @Test
+    @DisplayName("a grant spends the cost and answers later checks locally until the lease is used up")
+    void complete_grantBecomesLease() {
+        RateLimitService.Decision decision = rateLimitService.complete(refill("k"), reply(10, 90, 0, 6000));
+
+        assertThat(decision.allowed()).isTrue();
+        assertThat(decision.remaining()).isEqualTo(99);
+        assertThat(decision.resetAfterMillis()).isEqualTo(6000);
+        for (int i = 0; i < 9; i++) {
+            assertThat(rateLimitService.check("k", 100, MINUTE).allowed()).isTrue();
+        }
+        verifyNoInteractions(fastPath);
+
+        rateLimitService.check("k", 100, MINUTE);
+        verify(fastPath).execute(eq("ratelimit"), any(), any());
+    }
+
+    @Test
+    @DisplayName("a denial reply is returned and remembered until its retry-after")
+    void complete_denialIsCached() {
+        RateLimitService.Decision decision = rateLimitService.complete(refill("k"), reply(0, 0, 1500, 60000));
+
+        assertThat(decision.allowed()).isFalse();
+        assertThat(decision.retryAfterMillis()).isEqualTo(1500);
+        RateLimitService.Decision again = rateLimitService.check("k", 100, MINUTE);
+        assertThat(again.allowed()).isFalse();
+        assertThat(again.retryAfterMillis()).isBetween(1L, 1500L);
+        verifyNoInteractions(fastPath);
+    }
+
+    @Test
+    @DisplayName("concurrent refills of one key add up instead of discarding unspent tokens")
+    void complete_refillsCarryTokens() {
+        rateLimitService.complete(refill("k"), reply(10, 90, 0, 6000));
+        rateLimitService.complete(refill("k"), reply(10, 80, 0, 12000));
+
+        for (int i = 0; i < 18; i++) {
+            assertThat(rateLimitService.check("k", 100, MINUTE).allowed()).isTrue();
+        }
+        verifyNoInteractions(fastPath);
+        rateLimitService.check("k", 100, MINUTE);
+        verify(fastPath, times(1)).execute(eq("ratelimit"), any(), any());
+    }
+
+    @Test
+    @DisplayName("a denial does not replace a lease that still has tokens")
+    void complete_denialKeepsLiveLease() {
+        rateLimitService.complete(refill("k"), reply(10, 0, 0, 60000));
+        rateLimitService.complete(refill("k"), reply(0, 0, 600, 60000));
+
+        assertThat(rateLimitService.check("k", 100, MINUTE).allowed()).isTrue();
+        verifyNoInteractions(fastPath);
+    }
+
+    @Test
+    @DisplayName("without a reply the same limit is enforced in memory")
+    void check_fallsBackToLocalLimiter() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(rateLimitService.check("small", 3, MINUTE).allowed()).isTrue();
+        }
+        RateLimitService.Decision denied = rateLimitService.check("small", 3, MINUTE);
+
+        assertThat(denied.allowed()).isFalse();
+        assertThat(denied.remaining()).isZero();
+        assertThat(denied.retryAfterMillis()).isPositive().isLessThanOrEqualTo(20_000);
+    }
+}
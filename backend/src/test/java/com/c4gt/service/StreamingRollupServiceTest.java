@@ -0,0 +1,98 @@
+package com.c4gt.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for StreamingRollupService: erasure of pending counters. The
+ * database is mocked; the upsert arguments hold user_id first in every row.
+ */
+@ExtendWith(MockitoExtension.class)
+class StreamingRollupServiceTest {
+
+    private static final int ARGS_PER_ROW = 8;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private EngagementSummaryCache summaryCache;
+    @Mock
+    private EngagementCounters counters;
+
+    @InjectMocks
+    private StreamingRollupService rollup;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(rollup, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(rollup, "expectedUsersPerStripe", 16);
+        ReflectionTestUtils.setField(rollup, "maxAttempts", 30);
+        rollup.init();
+    }
+
+    /** user_id of every row written by the upserts so far. */
+    private List<Object> writtenUsers() {
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate, atLeastOnce()).update(anyString(), args.capture(), any(int[].class));
+        List<Object> users = new ArrayList<>();
+        for (Object[] call : args.getAllValues()) {
+            for (int i = 0; i < call.length; i += ARGS_PER_ROW) {
+                users.add(call[i]);
+            }
+        }
+        return users;
+    }
+
+    @Test
+    @DisplayName("an erased user's unflushed counters are not written")
+    void discardUser_dropsPendingCounters() {
+        rollup.recordDropoff(1);
+        rollup.recordRetry(1);
+        rollup.recordDropoff(2);
+
+        rollup.discardUser(1);
+        rollup.flush();
+
+        assertThat(writtenUsers()).containsExactly(2L);
+    }
+
+    @Test
+    @DisplayName("an erased user's rows kept from a failed flush are not retried")
+    void discardUser_dropsRetainedRows() {
+        rollup.recordDropoff(1);
+        rollup.recordDropoff(2);
+        doThrow(new QueryTimeoutException("timeout"))
+                .when(jdbcTemplate).update(anyString(), any(Object[].class), any(int[].class));
+        rollup.flush();
+
+        rollup.discardUser(1);
+        reset(jdbcTemplate);
+        rollup.flush();
+
+        assertThat(writtenUsers()).containsExactly(2L);
+        verify(counters, never()).increment(argThat(d -> d.containsKey(1L)));
+    }
+}
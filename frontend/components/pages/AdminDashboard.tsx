@@ -28,7 +28,7 @@ async function adminFetch<T>(path: string): Promise<T> {
 }
 
 /**
- * Admin Analytics Dashboard — reads from materialized views.
+ * Admin Analytics Dashboard — reads from the analytics summary tables.
  * Shows platform overview, content health, and drop-off funnel.
  */
 export const AdminDashboard: React.FC = () => {
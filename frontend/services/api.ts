@@ -353,7 +353,7 @@ export const engagementApi = {
     submitBatch: (events: Array<{
         eventType: string; pageId: string; timestamp: number;
         sectionId?: string; duration?: number; scrollDepth?: number;
-        metadata?: Record<string, unknown>;
+        metadata?: Record<string, unknown>; seq?: number;
     }>, sessionId?: string): Promise<void> =>
         apiFetch('/v1/engagement/batch', {
             method: 'POST',
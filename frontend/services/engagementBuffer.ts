@@ -16,6 +16,8 @@ export interface EngagementEvent {
     duration?: number;
     scrollDepth?: number;
     metadata?: Record<string, unknown>;
+    /** Monotonic per-buffer sequence; lets the server drop retried events */
+    seq?: number;
 }
 
 type FlushFn = (events: EngagementEvent[]) => void | Promise<void>;
@@ -39,6 +41,7 @@ class EngagementEventBuffer {
     private retryQueue: EngagementEvent[] = [];
     private retryCount = 0;
     private readonly MAX_RETRIES = 3;
+    private nextSeq = 0;
 
     constructor(flushFn: FlushFn, options: EngagementBufferOptions = {}) {
         this.flushFn = flushFn;
@@ -61,6 +64,7 @@ class EngagementEventBuffer {
         this.buffer.push({
             ...event,
             timestamp: event.timestamp || Date.now(),
+            seq: this.nextSeq++,
         });
 
         if (this.buffer.length >= this.maxSize) {
@@ -0,0 +1,42 @@
+#!/usr/bin/env sh
+# Compare platform-thread and virtual-thread modes with the load-test.js scenarios.
+#
+# Run from the repository root (needs docker compose, k6 and jq):
+#   sh load-tests/compare-threading.sh
+#
+# Each mode rebuilds the backend on a Java 21 image, runs the full k6 scenario
+# set and writes a summary to load-tests/results/<mode>.json. A comparison
+# table of request rate, latency percentiles and error rate is printed at the end.
+
+set -e
+
+BASE_URL=${BASE_URL:-http://localhost:8080}
+RESULTS=load-tests/results
+mkdir -p "$RESULTS"
+
+run_mode() {
+    mode=$1
+    virtual=$2
+    echo "==> $mode (VIRTUAL_THREADS=$virtual)"
+    JAVA_VERSION=21 VIRTUAL_THREADS=$virtual docker compose up -d --build backend
+    until curl -sf "$BASE_URL/actuator/health" > /dev/null; do sleep 2; done
+    BASE_URL=$BASE_URL k6 run --quiet --summary-export "$RESULTS/$mode.json" load-tests/load-test.js || true
+    curl -sf "$BASE_URL/actuator/metrics/jvm.threads.live" > "$RESULTS/$mode-threads.json" || true
+}
+
+run_mode platform false
+run_mode virtual true
+
+printf '\n%-10s %10s %10s %10s %10s %8s %8s\n' mode req/s p50_ms p95_ms max_ms err_% threads
+for mode in platform virtual; do
+    jq -r --arg mode "$mode" --slurpfile t "$RESULTS/$mode-threads.json" '
+        [ $mode,
+          (.metrics.http_reqs.rate | floor),
+          (.metrics.http_req_duration.med * 10 | floor / 10),
+          (.metrics.http_req_duration["p(95)"] * 10 | floor / 10),
+          (.metrics.http_req_duration.max | floor),
+          ((.metrics.error_rate.value // 0) * 1000 | floor / 10),
+          ($t[0].measurements[0].value // "n/a") ]
+        | @tsv' "$RESULTS/$mode.json" \
+        | awk -F'\t' '{ printf "%-10s %10s %10s %10s %10s %8s %8s\n", $1, $2, $3, $4, $5, $6, $7 }'
+done
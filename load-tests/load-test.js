@@ -91,8 +91,10 @@ export function engagementBatch() {
     engagementDuration.add(res.timings.duration);
     check(res, {
         'batch accepted': (r) => r.status === 202 || r.status === 401,
+        'backpressure has Retry-After': (r) => r.status !== 503 || r.headers['Retry-After'] !== undefined,
     });
-    errorRate.add(res.status >= 500);
+    // 503 + Retry-After is deliberate backpressure, not a server error
+    errorRate.add(res.status >= 500 && res.status !== 503);
 
     sleep(0.5);
 }